@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput, in images per second, of a batch of images rendered one after the other with
+ * {@link SetImageVersion#createImage()} and through a {@link RenderPipeline}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderPipelineBenchmark {
+
+    private static final int IMAGES = 12;
+
+    @Param({ "png", "jpg" })
+    public String format;
+
+    /** Scale factor applied to the bundled image before the benchmark. */
+    @Param({ "1", "4" })
+    public int scale;
+
+    /** Compose threads of the pipeline. */
+    @Param({ "1", "2" })
+    public int threads;
+
+    private Path workDir;
+    private File baseImage;
+    private RenderPipeline pipeline;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("image-overlay-pipeline-benchmark");
+        baseImage = workDir.resolve("base." + format).toFile();
+        final BufferedImage source = ImageIO.read(
+                RenderPipelineBenchmark.class.getResource("/splash_sp_without_version.bmp"));
+        final BufferedImage scaled = new BufferedImage(source.getWidth() * scale, source.getHeight() * scale,
+                BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(source, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+        graphics.dispose();
+        if (!ImageIO.write(scaled, format, baseImage)) {
+            throw new IOException("No writer for " + format);
+        }
+        pipeline = new RenderPipeline(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pipeline.close();
+        try (Stream<Path> files = Files.walk(workDir)) {
+            files.map(Path::toFile).sorted((a, b) -> b.compareTo(a)).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IMAGES)
+    public void sequential() throws Exception {
+        for (int i = 0; i < IMAGES; i++) {
+            setImageVersion(i).createImage();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IMAGES)
+    public void pipelined() throws Exception {
+        final List<CompletableFuture<RenderMetrics>> results = new ArrayList<>();
+        for (int i = 0; i < IMAGES; i++) {
+            results.add(pipeline.submit(setImageVersion(i)));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get();
+    }
+
+    private SetImageVersion setImageVersion(final int index) {
+        final SetImageVersion setImageVersion = new SetImageVersion();
+        setImageVersion.setBaseImgPath(baseImage.getAbsolutePath());
+        setImageVersion.setxLocation(20 * scale);
+        setImageVersion.setyLocation(40 * scale);
+        setImageVersion.setSize(32f * scale);
+        setImageVersion.setVersionLabel("7.6." + index);
+        setImageVersion.setOutputImageFormat(format);
+        setImageVersion.setOutputImagePath(workDir.resolve("output" + index + "." + format).toString());
+        return setImageVersion;
+    }
+}
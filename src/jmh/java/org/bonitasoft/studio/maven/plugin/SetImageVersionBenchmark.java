@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each stage of {@link SetImageVersion#createImage()} separately and end to end, for every output
+ * format and several sizes of the bundled test images.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetImageVersionBenchmark {
+
+    @Param({ "bmp", "png", "jpg" })
+    public String format;
+
+    /** Scale factor applied to the bundled image before the benchmark. */
+    @Param({ "1", "4", "8" })
+    public int scale;
+
+    @Param({ "/splash_sp_without_version.bmp", "/Logo-Welcome-Community-Without-Version.png" })
+    public String fixture;
+
+    private Path workDir;
+    private SetImageVersion setImageVersion;
+    private Font font;
+    private BufferedImage canvas;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("image-overlay-benchmark");
+        final File baseImage = workDir.resolve("base." + format).toFile();
+        writeScaledFixture(baseImage);
+
+        setImageVersion = new SetImageVersion();
+        setImageVersion.setBaseImgPath(baseImage.getAbsolutePath());
+        setImageVersion.setxLocation(20 * scale);
+        setImageVersion.setyLocation(40 * scale);
+        setImageVersion.setSize(32f * scale);
+        setImageVersion.setVersionLabel("7.6.0");
+        setImageVersion.setBuildId("20240101");
+        setImageVersion.setBuildIdX(20 * scale);
+        setImageVersion.setBuildIdY(60 * scale);
+        setImageVersion.setOutputImageFormat(format);
+        setImageVersion.setOutputImagePath(workDir.resolve("output." + format).toString());
+        setImageVersion.configure();
+        font = setImageVersion.createCustomFont();
+        canvas = setImageVersion.prepareCanvas(setImageVersion.loadBaseImage());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(workDir)) {
+            files.map(Path::toFile).sorted((a, b) -> b.compareTo(a)).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public Font fontLoading() throws Exception {
+        return setImageVersion.createCustomFont();
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws Exception {
+        return setImageVersion.loadBaseImage();
+    }
+
+    @Benchmark
+    public BufferedImage composition() {
+        setImageVersion.drawProductVersion(canvas, font);
+        return canvas;
+    }
+
+    @Benchmark
+    public void encode() throws Exception {
+        setImageVersion.writeOutputImage(canvas);
+    }
+
+    @Benchmark
+    public void endToEnd() throws Exception {
+        setImageVersion.createImage();
+    }
+
+    private void writeScaledFixture(final File baseImage) throws IOException {
+        final BufferedImage source = ImageIO.read(SetImageVersionBenchmark.class.getResource(fixture));
+        // BMP and JPEG have no alpha channel
+        final int type = "png".equals(format) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        final BufferedImage scaled = new BufferedImage(source.getWidth() * scale, source.getHeight() * scale, type);
+        final Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(source, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+        graphics.dispose();
+        if (!ImageIO.write(scaled, format, baseImage)) {
+            throw new IOException("No writer for " + format);
+        }
+    }
+}
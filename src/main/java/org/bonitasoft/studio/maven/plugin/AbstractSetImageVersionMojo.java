@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Rendering, encoding and cache parameters shared by the goals creating images, and the helpers configuring an
+ * {@link OverlayRenderer} from them.
+ */
+public abstract class AbstractSetImageVersionMojo extends AbstractMojo {
+
+    /**
+     * Skip the creation of the images.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean skip;
+
+    /**
+     * Skip the images whose output exists and whose inputs did not change since the previous build.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean incremental;
+
+    /**
+     * Decode the base images by horizontal tiles and only re-render the tiles under the text, to keep memory
+     * proportional to the tile size. Used for PNG and BMP outputs.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean tiledDecoding;
+
+    @Parameter(required = false, defaultValue = "256")
+    private int tileHeight;
+
+    /**
+     * Blend cached anti-aliased masks of the text into the pixels instead of rasterizing it for each image.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean maskCompositing;
+
+    /**
+     * Keep palette base images of up to 256 colors in their palette, extended with the colors of the text, instead of
+     * expanding them to true color. Falls back to true color when the palette overflows or an output is a JPEG.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean preserveColorModel;
+
+    /**
+     * Encode the images to temporary files and replace the outputs, with an atomic rename, only when their content
+     * changed. Unchanged outputs keep their modification time, so that the steps packaging them stay up to date,
+     * and an interrupted build never leaves a partially written image.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean writeOnlyIfChanged;
+
+    /**
+     * Deflate level of PNG outputs, from 0 (fastest) to 9 (smallest), -1 for the default of the JDK writer.
+     */
+    @Parameter(required = false, defaultValue = "-1")
+    private int pngCompressionLevel;
+
+    /**
+     * Quality of JPEG outputs, from 0 to 1, -1 for the default of the JDK writer.
+     */
+    @Parameter(required = false, defaultValue = "-1")
+    private float jpegQuality;
+
+    /**
+     * Write progressive instead of baseline JPEG outputs.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean jpegProgressive;
+
+    /**
+     * Chroma subsampling of JPEG outputs: 4:4:4, 4:2:2 or 4:2:0, the default of the JDK writer.
+     */
+    @Parameter(required = false)
+    private String jpegChromaSubsampling;
+
+    /**
+     * Deflate PNG outputs by blocks of scanlines on all processors instead of with the single threaded JDK writer.
+     * Used for 8-bit RGB, RGBA, gray and palette images.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean parallelPngEncoding;
+
+    /**
+     * Lossless size optimization of PNG outputs: 0 disables it, 1 to 3 try more and more pixel formats and
+     * scanline filters, at the cost of encoding time, and keep the smallest file.
+     */
+    @Parameter(required = false, defaultValue = "0")
+    private int pngOptimization;
+
+    /**
+     * Write the stage timings and sizes of each image as JSON under target/image-overlay/metrics of its project.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean metricsReport;
+
+    /**
+     * Restore the images identical to an image already rendered on this machine, by any build, from a
+     * content-addressed cache instead of rendering them, and add the rendered images to it. Cached images are
+     * hard-linked to the outputs when the file system allows it.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean outputCache;
+
+    @Parameter(required = false, defaultValue = "${user.home}/.m2/image-overlay-cache")
+    private File outputCacheDirectory;
+
+    /**
+     * Maximum total size in bytes of the output cache, least recently used images are deleted beyond it.
+     */
+    @Parameter(required = false, defaultValue = "268435456")
+    private long outputCacheSize;
+
+    @Component
+    private RepositorySystem repositorySystem;
+
+    @Parameter(defaultValue = "${repositorySystemSession}", readonly = true)
+    private RepositorySystemSession repositorySystemSession;
+
+    @Parameter(defaultValue = "${project.remoteProjectRepositories}", readonly = true)
+    private List<RemoteRepository> remoteRepositories;
+
+    @Parameter(defaultValue = "${plugin.version}", readonly = true)
+    private String pluginVersion;
+
+    /**
+     * Returns a renderer builder configured with the rendering, encoding and cache parameters of this goal.
+     */
+    OverlayRenderer.Builder rendererBuilder(final BaseImageCache baseImageCache) throws MojoFailureException {
+        return rendererBuilder(baseImageCache, ExecutionConfiguration.NONE);
+    }
+
+    /**
+     * Same as {@link #rendererBuilder(BaseImageCache)}, the parameters set by {@code configuration} replacing those
+     * of this goal.
+     */
+    OverlayRenderer.Builder rendererBuilder(final BaseImageCache baseImageCache,
+            final ExecutionConfiguration configuration) throws MojoFailureException {
+        final File cacheDirectory = configuration.booleanValue("outputCache", outputCache)
+                ? configuration.fileValue("outputCacheDirectory", outputCacheDirectory)
+                : null;
+        return OverlayRenderer.builder()
+                .tiledDecoding(configuration.booleanValue("tiledDecoding", tiledDecoding))
+                .tileHeight(configuration.intValue("tileHeight", tileHeight))
+                .maskCompositing(configuration.booleanValue("maskCompositing", maskCompositing))
+                .preserveColorModel(configuration.booleanValue("preserveColorModel", preserveColorModel))
+                .writeOnlyIfChanged(configuration.booleanValue("writeOnlyIfChanged", writeOnlyIfChanged))
+                .encoderSettings(encoderSettings(configuration))
+                .baseImageCache(baseImageCache)
+                .outputCache(cacheDirectory != null ? cacheDirectory.toPath() : null,
+                        configuration.longValue("outputCacheSize", outputCacheSize), pluginVersion)
+                .setImageVersionFactory(this::createSetImageVersion);
+    }
+
+    OverlayExecution overlayExecution(final File buildDirectory) {
+        return overlayExecution(buildDirectory, ExecutionConfiguration.NONE);
+    }
+
+    OverlayExecution overlayExecution(final File buildDirectory, final ExecutionConfiguration configuration) {
+        return new OverlayExecution(getLog(), buildDirectory, pluginVersion,
+                configuration.booleanValue("incremental", incremental),
+                configuration.booleanValue("metricsReport", metricsReport));
+    }
+
+    EncoderSettings encoderSettings(final ExecutionConfiguration configuration) throws MojoFailureException {
+        try {
+            final EncoderSettings settings = new EncoderSettings(
+                    configuration.intValue("pngCompressionLevel", pngCompressionLevel),
+                    configuration.floatValue("jpegQuality", jpegQuality),
+                    configuration.booleanValue("jpegProgressive", jpegProgressive),
+                    configuration.value("jpegChromaSubsampling", jpegChromaSubsampling),
+                    configuration.booleanValue("parallelPngEncoding", parallelPngEncoding));
+            return settings.withPngOptimization(configuration.intValue("pngOptimization", pngOptimization));
+        } catch (final IllegalArgumentException e) {
+            throw new MojoFailureException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the base image cache shared by the executions of the build, or null when {@code pixelBudget} disables
+     * it for this execution. The shared cache keeps the largest budget of the executions using it.
+     */
+    static BaseImageCache baseImageCache(final long pixelBudget) {
+        return pixelBudget > 0 ? BaseImageCache.shared(pixelBudget) : null;
+    }
+
+    void logCacheStatistics(final BaseImageCache cache) {
+        if (cache != null) {
+            getLog().info(String.format("Base image cache: %s hits, %s misses.", cache.getHits(), cache.getMisses()));
+        }
+    }
+
+    ArtifactEntries artifactEntries() {
+        return new ArtifactEntries(repositorySystem, repositorySystemSession, remoteRepositories);
+    }
+
+    boolean isSkip() {
+        return skip;
+    }
+
+    /**
+     * Waits for all the images to be written, failed or not, before the threads are stopped.
+     */
+    static void awaitAll(final List<? extends Future<?>> results) throws MojoExecutionException {
+        for (final Future<?> result : results) {
+            try {
+                result.get();
+            } catch (final ExecutionException e) {
+                // Reported with the other failures
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while creating images", e);
+            }
+        }
+    }
+
+    /**
+     * Logs the failed images, named by {@code images} in the order of {@code results}, and fails the build with all
+     * of them.
+     */
+    void reportFailures(final List<String> images, final List<? extends Future<?>> results)
+            throws MojoExecutionException {
+        final List<String> failures = new ArrayList<>();
+        Throwable firstCause = null;
+        for (int i = 0; i < results.size(); i++) {
+            final String image = images.get(i);
+            try {
+                results.get(i).get();
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                getLog().error("Failed to create image " + image + ": " + cause.getMessage());
+                failures.add(image + ": " + cause.getMessage());
+                if (firstCause == null) {
+                    firstCause = cause;
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while creating images", e);
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new MojoExecutionException(String.format("Failed to create %s of %s target images:%n%s",
+                    failures.size(), results.size(), String.join(System.lineSeparator(), failures)), firstCause);
+        }
+    }
+
+    protected SetImageVersion createSetImageVersion() {
+        return new SetImageVersion();
+    }
+
+    public void setSkip(boolean skip) {
+        this.skip = skip;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public void setMetricsReport(boolean metricsReport) {
+        this.metricsReport = metricsReport;
+    }
+
+    public void setOutputCache(boolean outputCache) {
+        this.outputCache = outputCache;
+    }
+
+    public void setOutputCacheDirectory(File outputCacheDirectory) {
+        this.outputCacheDirectory = outputCacheDirectory;
+    }
+
+    public void setMaskCompositing(boolean maskCompositing) {
+        this.maskCompositing = maskCompositing;
+    }
+
+    public void setPreserveColorModel(boolean preserveColorModel) {
+        this.preserveColorModel = preserveColorModel;
+    }
+
+    public void setWriteOnlyIfChanged(boolean writeOnlyIfChanged) {
+        this.writeOnlyIfChanged = writeOnlyIfChanged;
+    }
+
+    public void setPngCompressionLevel(int pngCompressionLevel) {
+        this.pngCompressionLevel = pngCompressionLevel;
+    }
+
+    public void setJpegQuality(float jpegQuality) {
+        this.jpegQuality = jpegQuality;
+    }
+
+    public void setJpegProgressive(boolean jpegProgressive) {
+        this.jpegProgressive = jpegProgressive;
+    }
+
+    public void setJpegChromaSubsampling(String jpegChromaSubsampling) {
+        this.jpegChromaSubsampling = jpegChromaSubsampling;
+    }
+
+    public void setParallelPngEncoding(boolean parallelPngEncoding) {
+        this.parallelPngEncoding = parallelPngEncoding;
+    }
+
+    public void setPngOptimization(int pngOptimization) {
+        this.pngOptimization = pngOptimization;
+    }
+}
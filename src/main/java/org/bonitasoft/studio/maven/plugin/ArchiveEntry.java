@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A file stored in a zip archive such as a Maven artifact jar, designated by a path of the form
+ * {@code /path/to/archive.jar!/path/in/archive}. Entries are read straight from the archive, without extracting
+ * it.
+ */
+final class ArchiveEntry {
+
+    static final String SEPARATOR = "!/";
+
+    private final File archive;
+    private final String name;
+
+    private ArchiveEntry(final File archive, final String name) {
+        this.archive = archive;
+        this.name = name;
+    }
+
+    /**
+     * Returns the entry designated by {@code path}, or {@code null} when {@code path} is not an entry of an
+     * existing archive.
+     */
+    static ArchiveEntry parse(final String path) {
+        if (path == null) {
+            return null;
+        }
+        final int separator = path.indexOf(SEPARATOR);
+        if (separator <= 0 || separator + SEPARATOR.length() == path.length()) {
+            return null;
+        }
+        final File archive = new File(path.substring(0, separator));
+        return archive.isFile() ? new ArchiveEntry(archive, path.substring(separator + SEPARATOR.length())) : null;
+    }
+
+    /**
+     * Returns the path designating the entry {@code name} of {@code archive}.
+     */
+    static String path(final File archive, final String name) {
+        final String entryName = name.startsWith("/") ? name.substring(1) : name;
+        return archive.getAbsolutePath() + SEPARATOR + entryName;
+    }
+
+    File getArchive() {
+        return archive;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Opens the content of the entry, closing the archive along with the returned stream.
+     */
+    InputStream open() throws IOException {
+        final ZipFile zipFile = new ZipFile(archive);
+        try {
+            final ZipEntry entry = zipFile.getEntry(name);
+            if (entry == null || entry.isDirectory()) {
+                throw new FileNotFoundException(toString());
+            }
+            return new FilterInputStream(zipFile.getInputStream(entry)) {
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zipFile.close();
+                    }
+                }
+            };
+        } catch (final IOException | RuntimeException e) {
+            zipFile.close();
+            throw e;
+        }
+    }
+
+    byte[] readAllBytes() throws IOException {
+        try (InputStream is = open()) {
+            return is.readAllBytes();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path(archive, name);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+
+/**
+ * Resolves files stored in Maven artifacts, such as the base images and fonts of a shared branding jar, to
+ * {@link ArchiveEntry} paths read straight from the artifact in the local repository.
+ */
+final class ArtifactEntries {
+
+    private final RepositorySystem repositorySystem;
+    private final RepositorySystemSession session;
+    private final List<RemoteRepository> repositories;
+    private final Map<String, File> artifacts = new ConcurrentHashMap<>();
+
+    ArtifactEntries(final RepositorySystem repositorySystem, final RepositorySystemSession session,
+            final List<RemoteRepository> repositories) {
+        this.repositorySystem = repositorySystem;
+        this.session = session;
+        this.repositories = repositories;
+    }
+
+    /**
+     * Returns the path of the entry {@code entryPath} of the artifact {@code coordinates}
+     * ({@code groupId:artifactId[:extension[:classifier]]:version}), downloading the artifact if needed.
+     */
+    String resolve(final String coordinates, final String entryPath)
+            throws MojoExecutionException, MojoFailureException {
+        if (entryPath == null || entryPath.isEmpty()) {
+            throw new MojoFailureException(
+                    String.format("You must provide the path of the file in the artifact %s.", coordinates));
+        }
+        File archive = artifacts.get(coordinates);
+        if (archive == null) {
+            archive = resolveArtifact(coordinates);
+            artifacts.put(coordinates, archive);
+        }
+        return ArchiveEntry.path(archive, entryPath);
+    }
+
+    private File resolveArtifact(final String coordinates) throws MojoExecutionException, MojoFailureException {
+        final DefaultArtifact artifact;
+        try {
+            artifact = new DefaultArtifact(coordinates);
+        } catch (final IllegalArgumentException e) {
+            throw new MojoFailureException(String.format(
+                    "Invalid artifact %s, expected groupId:artifactId[:extension[:classifier]]:version.",
+                    coordinates));
+        }
+        try {
+            return repositorySystem.resolveArtifact(session, new ArtifactRequest(artifact, repositories, null))
+                    .getArtifact().getFile();
+        } catch (final ArtifactResolutionException e) {
+            throw new MojoExecutionException("Failed to resolve artifact " + coordinates, e);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of decoded base images shared by the executions running in the same JVM.
+ * Images are keyed by canonical path, size and modification time (of the archive for archive entries), and
+ * evicted in least recently used order once the total number of cached pixels exceeds the budget. Entries are
+ * softly referenced so the garbage collector can reclaim them under memory pressure.
+ * Cached images are shared: callers must copy them before drawing on them. Concurrent requests for the same image
+ * are served by a single decode.
+ * The budget of the JVM wide cache is the largest one requested by the executions of the JVM (see
+ * {@link #shared(long)}), so that an execution never shrinks the cache other modules of a parallel build are using.
+ */
+final class BaseImageCache {
+
+    private static final BaseImageCache SHARED = new BaseImageCache();
+
+    /**
+     * Decodes a base image on cache misses.
+     */
+    interface Loader<T> {
+
+        BufferedImage load(T source) throws IOException;
+    }
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, Pending> loading = new HashMap<>();
+    private final Set<BufferedImage> shared = Collections.newSetFromMap(new WeakHashMap<>());
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long pixelBudget;
+    private long cachedPixels;
+
+    /**
+     * Returns the JVM wide cache, raising its budget to {@code pixelBudget} when it is lower.
+     */
+    static BaseImageCache shared(final long pixelBudget) {
+        SHARED.requestPixelBudget(pixelBudget);
+        return SHARED;
+    }
+
+    /**
+     * Returns the decoded image of {@code file}. Concurrent calls for an image being decoded wait for that decode
+     * instead of starting their own.
+     */
+    BufferedImage get(final File file, final Loader<File> loader) throws IOException {
+        return get(new Key(file, null), () -> loader.load(file));
+    }
+
+    /**
+     * Returns the decoded image of an archive entry, keyed by the archive file and the entry name.
+     */
+    BufferedImage get(final ArchiveEntry entry, final Loader<ArchiveEntry> loader) throws IOException {
+        return get(new Key(entry.getArchive(), entry.getName()), () -> loader.load(entry));
+    }
+
+    private BufferedImage get(final Key key, final Callable<BufferedImage> loader) throws IOException {
+        final Pending pending;
+        final boolean owner;
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry != null) {
+                final BufferedImage image = entry.image.get();
+                if (image != null) {
+                    hits.incrementAndGet();
+                    return image;
+                }
+                remove(key);
+            }
+            final Pending current = loading.get(key);
+            owner = current == null;
+            if (owner) {
+                misses.incrementAndGet();
+                pending = new Pending(new FutureTask<>(loader));
+                loading.put(key, pending);
+            } else {
+                hits.incrementAndGet();
+                current.shared = true;
+                pending = current;
+            }
+        }
+        if (owner) {
+            pending.task.run();
+        }
+        BufferedImage image = null;
+        try {
+            image = await(pending.task);
+            return image;
+        } finally {
+            // Decides whether the image is shared atomically with the end of the decode, so that no other caller
+            // can join it afterwards
+            synchronized (this) {
+                if (owner) {
+                    loading.remove(key);
+                }
+                if (image != null && (put(key, image) || pending.shared || !owner)) {
+                    shared.add(image);
+                }
+            }
+        }
+    }
+
+    private static BufferedImage await(final FutureTask<BufferedImage> task) throws IOException {
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Whether the given image instance is held by this cache or was handed to several callers, and so must not be
+     * drawn on.
+     */
+    synchronized boolean contains(final BufferedImage image) {
+        return shared.contains(image);
+    }
+
+    /**
+     * Sets the maximum number of pixels kept in the cache, 0 disables caching.
+     */
+    synchronized void setPixelBudget(final long pixelBudget) {
+        this.pixelBudget = Math.max(0, pixelBudget);
+        evict();
+    }
+
+    /**
+     * Raises the maximum number of pixels kept in the cache to {@code pixelBudget}, a lower budget is ignored.
+     */
+    synchronized void requestPixelBudget(final long pixelBudget) {
+        this.pixelBudget = Math.max(this.pixelBudget, pixelBudget);
+    }
+
+    synchronized long getPixelBudget() {
+        return pixelBudget;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        shared.clear();
+        cachedPixels = 0;
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private boolean put(final Key key, final BufferedImage image) {
+        final long pixels = (long) image.getWidth() * image.getHeight();
+        if (pixels > pixelBudget || entries.containsKey(key)) {
+            return false;
+        }
+        entries.put(key, new Entry(image, pixels));
+        cachedPixels += pixels;
+        evict();
+        return true;
+    }
+
+    private void remove(final Key key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null) {
+            cachedPixels -= entry.pixels;
+        }
+    }
+
+    private void evict() {
+        final Iterator<Entry> it = entries.values().iterator();
+        while (cachedPixels > pixelBudget && it.hasNext()) {
+            cachedPixels -= it.next().pixels;
+            it.remove();
+        }
+    }
+
+    private static final class Pending {
+
+        private final FutureTask<BufferedImage> task;
+        private boolean shared;
+
+        Pending(final FutureTask<BufferedImage> task) {
+            this.task = task;
+        }
+    }
+
+    private static final class Entry {
+
+        private final SoftReference<BufferedImage> image;
+        private final long pixels;
+
+        Entry(final BufferedImage image, final long pixels) {
+            this.image = new SoftReference<>(image);
+            this.pixels = pixels;
+        }
+    }
+
+    private static final class Key {
+
+        private final String path;
+        private final long length;
+        private final long lastModified;
+
+        Key(final File file, final String entryName) throws IOException {
+            this.path = entryName != null ? file.getCanonicalPath() + ArchiveEntry.SEPARATOR + entryName
+                    : file.getCanonicalPath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return path.equals(other.path) && length == other.length && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, length, lastModified);
+        }
+    }
+}
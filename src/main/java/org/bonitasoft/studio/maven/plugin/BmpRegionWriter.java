@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes an overlay on an uncompressed 24 bits BMP without decoding the whole image.
+ * The pixel array of the base image is copied to a temporary file with {@link FileChannel#transferTo}, then only
+ * the rows intersecting the text are read back, painted and written over, before the temporary file is renamed
+ * over the output. The output is never written in place, so it can be the base image itself or a hard link.
+ * The header written is the one of the JDK BMP writer, so the output is byte-identical to decoding the base image
+ * and encoding it again with {@link javax.imageio.ImageIO}, as long as the row padding of the base image is
+ * zeroed like every encoder does.
+ */
+final class BmpRegionWriter {
+
+    static final int HEADER_SIZE = 54;
+
+    private static final int INFO_HEADER_SIZE = 40;
+    private static final int BI_RGB = 0;
+
+    private final File baseImage;
+    private final int width;
+    private final int height;
+    private final long pixelOffset;
+    private final int rowStride;
+
+    private BmpRegionWriter(final File baseImage, final int width, final int height, final long pixelOffset) {
+        this.baseImage = baseImage;
+        this.width = width;
+        this.height = height;
+        this.pixelOffset = pixelOffset;
+        this.rowStride = ((width * 3) + 3) & ~3;
+    }
+
+    /**
+     * Returns a writer for the given base image, or {@code null} when it is not a bottom-up, uncompressed,
+     * 24 bits per pixel BMP.
+     */
+    static BmpRegionWriter open(final File baseImage) throws IOException {
+        try (FileChannel in = FileChannel.open(baseImage.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && in.read(header) != -1) {
+                // read the whole header
+            }
+            if (header.hasRemaining() || header.get(0) != 'B' || header.get(1) != 'M') {
+                return null;
+            }
+            final long pixelOffset = header.getInt(10) & 0xFFFFFFFFL;
+            final int infoHeaderSize = header.getInt(14);
+            final int width = header.getInt(18);
+            final int height = header.getInt(22);
+            final short bitCount = header.getShort(28);
+            final int compression = header.getInt(30);
+            if (infoHeaderSize < INFO_HEADER_SIZE || width <= 0 || height <= 0 || bitCount != 24
+                    || compression != BI_RGB) {
+                return null;
+            }
+            final BmpRegionWriter writer = new BmpRegionWriter(baseImage, width, height, pixelOffset);
+            if (in.size() < pixelOffset + writer.imageSize()) {
+                return null;
+            }
+            return writer;
+        }
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Writes the base image to {@code output}, letting {@code painter} draw on the pixels inside {@code region}.
+     */
+    void write(final File output, final Rectangle region, final TilePainter painter) throws IOException {
+        final Path temp = OutputFile.tempFile(output.toPath());
+        try {
+            try (FileChannel in = FileChannel.open(baseImage.toPath(), StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE)) {
+                final ByteBuffer header = header();
+                while (header.hasRemaining()) {
+                    out.write(header);
+                }
+                long transferred = 0;
+                while (transferred < imageSize()) {
+                    transferred += in.transferTo(pixelOffset + transferred, imageSize() - transferred, out);
+                }
+                final Rectangle tile = region.intersection(new Rectangle(0, 0, width, height));
+                if (!tile.isEmpty()) {
+                    paintTile(out, tile, painter);
+                }
+            }
+            OutputFile.move(temp, output.toPath());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void paintTile(final FileChannel out, final Rectangle tile, final TilePainter painter) throws IOException {
+        final int bottom = tile.y + tile.height;
+        // Rows are stored bottom-up: the region read starts with the last row of the tile
+        final long position = HEADER_SIZE + (long) rowStride * (height - bottom);
+        final ByteBuffer rows = ByteBuffer.allocate(rowStride * tile.height);
+        while (rows.hasRemaining() && out.read(rows, position + rows.position()) != -1) {
+            // read all the rows of the tile
+        }
+        final BufferedImage image = new BufferedImage(tile.width, tile.height, BufferedImage.TYPE_3BYTE_BGR);
+        // TYPE_3BYTE_BGR stores pixels in the same B, G, R byte order as BMP
+        final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        final int tileStride = tile.width * 3;
+        for (int row = 0; row < tile.height; row++) {
+            rows.position(rowStride * (bottom - 1 - (tile.y + row)) + tile.x * 3);
+            rows.get(pixels, row * tileStride, tileStride);
+        }
+        painter.paint(image, tile.x, tile.y);
+        for (int row = 0; row < tile.height; row++) {
+            rows.position(rowStride * (bottom - 1 - (tile.y + row)) + tile.x * 3);
+            rows.put(pixels, row * tileStride, tileStride);
+        }
+        rows.clear();
+        while (rows.hasRemaining()) {
+            out.write(rows, position + rows.position());
+        }
+    }
+
+    private ByteBuffer header() {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'B').put((byte) 'M');
+        header.putInt((int) (HEADER_SIZE + imageSize()));
+        header.putInt(0);
+        header.putInt(HEADER_SIZE);
+        header.putInt(INFO_HEADER_SIZE);
+        header.putInt(width);
+        header.putInt(height);
+        header.putShort((short) 1);
+        header.putShort((short) 24);
+        header.putInt(BI_RGB);
+        header.putInt((int) imageSize());
+        // resolution, palette size and important colors are left to 0 like the JDK writer
+        header.putInt(0).putInt(0).putInt(0).putInt(0);
+        header.flip();
+        return header;
+    }
+
+    private long imageSize() {
+        return (long) rowStride * height;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.util.Locale;
+
+/**
+ * Parameters of the PNG and JPEG encoders, trading encoding time against output size.
+ * Negative and {@code null} values keep the default of the JDK writers.
+ */
+public final class EncoderSettings {
+
+    public static final EncoderSettings DEFAULT = new EncoderSettings(-1, -1f, false, null, false);
+
+    private final int pngCompressionLevel;
+    private final float jpegQuality;
+    private final boolean jpegProgressive;
+    private final String jpegChromaSubsampling;
+    private final boolean parallelPng;
+    private final int pngOptimization;
+
+    /**
+     * @param pngCompressionLevel deflate level of PNG outputs, from 0 (fastest) to 9 (smallest)
+     * @param jpegQuality quality of JPEG outputs, from 0 to 1
+     * @param jpegProgressive whether JPEG outputs are progressive instead of baseline
+     * @param jpegChromaSubsampling chroma subsampling of JPEG outputs: {@code 4:4:4}, {@code 4:2:2} or {@code 4:2:0}
+     */
+    public EncoderSettings(final int pngCompressionLevel, final float jpegQuality, final boolean jpegProgressive,
+            final String jpegChromaSubsampling) {
+        this(pngCompressionLevel, jpegQuality, jpegProgressive, jpegChromaSubsampling, false);
+    }
+
+    /**
+     * @param parallelPng whether PNG outputs are deflated by blocks on all processors instead of by the JDK writer
+     */
+    public EncoderSettings(final int pngCompressionLevel, final float jpegQuality, final boolean jpegProgressive,
+            final String jpegChromaSubsampling, final boolean parallelPng) {
+        this(pngCompressionLevel, jpegQuality, jpegProgressive, jpegChromaSubsampling, parallelPng, 0);
+    }
+
+    private EncoderSettings(final int pngCompressionLevel, final float jpegQuality, final boolean jpegProgressive,
+            final String jpegChromaSubsampling, final boolean parallelPng, final int pngOptimization) {
+        if (pngCompressionLevel > 9) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid PNG compression level %s, levels range from 0 to 9.", pngCompressionLevel));
+        }
+        if (jpegQuality > 1f) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid JPEG quality %s, qualities range from 0 to 1.", jpegQuality));
+        }
+        if (jpegChromaSubsampling != null && horizontalSampling(jpegChromaSubsampling) == 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid JPEG chroma subsampling %s, expected 4:4:4, 4:2:2 or 4:2:0.", jpegChromaSubsampling));
+        }
+        this.pngCompressionLevel = pngCompressionLevel;
+        this.jpegQuality = jpegQuality;
+        this.jpegProgressive = jpegProgressive;
+        this.jpegChromaSubsampling = jpegChromaSubsampling;
+        if (pngOptimization < 0 || pngOptimization > PngOptimizer.MAX_EFFORT) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid PNG optimization effort %s, efforts range from 0 to %s.", pngOptimization,
+                    PngOptimizer.MAX_EFFORT));
+        }
+        this.parallelPng = parallelPng;
+        this.pngOptimization = pngOptimization;
+    }
+
+    public int getPngCompressionLevel() {
+        return pngCompressionLevel;
+    }
+
+    public float getJpegQuality() {
+        return jpegQuality;
+    }
+
+    public boolean isJpegProgressive() {
+        return jpegProgressive;
+    }
+
+    public String getJpegChromaSubsampling() {
+        return jpegChromaSubsampling;
+    }
+
+    public boolean isParallelPng() {
+        return parallelPng;
+    }
+
+    /**
+     * Returns these settings with the given lossless optimization effort of PNG outputs, from 0 (none) to 3.
+     */
+    public EncoderSettings withPngOptimization(final int pngOptimization) {
+        return new EncoderSettings(pngCompressionLevel, jpegQuality, jpegProgressive, jpegChromaSubsampling,
+                parallelPng, pngOptimization);
+    }
+
+    public int getPngOptimization() {
+        return pngOptimization;
+    }
+
+    /**
+     * Luma sampling factors of the JPEG chroma subsampling, as {horizontal, vertical}, {@code null} for the default.
+     */
+    int[] lumaSampling() {
+        if (jpegChromaSubsampling == null) {
+            return null;
+        }
+        return new int[] { horizontalSampling(jpegChromaSubsampling), verticalSampling(jpegChromaSubsampling) };
+    }
+
+    private static int horizontalSampling(final String chromaSubsampling) {
+        switch (chromaSubsampling.trim().toLowerCase(Locale.ROOT)) {
+            case "4:4:4":
+                return 1;
+            case "4:2:2":
+            case "4:2:0":
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    private static int verticalSampling(final String chromaSubsampling) {
+        return "4:2:0".equals(chromaSubsampling.trim()) ? 2 : 1;
+    }
+
+    @Override
+    public String toString() {
+        return "png:" + pngCompressionLevel + ",jpeg:" + jpegQuality + "," + jpegProgressive + ","
+                + jpegChromaSubsampling + (parallelPng ? ",parallel" : "")
+                + (pngOptimization > 0 ? ",optimized:" + pngOptimization : "");
+    }
+}
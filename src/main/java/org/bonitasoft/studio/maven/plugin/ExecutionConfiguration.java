@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+/**
+ * Parameters set in the configuration of an execution of the plugin, read by {@link SetImageVersionAggregateMojo}
+ * for the executions it renders. Each getter returns the given default, the value of the running goal, when the
+ * execution does not set the parameter.
+ */
+final class ExecutionConfiguration {
+
+    /**
+     * Configuration of the running goal itself, all getters return their default.
+     */
+    static final ExecutionConfiguration NONE = new ExecutionConfiguration(new Xpp3Dom("configuration"), null);
+
+    private final Xpp3Dom configuration;
+    private final File basedir;
+
+    /**
+     * @param configuration the configuration of the execution, with its expressions evaluated
+     * @param basedir the base directory relative file parameters are resolved against
+     */
+    ExecutionConfiguration(final Xpp3Dom configuration, final File basedir) {
+        this.configuration = configuration;
+        this.basedir = basedir;
+    }
+
+    String value(final String name, final String defaultValue) {
+        final String value = ReactorOverlays.value(configuration, name);
+        return value != null ? value : defaultValue;
+    }
+
+    boolean booleanValue(final String name, final boolean defaultValue) {
+        final String value = ReactorOverlays.value(configuration, name);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    int intValue(final String name, final int defaultValue) throws MojoFailureException {
+        return ReactorOverlays.value(configuration, name) != null ? ReactorOverlays.intValue(configuration, name)
+                : defaultValue;
+    }
+
+    long longValue(final String name, final long defaultValue) throws MojoFailureException {
+        final String value = ReactorOverlays.value(configuration, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            throw new MojoFailureException(String.format("Invalid %s '%s', an integer is expected.", name, value));
+        }
+    }
+
+    float floatValue(final String name, final float defaultValue) throws MojoFailureException {
+        final String value = ReactorOverlays.value(configuration, name);
+        return value != null ? ReactorOverlays.parseFloat(name, value) : defaultValue;
+    }
+
+    File fileValue(final String name, final File defaultValue) {
+        final String value = ReactorOverlays.value(configuration, name);
+        return value != null ? new File(ReactorOverlays.path(basedir, value)) : defaultValue;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digest of named values and file contents.
+ */
+final class Fingerprint {
+
+    private final MessageDigest digest = newDigest();
+
+    Fingerprint add(final String name, final Object value) {
+        update(name);
+        update(String.valueOf(value));
+        return this;
+    }
+
+    Fingerprint addBytes(final String name, final byte[] content) {
+        update(name);
+        digest.update(content);
+        return this;
+    }
+
+    String toHex() {
+        return toHex(digest.digest());
+    }
+
+    static String sha256(final byte[] content) {
+        return toHex(newDigest().digest(content));
+    }
+
+    /**
+     * Returns a file name unique to the given output image: its name followed by a short hash of its absolute path.
+     */
+    static String pathKey(final String outputImagePath) {
+        final File output = new File(outputImagePath).getAbsoluteFile();
+        final String pathHash = sha256(output.getPath().getBytes(StandardCharsets.UTF_8));
+        return output.getName() + "-" + pathHash.substring(0, 12);
+    }
+
+    private void update(final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(bytes);
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.awt.GraphicsEnvironment;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * JVM wide cache of the fonts used to draw overlays.
+ * Fonts are keyed by name, resource path and content hash so that successive executions in the same JVM
+ * (including Maven daemons) reuse the parsed {@link Font} and its derived variants.
+ * System fonts are enumerated at most once, font files are read and hashed again only when their size or
+ * modification time change.
+ * Each font is parsed once: concurrent callers asking for the same font, e.g. modules of a parallel Maven build,
+ * wait for the parse in progress. Parsed fonts are used as is and never registered in the
+ * {@link GraphicsEnvironment}, whose registry is global and serializes callers.
+ * Since {@link Font#equals(Object)} only compares names, styles and sizes, derived variants are keyed by the content
+ * of the font they derive from (see {@link #contentKey(Font)}), so that a font file changed at the same path never
+ * gets the variants of its previous version. Parsing a new content of a font file evicts its previous version.
+ */
+final class FontCache {
+
+    static final String DEFAULT_FONT_RESOURCE = "/HelveticaNeueLTStd-Cn.otf";
+
+    private static final ConcurrentMap<FontKey, FutureTask<Font>> FONTS = new ConcurrentHashMap<>();
+    static final int MAX_DERIVED_FONTS = 256;
+
+    private static final Map<DerivedFontKey, Font> DERIVED_FONTS = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Map<Font, Object> CONTENT_KEYS = new IdentityHashMap<>();
+    private static final ConcurrentMap<String, FileHash> FILE_HASHES = new ConcurrentHashMap<>();
+    private static final AtomicLong PARSED_FONTS = new AtomicLong();
+    private static volatile Map<String, Font> systemFonts;
+
+    private FontCache() {
+    }
+
+    /**
+     * Returns the font named {@code fontName}: an installed system font with this name, or else the font
+     * parsed from {@code fontResourcePath} (the bundled default font when {@code null}).
+     */
+    static Font getFont(final String fontName, final String fontResourcePath)
+            throws IOException, FontFormatException {
+        final Font systemFont = getSystemFonts().get(fontName);
+        if (systemFont != null) {
+            return systemFont;
+        }
+        final FileHash fileHash = hash(fontResourcePath);
+        final FontKey key = new FontKey(fontName, fontResourcePath, fileHash.hash);
+        FutureTask<Font> task = FONTS.get(key);
+        if (task == null) {
+            final FutureTask<Font> newTask = new FutureTask<>(() -> parse(key, fileHash.bytes != null
+                    ? fileHash.bytes : readFontBytes(fontResourcePath)));
+            task = FONTS.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                evictPreviousVersions(key);
+                task.run();
+            }
+        }
+        try {
+            return await(task);
+        } catch (final IOException | FontFormatException | RuntimeException e) {
+            // Failures are not cached, the next call parses the font again
+            if (task.isDone()) {
+                FONTS.remove(key, task);
+            }
+            throw e;
+        }
+    }
+
+    private static Font parse(final FontKey key, final byte[] fontBytes) throws IOException, FontFormatException {
+        PARSED_FONTS.incrementAndGet();
+        final Font font = Font.createFont(Font.TRUETYPE_FONT, new ByteArrayInputStream(fontBytes));
+        synchronized (DERIVED_FONTS) {
+            // A font evicted while being parsed is used as is, without content key
+            if (FONTS.containsKey(key)) {
+                CONTENT_KEYS.put(font, key);
+            }
+        }
+        return font;
+    }
+
+    /**
+     * Forgets the fonts parsed from previous contents of the file of {@code key}, with their variants, so that a font
+     * file edited again and again (e.g. by the watch-images goal) keeps a single version in memory.
+     */
+    private static void evictPreviousVersions(final FontKey key) {
+        final List<FontKey> previousVersions = new ArrayList<>();
+        for (final FontKey cached : FONTS.keySet()) {
+            if (cached.isPreviousVersionOf(key) && FONTS.remove(cached) != null) {
+                previousVersions.add(cached);
+            }
+        }
+        if (previousVersions.isEmpty()) {
+            return;
+        }
+        synchronized (DERIVED_FONTS) {
+            CONTENT_KEYS.values().removeIf(contentKey -> previousVersions.contains(baseKey(contentKey)));
+            DERIVED_FONTS.keySet().removeIf(derivedKey -> previousVersions.contains(baseKey(derivedKey)));
+        }
+    }
+
+    /**
+     * Returns the key of the font a content key derives from.
+     */
+    private static Object baseKey(final Object contentKey) {
+        Object key = contentKey;
+        while (key instanceof DerivedFontKey) {
+            key = ((DerivedFontKey) key).font;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the content hash of the font file, archive entry or bundled font, reading it only when its size or
+     * modification time changed since the previous call. The returned bytes are {@code null} when not read.
+     */
+    private static FileHash hash(final String fontResourcePath) throws IOException {
+        final String path = fontResourcePath != null ? fontResourcePath : DEFAULT_FONT_RESOURCE;
+        final String stamp = stamp(fontResourcePath);
+        final FileHash cached = FILE_HASHES.get(path);
+        if (cached != null && cached.stamp.equals(stamp)) {
+            return cached;
+        }
+        final byte[] fontBytes = readFontBytes(fontResourcePath);
+        final FileHash fileHash = new FileHash(stamp, Fingerprint.sha256(fontBytes));
+        FILE_HASHES.put(path, fileHash);
+        return new FileHash(stamp, fileHash.hash, fontBytes);
+    }
+
+    /**
+     * Size and modification time of the font file, or of the archive of an archive entry. The bundled font never
+     * changes.
+     */
+    private static String stamp(final String fontResourcePath) throws IOException {
+        if (fontResourcePath == null) {
+            return "";
+        }
+        final ArchiveEntry entry = ArchiveEntry.parse(fontResourcePath);
+        final Path file = entry != null ? entry.getArchive().toPath() : Paths.get(fontResourcePath);
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return attributes.size() + ":" + attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static Font await(final FutureTask<Font> task) throws IOException, FontFormatException {
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof FontFormatException) {
+                throw (FontFormatException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Number of fonts parsed from files and kept in the cache.
+     */
+    static int getCachedFonts() {
+        return FONTS.size();
+    }
+
+    /**
+     * Number of fonts, parsed or derived, identified by content.
+     */
+    static int getContentKeys() {
+        synchronized (DERIVED_FONTS) {
+            return CONTENT_KEYS.size();
+        }
+    }
+
+    /**
+     * Number of fonts parsed since the JVM started.
+     */
+    static long getParsedFonts() {
+        return PARSED_FONTS.get();
+    }
+
+    /**
+     * Returns the variant of {@code font} identified by {@code variant}, computing it with {@code deriver} the
+     * first time. The {@value #MAX_DERIVED_FONTS} most recently used variants are kept.
+     */
+    static Font derive(final Font font, final String variant, final UnaryOperator<Font> deriver) {
+        synchronized (DERIVED_FONTS) {
+            final DerivedFontKey key = new DerivedFontKey(contentKey(font), variant);
+            Font derived = DERIVED_FONTS.get(key);
+            if (derived == null) {
+                derived = deriver.apply(font);
+                DERIVED_FONTS.put(key, derived);
+                CONTENT_KEYS.put(derived, key);
+                final Iterator<Map.Entry<DerivedFontKey, Font>> it = DERIVED_FONTS.entrySet().iterator();
+                while (DERIVED_FONTS.size() > MAX_DERIVED_FONTS) {
+                    CONTENT_KEYS.remove(it.next().getValue());
+                    it.remove();
+                }
+            }
+            return derived;
+        }
+    }
+
+    /**
+     * Returns a key identifying {@code font} by content: equal keys for the fonts returned by
+     * {@link #getFont(String, String)} for the same file content and their variants returned by
+     * {@link #derive(Font, String, UnaryOperator)}. Other fonts are identified by instance.
+     */
+    static Object contentKey(final Font font) {
+        synchronized (DERIVED_FONTS) {
+            final Object key = CONTENT_KEYS.get(font);
+            return key != null ? key : new InstanceKey(font);
+        }
+    }
+
+    /**
+     * Reads the content of the font file or archive entry (see {@link ArchiveEntry}), or of the bundled default
+     * font when {@code fontResourcePath} is {@code null}.
+     */
+    static byte[] readFontBytes(final String fontResourcePath) throws IOException {
+        final ArchiveEntry entry = ArchiveEntry.parse(fontResourcePath);
+        if (entry != null) {
+            return entry.readAllBytes();
+        }
+        if (fontResourcePath != null) {
+            return Files.readAllBytes(Paths.get(fontResourcePath));
+        }
+        try (InputStream is = FontCache.class.getResourceAsStream(DEFAULT_FONT_RESOURCE)) {
+            if (is == null) {
+                throw new FileNotFoundException(DEFAULT_FONT_RESOURCE);
+            }
+            return is.readAllBytes();
+        }
+    }
+
+    private static Map<String, Font> getSystemFonts() {
+        Map<String, Font> fonts = systemFonts;
+        if (fonts == null) {
+            synchronized (FontCache.class) {
+                fonts = systemFonts;
+                if (fonts == null) {
+                    fonts = new HashMap<>();
+                    for (final Font f : GraphicsEnvironment.getLocalGraphicsEnvironment().getAllFonts()) {
+                        fonts.putIfAbsent(f.getName(), f);
+                    }
+                    synchronized (DERIVED_FONTS) {
+                        for (final Font f : fonts.values()) {
+                            CONTENT_KEYS.put(f, new FontKey(f.getName(), null, null));
+                        }
+                    }
+                    systemFonts = fonts;
+                }
+            }
+        }
+        return fonts;
+    }
+
+    private static final class FontKey {
+
+        private final String fontName;
+        private final String fontResourcePath;
+        private final String contentHash;
+
+        FontKey(final String fontName, final String fontResourcePath, final String contentHash) {
+            this.fontName = fontName;
+            this.fontResourcePath = fontResourcePath;
+            this.contentHash = contentHash;
+        }
+
+        /**
+         * Whether this key identifies another content of the font file of {@code key}.
+         */
+        boolean isPreviousVersionOf(final FontKey key) {
+            return Objects.equals(fontName, key.fontName) && Objects.equals(fontResourcePath, key.fontResourcePath)
+                    && !Objects.equals(contentHash, key.contentHash);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FontKey)) {
+                return false;
+            }
+            final FontKey other = (FontKey) obj;
+            return Objects.equals(fontName, other.fontName)
+                    && Objects.equals(fontResourcePath, other.fontResourcePath)
+                    && Objects.equals(contentHash, other.contentHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fontName, fontResourcePath, contentHash);
+        }
+    }
+
+    private static final class FileHash {
+
+        private final String stamp;
+        private final String hash;
+        private final byte[] bytes;
+
+        FileHash(final String stamp, final String hash) {
+            this(stamp, hash, null);
+        }
+
+        FileHash(final String stamp, final String hash, final byte[] bytes) {
+            this.stamp = stamp;
+            this.hash = hash;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Identifies a font by instance, for the fonts not loaded through this cache.
+     */
+    private static final class InstanceKey {
+
+        private final Font font;
+
+        InstanceKey(final Font font) {
+            this.font = font;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof InstanceKey && ((InstanceKey) obj).font == font;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(font);
+        }
+    }
+
+    private static final class DerivedFontKey {
+
+        private final Object font;
+        private final String variant;
+
+        DerivedFontKey(final Object font, final String variant) {
+            this.font = font;
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof DerivedFontKey)) {
+                return false;
+            }
+            final DerivedFontKey other = (DerivedFontKey) obj;
+            return Objects.equals(font, other.font) && Objects.equals(variant, other.variant);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(font, variant);
+        }
+    }
+}
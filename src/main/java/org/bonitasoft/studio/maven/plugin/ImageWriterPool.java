@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * JVM wide pool of {@link ImageWriter}s by format, so that successive images skip the service registry lookup and
+ * the writer setup of {@link ImageIO#write(RenderedImage, String, File)}.
+ * Writers are not thread safe: each one is used by a single image at a time, and reset before going back to the
+ * pool.
+ */
+final class ImageWriterPool {
+
+    private static final ImageWriterPool SHARED = new ImageWriterPool(Runtime.getRuntime().availableProcessors());
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private final ConcurrentMap<String, Queue<ImageWriter>> writers = new ConcurrentHashMap<>();
+    private final int maxIdleWriters;
+    private final AtomicLong createdWriters = new AtomicLong();
+
+    ImageWriterPool(final int maxIdleWriters) {
+        this.maxIdleWriters = maxIdleWriters;
+    }
+
+    static ImageWriterPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Encodes {@code image} in {@code format} to {@code file}, replacing it, with the given encoder settings.
+     */
+    void write(final RenderedImage image, final String format, final File file, final EncoderSettings settings)
+            throws IOException {
+        final String key = format.toLowerCase(Locale.ROOT);
+        final ImageWriter writer = acquire(key, image);
+        if (writer == null) {
+            throw new IOException(String.format("Failed to create image %s with %s fromat.", file, format));
+        }
+        boolean reusable = false;
+        try {
+            // Like ImageIO.write: the file stream does not truncate existing files
+            Files.deleteIfExists(file.toPath());
+            try (ImageOutputStream output = new FileImageOutputStream(file)) {
+                writer.setOutput(output);
+                final ImageWriteParam param = writeParam(writer, key, settings);
+                writer.write(null, new IIOImage(image, null, metadata(writer, key, image, param, settings)), param);
+            }
+            reusable = true;
+        } finally {
+            release(key, writer, reusable);
+        }
+    }
+
+    /**
+     * Number of writers created since the pool was created.
+     */
+    long getCreatedWriters() {
+        return createdWriters.get();
+    }
+
+    private ImageWriter acquire(final String format, final RenderedImage image) {
+        final Queue<ImageWriter> idle = writers.computeIfAbsent(format, f -> new ConcurrentLinkedQueue<>());
+        ImageWriter writer = idle.poll();
+        if (writer == null) {
+            final Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName(format);
+            if (!it.hasNext()) {
+                return null;
+            }
+            writer = it.next();
+            createdWriters.incrementAndGet();
+        }
+        if (!writer.getOriginatingProvider().canEncodeImage(image)) {
+            // e.g. images with alpha for JPEG, ImageIO.write fails the same way
+            idle.offer(writer);
+            return null;
+        }
+        return writer;
+    }
+
+    private void release(final String format, final ImageWriter writer, final boolean reusable) {
+        final Queue<ImageWriter> idle = writers.get(format);
+        if (reusable && idle.size() < maxIdleWriters) {
+            writer.reset();
+            idle.offer(writer);
+        } else {
+            writer.dispose();
+        }
+    }
+
+    private static ImageWriteParam writeParam(final ImageWriter writer, final String format,
+            final EncoderSettings settings) {
+        final ImageWriteParam param = writer.getDefaultWriteParam();
+        if ("png".equals(format) && settings.getPngCompressionLevel() >= 0 && param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            // The JDK writer deflates at level (int) (9 * (1 - quality)), half a level up absorbs float rounding
+            param.setCompressionQuality(Math.max(0f, (8.5f - settings.getPngCompressionLevel()) / 9f));
+        }
+        if (isJpeg(format)) {
+            if (settings.getJpegQuality() >= 0 && param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(settings.getJpegQuality());
+            }
+            if (settings.isJpegProgressive() && param.canWriteProgressive()) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+        }
+        return param;
+    }
+
+    /**
+     * Returns the JPEG metadata carrying the chroma subsampling, {@code null} to let the writer use its defaults.
+     */
+    private static IIOMetadata metadata(final ImageWriter writer, final String format, final RenderedImage image,
+            final ImageWriteParam param, final EncoderSettings settings) throws IIOInvalidTreeException {
+        final int[] lumaSampling = settings.lumaSampling();
+        if (!isJpeg(format) || lumaSampling == null) {
+            return null;
+        }
+        final IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image),
+                param);
+        final Node tree = metadata.getAsTree(JPEG_METADATA_FORMAT);
+        final NodeList components = ((Element) tree).getElementsByTagName("componentSpec");
+        if (components.getLength() < 3) {
+            // Gray images have no chroma
+            return metadata;
+        }
+        for (int i = 0; i < components.getLength(); i++) {
+            final Element component = (Element) components.item(i);
+            // Chroma components keep one sample per block, the luma component gets the sampling factors
+            component.setAttribute("HsamplingFactor", String.valueOf(i == 0 ? lumaSampling[0] : 1));
+            component.setAttribute("VsamplingFactor", String.valueOf(i == 0 ? lumaSampling[1] : 1));
+        }
+        metadata.setFromTree(JPEG_METADATA_FORMAT, tree);
+        return metadata;
+    }
+
+    private static boolean isJpeg(final String format) {
+        return "jpg".equals(format) || "jpeg".equals(format);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Remembers the input fingerprint of each rendered image in a small state file so that an image whose inputs did
+ * not change since the last build is not rendered again.
+ * The state also records the size and modification time of the output, so an output rewritten by anything else
+ * is considered stale.
+ */
+class IncrementalState {
+
+    static final String STATE_DIRECTORY = "image-overlay";
+
+    private final Path stateDirectory;
+
+    IncrementalState(final File buildDirectory) {
+        this.stateDirectory = buildDirectory.toPath().resolve(STATE_DIRECTORY);
+    }
+
+    boolean isUpToDate(final String outputImagePath, final String fingerprint) throws IOException {
+        final Path stateFile = stateFile(outputImagePath);
+        if (!Files.isRegularFile(stateFile)) {
+            return false;
+        }
+        final File output = new File(outputImagePath);
+        if (!output.isFile()) {
+            return false;
+        }
+        final String state = new String(Files.readAllBytes(stateFile), StandardCharsets.UTF_8).trim();
+        return state.equals(state(fingerprint, output));
+    }
+
+    void save(final String outputImagePath, final String fingerprint) throws IOException {
+        Files.createDirectories(stateDirectory);
+        Files.write(stateFile(outputImagePath),
+                state(fingerprint, new File(outputImagePath)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String state(final String fingerprint, final File output) {
+        return String.format("%s %s %s", fingerprint, output.length(), output.lastModified());
+    }
+
+    private Path stateFile(final String outputImagePath) {
+        return stateDirectory.resolve(Fingerprint.pathKey(outputImagePath) + ".sha256");
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Anti-aliased coverage mask of a text drawn with a given font, rasterized once per JVM and blended straight into
+ * the pixel buffer of the images, without a {@link Graphics2D}.
+ * Masks are keyed by the content of the font (see {@link FontCache#contentKey(Font)}) and the text, the
+ * {@value #MAX_MASKS} most recently used ones are kept.
+ * Blending uses the same 8-bit arithmetic as the Java2D anti-aliased text loops: opaque pixels are identical to
+ * {@link Graphics2D#drawString(String, int, int)}, translucent pixels may differ by one rounding step.
+ */
+final class LabelMask {
+
+    static final int MAX_MASKS = 256;
+
+    private static final Map<Key, LabelMask> MASKS = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** MUL8[a << 8 | b] is a * b / 255, rounded. */
+    private static final byte[] MUL8 = new byte[256 * 256];
+
+    static {
+        for (int a = 0; a < 256; a++) {
+            for (int b = 0; b < 256; b++) {
+                MUL8[a << 8 | b] = (byte) ((a * b * 0x010101L + 0x800000L) >>> 24);
+            }
+        }
+    }
+
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    private final byte[] coverage;
+
+    private LabelMask(final int x, final int y, final int width, final int height, final byte[] coverage) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.coverage = coverage;
+    }
+
+    /**
+     * Returns the mask of {@code text} drawn with {@code font}, rasterizing it on first use.
+     */
+    static LabelMask get(final Font font, final String text) {
+        final Key key = new Key(FontCache.contentKey(font), text);
+        synchronized (MASKS) {
+            LabelMask mask = MASKS.get(key);
+            if (mask == null) {
+                mask = rasterize(font, text);
+                MASKS.put(key, mask);
+                final Iterator<LabelMask> it = MASKS.values().iterator();
+                while (MASKS.size() > MAX_MASKS) {
+                    it.next();
+                    it.remove();
+                }
+            }
+            return mask;
+        }
+    }
+
+    private static LabelMask rasterize(final Font font, final String text) {
+        // Same context as the Graphics2D used to draw: identity transform, anti-aliased, integer metrics
+        final FontRenderContext frc = new FontRenderContext(null, true, false);
+        final Rectangle bounds = font.createGlyphVector(frc, text).getPixelBounds(frc, 0, 0);
+        bounds.grow(1, 1);
+        final BufferedImage mask = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_BYTE_GRAY);
+        final Graphics2D graphics = mask.createGraphics();
+        SetImageVersion.configureTextRendering(graphics);
+        graphics.setColor(Color.WHITE);
+        graphics.setFont(font);
+        graphics.drawString(text, -bounds.x, -bounds.y);
+        graphics.dispose();
+        return new LabelMask(bounds.x, bounds.y, bounds.width, bounds.height,
+                ((DataBufferByte) mask.getRaster().getDataBuffer()).getData());
+    }
+
+    /**
+     * Whether the pixels of {@code image} can be blended directly: 8-bit sRGB components packed in ints or
+     * interleaved in bytes, with an optional non-premultiplied alpha.
+     */
+    static boolean canBlend(final BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Blends the mask in {@code color} into {@code image}, with the text baseline starting at
+     * ({@code originX}, {@code originY}).
+     */
+    void blend(final BufferedImage image, final int originX, final int originY, final Color color) {
+        final int minX = Math.max(0, originX + x);
+        final int minY = Math.max(0, originY + y);
+        final int maxX = Math.min(image.getWidth(), originX + x + width);
+        final int maxY = Math.min(image.getHeight(), originY + y + height);
+        if (minX >= maxX || minY >= maxY) {
+            return;
+        }
+        final WritableRaster raster = image.getRaster();
+        if (raster.getDataBuffer() instanceof DataBufferInt) {
+            blendInts(raster, minX, minY, maxX, maxY, originX + x, originY + y, color);
+        } else {
+            blendBytes(raster, minX, minY, maxX, maxY, originX + x, originY + y, color);
+        }
+    }
+
+    private void blendInts(final WritableRaster raster, final int minX, final int minY, final int maxX,
+            final int maxY, final int maskX, final int maskY, final Color color) {
+        final SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        final int[] shifts = sampleModel.getBitOffsets();
+        final int redShift = shifts[0];
+        final int greenShift = shifts[1];
+        final int blueShift = shifts[2];
+        final boolean hasAlpha = shifts.length > 3;
+        final int alphaShift = hasAlpha ? shifts[3] : 0;
+        final int srcR = color.getRed();
+        final int srcG = color.getGreen();
+        final int srcB = color.getBlue();
+        final int srcPixel = srcR << redShift | srcG << greenShift | srcB << blueShift
+                | (hasAlpha ? 0xFF << alphaShift : 0);
+        final DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+        final int[] data = dataBuffer.getData();
+        final int scanlineStride = sampleModel.getScanlineStride();
+        final int translateX = raster.getSampleModelTranslateX();
+        final int translateY = raster.getSampleModelTranslateY();
+        for (int py = minY; py < maxY; py++) {
+            int maskIndex = (py - maskY) * width + minX - maskX;
+            int index = dataBuffer.getOffset() + (py - translateY) * scanlineStride + minX - translateX;
+            for (int px = minX; px < maxX; px++, maskIndex++, index++) {
+                final int mix = coverage[maskIndex] & 0xFF;
+                if (mix == 0) {
+                    continue;
+                }
+                if (mix == 0xFF) {
+                    data[index] = srcPixel;
+                    continue;
+                }
+                final int pixel = data[index];
+                final int dstA = hasAlpha ? pixel >>> alphaShift & 0xFF : 0xFF;
+                final int dstR = pixel >>> redShift & 0xFF;
+                final int dstG = pixel >>> greenShift & 0xFF;
+                final int dstB = pixel >>> blueShift & 0xFF;
+                if (dstA == 0xFF) {
+                    data[index] = mix(mix, srcR, dstR) << redShift | mix(mix, srcG, dstG) << greenShift
+                            | mix(mix, srcB, dstB) << blueShift | (hasAlpha ? 0xFF << alphaShift : 0);
+                } else {
+                    final int dstF = mul8(0xFF - mix, dstA);
+                    final int resA = mix + dstF;
+                    data[index] = over(mix, srcR, dstF, dstR, resA) << redShift
+                            | over(mix, srcG, dstF, dstG, resA) << greenShift
+                            | over(mix, srcB, dstF, dstB, resA) << blueShift | resA << alphaShift;
+                }
+            }
+        }
+    }
+
+    private void blendBytes(final WritableRaster raster, final int minX, final int minY, final int maxX,
+            final int maxY, final int maskX, final int maskY, final Color color) {
+        final ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        final int[] offsets = sampleModel.getBandOffsets();
+        final int redOffset = offsets[0];
+        final int greenOffset = offsets[1];
+        final int blueOffset = offsets[2];
+        final boolean hasAlpha = offsets.length > 3;
+        final int alphaOffset = hasAlpha ? offsets[3] : 0;
+        final int srcR = color.getRed();
+        final int srcG = color.getGreen();
+        final int srcB = color.getBlue();
+        final DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        final byte[] data = dataBuffer.getData();
+        final int pixelStride = sampleModel.getPixelStride();
+        final int scanlineStride = sampleModel.getScanlineStride();
+        final int translateX = raster.getSampleModelTranslateX();
+        final int translateY = raster.getSampleModelTranslateY();
+        for (int py = minY; py < maxY; py++) {
+            int maskIndex = (py - maskY) * width + minX - maskX;
+            int index = dataBuffer.getOffset() + (py - translateY) * scanlineStride
+                    + (minX - translateX) * pixelStride;
+            for (int px = minX; px < maxX; px++, maskIndex++, index += pixelStride) {
+                final int mix = coverage[maskIndex] & 0xFF;
+                if (mix == 0) {
+                    continue;
+                }
+                final int dstA = hasAlpha ? data[index + alphaOffset] & 0xFF : 0xFF;
+                final int dstR = data[index + redOffset] & 0xFF;
+                final int dstG = data[index + greenOffset] & 0xFF;
+                final int dstB = data[index + blueOffset] & 0xFF;
+                if (dstA == 0xFF || mix == 0xFF) {
+                    data[index + redOffset] = (byte) mix(mix, srcR, dstR);
+                    data[index + greenOffset] = (byte) mix(mix, srcG, dstG);
+                    data[index + blueOffset] = (byte) mix(mix, srcB, dstB);
+                    if (hasAlpha) {
+                        data[index + alphaOffset] = (byte) 0xFF;
+                    }
+                } else {
+                    final int dstF = mul8(0xFF - mix, dstA);
+                    final int resA = mix + dstF;
+                    data[index + redOffset] = (byte) over(mix, srcR, dstF, dstR, resA);
+                    data[index + greenOffset] = (byte) over(mix, srcG, dstF, dstG, resA);
+                    data[index + blueOffset] = (byte) over(mix, srcB, dstF, dstB, resA);
+                    data[index + alphaOffset] = (byte) resA;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opaque destination: src * mix + dst * (1 - mix).
+     */
+    private static int mix(final int mix, final int src, final int dst) {
+        return mul8(mix, src) + mul8(0xFF - mix, dst);
+    }
+
+    /**
+     * Translucent destination: non-premultiplied source over, {@code dstF} being the destination alpha left by
+     * the source.
+     */
+    private static int over(final int mix, final int src, final int dstF, final int dst, final int resA) {
+        final int premultiplied = mul8(mix, src) + mul8(dstF, dst);
+        return resA == 0 ? 0 : Math.min(0xFF, (premultiplied * 0xFF + (resA >> 1)) / resA);
+    }
+
+    private static int mul8(final int a, final int b) {
+        return MUL8[a << 8 | b] & 0xFF;
+    }
+
+    private static final class Key {
+
+        private final Object font;
+        private final String text;
+
+        Key(final Object font, final String text) {
+            this.font = font;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return font.equals(other.font) && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(font, text);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed directory of rendered images, shared by the builds running on the same machine.
+ * Entries are keyed by a hash of every input of the rendering (see {@link SetImageVersion#contentKey(String)}),
+ * so identical images produced by different branches or workspaces are rendered once. Cached images are
+ * hard-linked to the outputs when the file system allows it, copied otherwise.
+ * Entries are written to a temporary file and atomically moved into place, so that concurrent builds never see a
+ * partial entry. Once the total size of the entries exceeds the budget, the least recently used ones are deleted.
+ * Uses are recorded in the modification time of a {@code .used} marker file per key, never in the entries
+ * themselves: an entry shares its inode, and so its modification time, with every output linked to it.
+ * Every writer of the plug-in unlinks or renames over its output instead of writing through it, so that outputs
+ * restored as links never modify the cached entries.
+ */
+final class OutputCache {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String USED_SUFFIX = ".used";
+    private static final long STALE_TEMP_FILE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Path directory;
+    private final long maxBytes;
+    private final String pluginVersion;
+
+    OutputCache(final Path directory, final long maxBytes, final String pluginVersion) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.pluginVersion = pluginVersion;
+    }
+
+    String getPluginVersion() {
+        return pluginVersion;
+    }
+
+    /**
+     * Writes the cached images of {@code key} to {@code outputPaths}, the i-th output from the i-th entry.
+     * Returns {@code false}, writing nothing, unless all of the entries are cached.
+     */
+    boolean restore(final String key, final List<String> outputPaths) throws IOException {
+        return restore(key, outputPaths, false);
+    }
+
+    /**
+     * Same as {@link #restore(String, List)}, leaving the outputs whose content is identical to their entry
+     * untouched when {@code onlyIfChanged} is set.
+     */
+    boolean restore(final String key, final List<String> outputPaths, final boolean onlyIfChanged)
+            throws IOException {
+        final List<Path> entries = new ArrayList<>();
+        for (int i = 0; i < outputPaths.size(); i++) {
+            final Path entry = entry(key, i);
+            if (!Files.isRegularFile(entry)) {
+                return false;
+            }
+            entries.add(entry);
+        }
+        try {
+            markUsed(key);
+            for (int i = 0; i < entries.size(); i++) {
+                final Path output = Paths.get(outputPaths.get(i));
+                if (!onlyIfChanged || !OutputFile.sameContent(entries.get(i), output)) {
+                    install(entries.get(i), output);
+                }
+            }
+            return true;
+        } catch (final NoSuchFileException e) {
+            // Evicted by a concurrent build in the meantime
+            return false;
+        }
+    }
+
+    /**
+     * Stores copies of {@code outputPaths} as the entries of {@code key}, then evicts the least recently used
+     * entries beyond the budget.
+     */
+    void store(final String key, final List<String> outputPaths) throws IOException {
+        Files.createDirectories(directory);
+        for (int i = 0; i < outputPaths.size(); i++) {
+            final Path temp = Files.createTempFile(directory, key, TEMP_SUFFIX);
+            try {
+                Files.copy(Paths.get(outputPaths.get(i)), temp, StandardCopyOption.REPLACE_EXISTING);
+                OutputFile.move(temp, entry(key, i));
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        markUsed(key);
+        evict();
+    }
+
+    private void markUsed(final String key) throws IOException {
+        final Path marker = directory.resolve(key + USED_SUFFIX);
+        try {
+            Files.createFile(marker);
+        } catch (final FileAlreadyExistsException e) {
+            Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until their total size fits in the budget, along with temporary
+     * files left behind by interrupted builds. All the entries of a key are deleted together, with their marker.
+     */
+    void evict() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        final Map<String, CachedKey> keys = new HashMap<>();
+        long totalBytes = 0;
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (final Path path : (Iterable<Path>) paths::iterator) {
+                final BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (final NoSuchFileException e) {
+                    continue;
+                }
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+                final String name = path.getFileName().toString();
+                final long lastModified = attributes.lastModifiedTime().toMillis();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    if (System.currentTimeMillis() - lastModified > STALE_TEMP_FILE_MILLIS) {
+                        Files.deleteIfExists(path);
+                    }
+                    continue;
+                }
+                if (name.endsWith(USED_SUFFIX)) {
+                    final CachedKey key = keys.computeIfAbsent(
+                            name.substring(0, name.length() - USED_SUFFIX.length()), k -> new CachedKey());
+                    key.files.add(path);
+                    key.usedAt = lastModified;
+                    continue;
+                }
+                final int separator = name.lastIndexOf('-');
+                final CachedKey key = keys.computeIfAbsent(separator > 0 ? name.substring(0, separator) : name,
+                        k -> new CachedKey());
+                key.files.add(path);
+                key.size += attributes.size();
+                key.storedAt = Math.max(key.storedAt, lastModified);
+                totalBytes += attributes.size();
+            }
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        final List<CachedKey> leastRecentlyUsed = new ArrayList<>(keys.values());
+        leastRecentlyUsed.sort(Comparator.comparingLong(CachedKey::lastUsed));
+        for (final CachedKey key : leastRecentlyUsed) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            for (final Path file : key.files) {
+                Files.deleteIfExists(file);
+            }
+            totalBytes -= key.size;
+        }
+    }
+
+    private Path entry(final String key, final int index) {
+        return directory.resolve(key + "-" + index);
+    }
+
+    /**
+     * Atomically replaces {@code output} with a hard link to {@code entry}, or with a copy when links are not
+     * supported, e.g. across file systems.
+     */
+    private static void install(final Path entry, final Path output) throws IOException {
+        final Path temp = OutputFile.tempFile(output);
+        try {
+            try {
+                Files.createLink(temp, entry);
+            } catch (final NoSuchFileException e) {
+                throw e;
+            } catch (final UnsupportedOperationException | FileSystemException e) {
+                Files.copy(entry, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            OutputFile.move(temp, output);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * The entries of a key and its marker.
+     */
+    private static final class CachedKey {
+
+        private final List<Path> files = new ArrayList<>();
+        private long size;
+        private long storedAt;
+        private Long usedAt;
+
+        /**
+         * Entries stored by earlier versions of the plug-in have no marker.
+         */
+        long lastUsed() {
+            return usedAt != null ? usedAt : storedAt;
+        }
+    }
+}
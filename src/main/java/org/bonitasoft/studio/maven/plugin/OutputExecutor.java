@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM wide bounded executor of the blocking work of an image: writing its additional outputs and rendering its
+ * scaled variants. Kept apart from {@link ParallelPngEncoder#sharedPool()}, so that threads blocked on file I/O
+ * never hold the workers deflating PNG blocks. Its daemon threads stop after a minute without work.
+ */
+final class OutputExecutor {
+
+    private static final String THREAD_PREFIX = "image-overlay-output-";
+
+    private OutputExecutor() {
+    }
+
+    static Executor shared() {
+        return SharedExecutor.EXECUTOR;
+    }
+
+    /**
+     * Whether the calling thread is a worker of {@link #shared()}. Such a thread must not wait for other tasks of
+     * the executor, which could all be queued behind busy workers.
+     */
+    static boolean isOutputThread() {
+        return Thread.currentThread().getName().startsWith(THREAD_PREFIX);
+    }
+
+    private static final class SharedExecutor {
+
+        private static final ThreadPoolExecutor EXECUTOR = newExecutor();
+
+        private static ThreadPoolExecutor newExecutor() {
+            final int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+            final AtomicInteger threadCount = new AtomicInteger();
+            final ThreadFactory threadFactory = runnable -> {
+                final Thread thread = new Thread(runnable, THREAD_PREFIX + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                    new LinkedBlockingQueue<>(), threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Replaces output files only when their content changes.
+ * The new content is written to a temporary file next to the output, compared byte for byte with the existing
+ * output, then atomically renamed over it when they differ. Unchanged outputs keep their modification time, so
+ * that the build steps packaging them stay up to date, and a killed build never leaves a partial image behind.
+ */
+final class OutputFile {
+
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes the content of an output to the given file.
+     */
+    interface Writer {
+
+        void write(File file) throws IOException;
+    }
+
+    private OutputFile() {
+    }
+
+    /**
+     * Writes {@code output} with {@code writer} through a temporary file, leaving the existing output untouched
+     * when its content is identical. Returns whether the output changed.
+     */
+    static boolean write(final Path output, final Writer writer) throws IOException {
+        final Path temp = tempFile(output);
+        try {
+            writer.write(temp.toFile());
+            return replace(temp, output);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Moves {@code source} over {@code output} unless they have the same content, in which case {@code source} is
+     * left in place. Returns whether the output changed.
+     */
+    static boolean replace(final Path source, final Path output) throws IOException {
+        if (sameContent(source, output)) {
+            return false;
+        }
+        move(source, output);
+        return true;
+    }
+
+    /**
+     * Returns a path next to {@code output}, in the same directory so that it can be renamed atomically.
+     */
+    static Path tempFile(final Path output) throws IOException {
+        final Path parent = output.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        return parent.resolve(output.getFileName() + "." + System.nanoTime() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Whether both files exist and have the same bytes.
+     */
+    static boolean sameContent(final Path file, final Path other) throws IOException {
+        if (!Files.isRegularFile(file) || !Files.isRegularFile(other)) {
+            return false;
+        }
+        if (Files.isSameFile(file, other)) {
+            return true;
+        }
+        if (Files.size(file) != Files.size(other)) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(file); InputStream otherIn = Files.newInputStream(other)) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            final byte[] otherBuffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.readNBytes(buffer, 0, BUFFER_SIZE)) > 0) {
+                if (otherIn.readNBytes(otherBuffer, 0, read) != read
+                        || !Arrays.equals(buffer, 0, read, otherBuffer, 0, read)) {
+                    return false;
+                }
+            }
+            return otherIn.read() < 0;
+        }
+    }
+
+    static void move(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * One overlay configuration: a base image, the text to draw on it and where to write the result.
+ * Used as a nested {@code <overlay>} element by {@link SetImageVersionBatchMojo} and to hold the flat
+ * parameters of {@link SetImageVersionMojo}.
+ */
+public class Overlay {
+
+    private String baseImgPath;
+    private String baseImgArtifact;
+    private String baseImgEntry;
+    private String outputImagePath;
+    private String outputImageFormat;
+    private int xLocation;
+    private int yLocation;
+    private int buildIdX;
+    private int buildIdY;
+    private String versionLabel;
+    private String buildId;
+    private String fontName;
+    private String fontResourcePath;
+    private String fontArtifact;
+    private String fontEntry;
+    private float fontSize;
+    private String color;
+    private boolean bold = true;
+    private boolean italic = false;
+    private List<OutputImage> additionalOutputs;
+
+    /**
+     * Validates this overlay and returns the matching {@link OverlaySpec}.
+     */
+    public OverlaySpec toSpec() throws MojoFailureException, MojoExecutionException {
+        return toSpec(null);
+    }
+
+    /**
+     * Validates this overlay and returns the matching {@link OverlaySpec}, base image and font configured as
+     * artifact entries being resolved with {@code artifactEntries}.
+     */
+    OverlaySpec toSpec(final ArtifactEntries artifactEntries) throws MojoFailureException, MojoExecutionException {
+        final String fontPath = fontArtifact != null ? resolve(artifactEntries, fontArtifact, fontEntry)
+                : fontResourcePath;
+        final OverlaySpec.Builder spec = OverlaySpec.builder()
+                .baseImgPath(baseImgArtifact != null ? resolve(artifactEntries, baseImgArtifact, baseImgEntry)
+                        : baseImgPath)
+                .outputImageFormat(outputImageFormat)
+                .outputImagePath(outputImagePath)
+                .additionalOutputs(additionalOutputs)
+                .versionLabel(versionLabel)
+                .buildId(buildId)
+                .buildIdLocation(buildIdX, buildIdY)
+                .location(xLocation, yLocation)
+                .bold(bold)
+                .italic(italic)
+                .fontSize(fontSize);
+        if (fontName != null) {
+            if (fontPath == null) {
+                throw new MojoFailureException(
+                        "You must provide a custom font resourcefile when using a custom font name.");
+            }
+            spec.font(fontName, fontPath);
+        }
+        if (color != null && !color.isEmpty()) {
+            String hexColor = color.startsWith("#") ? color : "#" + color;
+            if (hexColor.length() > 7) {
+                throw new MojoFailureException("Color parameter has not the expected format eg: 0f125e");
+            }
+            spec.color(hexColor);
+        }
+        return spec.build();
+    }
+
+    public String getBaseImgPath() {
+        return baseImgPath;
+    }
+
+    public void setBaseImgPath(String baseImgPath) {
+        this.baseImgPath = baseImgPath;
+    }
+
+    /**
+     * Artifact holding the base image, as {@code groupId:artifactId[:extension[:classifier]]:version}. The image
+     * is read from its {@link #getBaseImgEntry() entry} without extracting the artifact.
+     */
+    public String getBaseImgArtifact() {
+        return baseImgArtifact;
+    }
+
+    public void setBaseImgArtifact(String baseImgArtifact) {
+        this.baseImgArtifact = baseImgArtifact;
+    }
+
+    /**
+     * Path of the base image in {@link #getBaseImgArtifact()}.
+     */
+    public String getBaseImgEntry() {
+        return baseImgEntry;
+    }
+
+    public void setBaseImgEntry(String baseImgEntry) {
+        this.baseImgEntry = baseImgEntry;
+    }
+
+    public String getOutputImagePath() {
+        return outputImagePath;
+    }
+
+    public void setOutputImagePath(String outputImagePath) {
+        this.outputImagePath = outputImagePath;
+    }
+
+    public String getOutputImageFormat() {
+        return outputImageFormat;
+    }
+
+    public void setOutputImageFormat(String outputImageFormat) {
+        this.outputImageFormat = outputImageFormat;
+    }
+
+    public int getxLocation() {
+        return xLocation;
+    }
+
+    public void setxLocation(int xLocation) {
+        this.xLocation = xLocation;
+    }
+
+    public int getyLocation() {
+        return yLocation;
+    }
+
+    public void setyLocation(int yLocation) {
+        this.yLocation = yLocation;
+    }
+
+    public int getBuildIdX() {
+        return buildIdX;
+    }
+
+    public void setBuildIdX(int buildIdX) {
+        this.buildIdX = buildIdX;
+    }
+
+    public int getBuildIdY() {
+        return buildIdY;
+    }
+
+    public void setBuildIdY(int buildIdY) {
+        this.buildIdY = buildIdY;
+    }
+
+    public String getVersionLabel() {
+        return versionLabel;
+    }
+
+    public void setVersionLabel(String versionLabel) {
+        this.versionLabel = versionLabel;
+    }
+
+    public String getBuildId() {
+        return buildId;
+    }
+
+    public void setBuildId(String buildId) {
+        this.buildId = buildId;
+    }
+
+    public String getFontName() {
+        return fontName;
+    }
+
+    public void setFontName(String fontName) {
+        this.fontName = fontName;
+    }
+
+    public String getFontResourcePath() {
+        return fontResourcePath;
+    }
+
+    public void setFontResourcePath(String fontResourcePath) {
+        this.fontResourcePath = fontResourcePath;
+    }
+
+    /**
+     * Artifact holding the font file, used in place of {@link #getFontResourcePath()}.
+     */
+    public String getFontArtifact() {
+        return fontArtifact;
+    }
+
+    public void setFontArtifact(String fontArtifact) {
+        this.fontArtifact = fontArtifact;
+    }
+
+    /**
+     * Path of the font file in {@link #getFontArtifact()}.
+     */
+    public String getFontEntry() {
+        return fontEntry;
+    }
+
+    public void setFontEntry(String fontEntry) {
+        this.fontEntry = fontEntry;
+    }
+
+    public float getFontSize() {
+        return fontSize;
+    }
+
+    public void setFontSize(float fontSize) {
+        this.fontSize = fontSize;
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    public void setColor(String color) {
+        this.color = color;
+    }
+
+    public boolean isBold() {
+        return bold;
+    }
+
+    public void setBold(boolean bold) {
+        this.bold = bold;
+    }
+
+    public boolean isItalic() {
+        return italic;
+    }
+
+    public void setItalic(boolean italic) {
+        this.italic = italic;
+    }
+
+    public List<OutputImage> getAdditionalOutputs() {
+        return additionalOutputs;
+    }
+
+    private static String resolve(final ArtifactEntries artifactEntries, final String coordinates,
+            final String entryPath) throws MojoFailureException, MojoExecutionException {
+        if (artifactEntries == null) {
+            throw new MojoFailureException("Artifact " + coordinates + " cannot be resolved here.");
+        }
+        return artifactEntries.resolve(coordinates, entryPath);
+    }
+
+    public void setAdditionalOutputs(List<OutputImage> additionalOutputs) {
+        this.additionalOutputs = additionalOutputs;
+    }
+}
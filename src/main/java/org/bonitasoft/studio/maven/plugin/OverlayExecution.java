@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.maven.plugin.logging.Log;
+import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
+
+/**
+ * Renders one spec on behalf of a mojo: up-to-date check, rendering, metrics log and report.
+ * An image with additional outputs is up to date only when all of its outputs are. Missing output directories
+ * are created.
+ */
+class OverlayExecution {
+
+    static final String METRICS_DIRECTORY = "metrics";
+
+    private final Log log;
+    private final File buildDirectory;
+    private final String pluginVersion;
+    private final boolean incremental;
+    private final boolean metricsReport;
+
+    OverlayExecution(final Log log, final File buildDirectory, final String pluginVersion, final boolean incremental,
+            final boolean metricsReport) {
+        this.log = log;
+        this.buildDirectory = buildDirectory;
+        this.pluginVersion = pluginVersion;
+        this.incremental = incremental;
+        this.metricsReport = metricsReport;
+    }
+
+    void createImage(final OverlayRenderer renderer, final OverlaySpec spec)
+            throws CreateImageException, IOException {
+        final String fingerprint = incremental ? renderer.fingerprint(spec, pluginVersion) : null;
+        if (isUpToDate(spec, fingerprint)) {
+            return;
+        }
+        beforeRender(spec);
+        afterRender(spec, fingerprint, renderer.render(spec));
+    }
+
+    /**
+     * Same as {@link #createImage(OverlayRenderer, OverlaySpec)}, the image being rendered by {@code pipeline}.
+     * Waits while the pipeline is full, failures are reported through the returned future.
+     */
+    CompletableFuture<Void> submitImage(final OverlayRenderer renderer, final OverlaySpec spec,
+            final RenderPipeline pipeline) throws InterruptedException {
+        try {
+            final String fingerprint = incremental ? renderer.fingerprint(spec, pluginVersion) : null;
+            if (isUpToDate(spec, fingerprint)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            beforeRender(spec);
+            return renderer.submit(spec, pipeline).thenAccept(result -> {
+                try {
+                    afterRender(spec, fingerprint, result);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (final CreateImageException | IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private boolean isUpToDate(final OverlaySpec spec, final String fingerprint) throws IOException {
+        if (fingerprint == null) {
+            return false;
+        }
+        final List<String> outputPaths = spec.getOutputPaths();
+        for (final String outputPath : outputPaths) {
+            if (!incrementalState().isUpToDate(outputPath, fingerprint)) {
+                return false;
+            }
+        }
+        log.info("Skipping " + String.join(", ", outputPaths) + ", image is up to date.");
+        return true;
+    }
+
+    private void beforeRender(final OverlaySpec spec) throws IOException {
+        final List<String> outputPaths = spec.getOutputPaths();
+        log.info("Writing image with version " + spec.getVersionLabel() + " to "
+                + String.join(", ", outputPaths) + "...");
+        createParentDirectories(outputPaths);
+    }
+
+    private void afterRender(final OverlaySpec spec, final String fingerprint, final RenderResult result)
+            throws IOException {
+        if (fingerprint != null) {
+            for (final String outputPath : spec.getOutputPaths()) {
+                incrementalState().save(outputPath, fingerprint);
+            }
+        }
+        final RenderMetrics metrics = result.getMetrics();
+        if (metrics != null) {
+            if (log.isDebugEnabled()) {
+                log.debug(metrics.summary());
+            }
+            if (metricsReport) {
+                writeMetricsReport(spec.getOutputImagePath(), metrics);
+            }
+        }
+    }
+
+    private static void createParentDirectories(final List<String> outputPaths) throws IOException {
+        for (final String outputPath : outputPaths) {
+            final Path parent = outputPath != null ? Paths.get(outputPath).toAbsolutePath().getParent() : null;
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+        }
+    }
+
+    private void writeMetricsReport(final String outputImagePath, final RenderMetrics metrics) throws IOException {
+        final Path reportDirectory = buildDirectory.toPath().resolve(IncrementalState.STATE_DIRECTORY)
+                .resolve(METRICS_DIRECTORY);
+        Files.createDirectories(reportDirectory);
+        Files.write(reportDirectory.resolve(Fingerprint.pathKey(outputImagePath) + ".json"),
+                metrics.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private IncrementalState incrementalState() {
+        return new IncrementalState(buildDirectory);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
+
+/**
+ * Immutable, thread safe overlay renderer. It is configured once through its {@link Builder} and checks its font
+ * when built. Fonts come from the {@link FontCache}, which parses each font file once per content, so that
+ * {@link #render(OverlaySpec)} only does the per-image work and picks up font files changed in the meantime.
+ * A single instance can be shared by all the threads of an application or a Maven daemon.
+ */
+public final class OverlayRenderer {
+
+    private final String fontName;
+    private final String fontResourcePath;
+    private final boolean tiledDecoding;
+    private final int tileHeight;
+    private final boolean maskCompositing;
+    private final boolean preserveColorModel;
+    private final boolean writeOnlyIfChanged;
+    private final EncoderSettings encoderSettings;
+    private final BaseImageCache baseImageCache;
+    private final OutputCache outputCache;
+    private final Supplier<SetImageVersion> setImageVersionFactory;
+
+    private OverlayRenderer(final Builder builder) throws CreateImageException {
+        this.fontName = builder.fontName != null ? builder.fontName : SetImageVersion.DEFAULT_FONT_NAME;
+        this.fontResourcePath = builder.fontName != null ? builder.fontResourcePath : null;
+        this.tiledDecoding = builder.tiledDecoding;
+        this.tileHeight = builder.tileHeight;
+        this.maskCompositing = builder.maskCompositing;
+        this.preserveColorModel = builder.preserveColorModel;
+        this.writeOnlyIfChanged = builder.writeOnlyIfChanged;
+        this.encoderSettings = builder.encoderSettings;
+        this.baseImageCache = builder.baseImageCache;
+        this.outputCache = builder.outputCache;
+        this.setImageVersionFactory = builder.setImageVersionFactory;
+        loadFont(fontName, fontResourcePath);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Renders the given spec and writes its outputs.
+     */
+    public RenderResult render(final OverlaySpec spec) throws CreateImageException {
+        final SetImageVersion setImageVersion = newSetImageVersion(spec);
+        setImageVersion.createImage();
+        return new RenderResult(spec.getOutputPaths(), setImageVersion.getMetrics());
+    }
+
+    /**
+     * Queues the rendering of the given spec in {@code pipeline}, waiting while the pipeline is full. The returned
+     * future completes once the outputs are written.
+     */
+    public CompletableFuture<RenderResult> submit(final OverlaySpec spec, final RenderPipeline pipeline)
+            throws CreateImageException, InterruptedException {
+        return pipeline.submit(newSetImageVersion(spec))
+                .thenApply(metrics -> new RenderResult(spec.getOutputPaths(), metrics));
+    }
+
+    /**
+     * Computes a fingerprint of every input of the rendering of {@code spec}, see
+     * {@link SetImageVersion#fingerprint(String)}.
+     */
+    public String fingerprint(final OverlaySpec spec, final String pluginVersion) throws CreateImageException {
+        return newSetImageVersion(spec).fingerprint(pluginVersion);
+    }
+
+    /**
+     * Returns the font used to render {@code spec}, parsing it on first use and again when its file changes.
+     */
+    public Font getFont(final OverlaySpec spec) throws CreateImageException {
+        return spec.getFontName() != null ? loadFont(spec.getFontName(), spec.getFontResourcePath())
+                : loadFont(fontName, fontResourcePath);
+    }
+
+    private SetImageVersion newSetImageVersion(final OverlaySpec spec) throws CreateImageException {
+        final SetImageVersion setImageVersion = setImageVersionFactory.get();
+        setImageVersion.setFontName(fontName);
+        setImageVersion.setFontResourcePath(fontResourcePath);
+        spec.applyTo(setImageVersion);
+        setImageVersion.setFont(getFont(spec));
+        setImageVersion.setTiledDecoding(tiledDecoding);
+        if (tileHeight > 0) {
+            setImageVersion.setTileHeight(tileHeight);
+        }
+        setImageVersion.setMaskCompositing(maskCompositing);
+        setImageVersion.setPreserveColorModel(preserveColorModel);
+        setImageVersion.setEncoderSettings(encoderSettings);
+        setImageVersion.setWriteOnlyIfChanged(writeOnlyIfChanged);
+        setImageVersion.setBaseImageCache(baseImageCache);
+        setImageVersion.setOutputCache(outputCache);
+        return setImageVersion;
+    }
+
+    private static Font loadFont(final String fontName, final String fontResourcePath) throws CreateImageException {
+        try {
+            return FontCache.getFont(fontName, fontResourcePath);
+        } catch (FontFormatException | IOException e) {
+            throw new CreateImageException("Failed to load font " + fontName, e);
+        }
+    }
+
+    BaseImageCache getBaseImageCache() {
+        return baseImageCache;
+    }
+
+    public static final class Builder {
+
+        private String fontName;
+        private String fontResourcePath;
+        private boolean tiledDecoding;
+        private int tileHeight = SetImageVersion.DEFAULT_TILE_HEIGHT;
+        private boolean maskCompositing;
+        private boolean preserveColorModel;
+        private boolean writeOnlyIfChanged;
+        private EncoderSettings encoderSettings = EncoderSettings.DEFAULT;
+        private BaseImageCache baseImageCache;
+        private OutputCache outputCache;
+        private Supplier<SetImageVersion> setImageVersionFactory = SetImageVersion::new;
+
+        private Builder() {
+        }
+
+        /**
+         * Default font of the rendered specs: a system font or a font file, the bundled font when
+         * {@code fontName} is {@code null}.
+         */
+        public Builder font(final String fontName, final String fontResourcePath) {
+            this.fontName = fontName;
+            this.fontResourcePath = fontResourcePath;
+            return this;
+        }
+
+        /**
+         * Decode base images by horizontal tiles of {@code tileHeight} rows for PNG and BMP outputs.
+         */
+        public Builder tiledDecoding(final boolean tiledDecoding) {
+            this.tiledDecoding = tiledDecoding;
+            return this;
+        }
+
+        public Builder tileHeight(final int tileHeight) {
+            this.tileHeight = tileHeight;
+            return this;
+        }
+
+        /**
+         * Blend cached masks of the text instead of rasterizing it for each image.
+         */
+        public Builder maskCompositing(final boolean maskCompositing) {
+            this.maskCompositing = maskCompositing;
+            return this;
+        }
+
+        /**
+         * Keep the palette of indexed base images when the outputs can store it.
+         */
+        public Builder preserveColorModel(final boolean preserveColorModel) {
+            this.preserveColorModel = preserveColorModel;
+            return this;
+        }
+
+        /**
+         * Replace the outputs, atomically, only when their content changed.
+         */
+        public Builder writeOnlyIfChanged(final boolean writeOnlyIfChanged) {
+            this.writeOnlyIfChanged = writeOnlyIfChanged;
+            return this;
+        }
+
+        /**
+         * PNG and JPEG encoder parameters of the outputs.
+         */
+        public Builder encoderSettings(final EncoderSettings encoderSettings) {
+            this.encoderSettings = encoderSettings;
+            return this;
+        }
+
+        /**
+         * Share decoded base images through the JVM wide cache, holding at least {@code pixels} pixels: the cache
+         * keeps the largest budget requested in the JVM. 0 disables the cache for this renderer.
+         */
+        public Builder baseImageCachePixels(final long pixels) {
+            this.baseImageCache = pixels > 0 ? BaseImageCache.shared(pixels) : null;
+            return this;
+        }
+
+        /**
+         * Restore identical images from the content-addressed cache in {@code directory} instead of rendering
+         * them, and keep the rendered images there. Least recently used images are deleted beyond
+         * {@code maxBytes}. Cached images are keyed by the {@code pluginVersion} in addition to the inputs.
+         */
+        public Builder outputCache(final Path directory, final long maxBytes, final String pluginVersion) {
+            this.outputCache = directory != null ? new OutputCache(directory, maxBytes, pluginVersion) : null;
+            return this;
+        }
+
+        Builder baseImageCache(final BaseImageCache baseImageCache) {
+            this.baseImageCache = baseImageCache;
+            return this;
+        }
+
+        Builder setImageVersionFactory(final Supplier<SetImageVersion> setImageVersionFactory) {
+            this.setImageVersionFactory = setImageVersionFactory;
+            return this;
+        }
+
+        /**
+         * Builds the renderer and loads its font.
+         */
+        public OverlayRenderer build() throws CreateImageException {
+            return new OverlayRenderer(this);
+        }
+    }
+}
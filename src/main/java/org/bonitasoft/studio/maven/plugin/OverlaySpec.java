@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable description of one image to render with an {@link OverlayRenderer}: the base image, the text to draw
+ * and where to write the result. Required values are checked when rendering.
+ */
+public final class OverlaySpec {
+
+    private final String baseImgPath;
+    private final String outputImagePath;
+    private final String outputImageFormat;
+    private final List<OutputImage> additionalOutputs;
+    private final int xLocation;
+    private final int yLocation;
+    private final int buildIdX;
+    private final int buildIdY;
+    private final String versionLabel;
+    private final String buildId;
+    private final String fontName;
+    private final String fontResourcePath;
+    private final float fontSize;
+    private final String color;
+    private final boolean bold;
+    private final boolean italic;
+    private final float scale;
+
+    private OverlaySpec(final Builder builder) {
+        this.baseImgPath = builder.baseImgPath;
+        this.outputImagePath = builder.outputImagePath;
+        this.outputImageFormat = builder.outputImageFormat;
+        final List<OutputImage> outputs = new ArrayList<>();
+        for (final OutputImage output : builder.additionalOutputs) {
+            outputs.add(new OutputImage(output.getPath(), output.getFormat()));
+        }
+        this.additionalOutputs = Collections.unmodifiableList(outputs);
+        this.xLocation = builder.xLocation;
+        this.yLocation = builder.yLocation;
+        this.buildIdX = builder.buildIdX;
+        this.buildIdY = builder.buildIdY;
+        this.versionLabel = builder.versionLabel;
+        this.buildId = builder.buildId;
+        this.fontName = builder.fontName;
+        this.fontResourcePath = builder.fontResourcePath;
+        this.fontSize = builder.fontSize;
+        this.color = builder.color;
+        this.bold = builder.bold;
+        this.italic = builder.italic;
+        this.scale = builder.scale;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a builder initialized with the values of this spec, to derive variants of it.
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .baseImgPath(baseImgPath)
+                .outputImagePath(outputImagePath)
+                .outputImageFormat(outputImageFormat)
+                .additionalOutputs(additionalOutputs)
+                .location(xLocation, yLocation)
+                .buildIdLocation(buildIdX, buildIdY)
+                .versionLabel(versionLabel)
+                .buildId(buildId)
+                .font(fontName, fontResourcePath)
+                .fontSize(fontSize)
+                .color(color)
+                .bold(bold)
+                .italic(italic)
+                .scale(scale);
+    }
+
+    /**
+     * Copies this spec onto the given {@link SetImageVersion}.
+     */
+    void applyTo(final SetImageVersion setImageVersion) {
+        setImageVersion.setBaseImgPath(baseImgPath);
+        setImageVersion.setOutputImageFormat(outputImageFormat);
+        setImageVersion.setOutputImagePath(outputImagePath);
+        setImageVersion.setAdditionalOutputs(additionalOutputs);
+        setImageVersion.setVersionLabel(versionLabel);
+        setImageVersion.setBuildId(buildId);
+        setImageVersion.setBuildIdX(buildIdX);
+        setImageVersion.setBuildIdY(buildIdY);
+        setImageVersion.setxLocation(xLocation);
+        setImageVersion.setyLocation(yLocation);
+        setImageVersion.setBold(bold);
+        setImageVersion.setItalic(italic);
+        if (fontName != null) {
+            setImageVersion.setFontName(fontName);
+            setImageVersion.setFontResourcePath(fontResourcePath);
+        }
+        if (fontSize > 0) {
+            setImageVersion.setSize(fontSize);
+        }
+        if (color != null) {
+            setImageVersion.setColor(color);
+        }
+        setImageVersion.setScale(scale);
+    }
+
+    /**
+     * Paths of every file written for this spec: the output image followed by the additional outputs.
+     */
+    public List<String> getOutputPaths() {
+        final List<String> outputPaths = new ArrayList<>();
+        outputPaths.add(outputImagePath);
+        for (final OutputImage output : additionalOutputs) {
+            outputPaths.add(output.getPath());
+        }
+        return outputPaths;
+    }
+
+    public String getBaseImgPath() {
+        return baseImgPath;
+    }
+
+    public String getOutputImagePath() {
+        return outputImagePath;
+    }
+
+    public String getOutputImageFormat() {
+        return outputImageFormat;
+    }
+
+    public List<OutputImage> getAdditionalOutputs() {
+        return additionalOutputs;
+    }
+
+    public int getxLocation() {
+        return xLocation;
+    }
+
+    public int getyLocation() {
+        return yLocation;
+    }
+
+    public int getBuildIdX() {
+        return buildIdX;
+    }
+
+    public int getBuildIdY() {
+        return buildIdY;
+    }
+
+    public String getVersionLabel() {
+        return versionLabel;
+    }
+
+    public String getBuildId() {
+        return buildId;
+    }
+
+    public String getFontName() {
+        return fontName;
+    }
+
+    public String getFontResourcePath() {
+        return fontResourcePath;
+    }
+
+    public float getFontSize() {
+        return fontSize;
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    public boolean isBold() {
+        return bold;
+    }
+
+    public boolean isItalic() {
+        return italic;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public static final class Builder {
+
+        private String baseImgPath;
+        private String outputImagePath;
+        private String outputImageFormat;
+        private List<OutputImage> additionalOutputs = Collections.emptyList();
+        private int xLocation;
+        private int yLocation;
+        private int buildIdX;
+        private int buildIdY;
+        private String versionLabel;
+        private String buildId;
+        private String fontName;
+        private String fontResourcePath;
+        private float fontSize;
+        private String color;
+        private boolean bold = true;
+        private boolean italic = false;
+        private float scale = 1f;
+
+        private Builder() {
+        }
+
+        public Builder baseImgPath(final String baseImgPath) {
+            this.baseImgPath = baseImgPath;
+            return this;
+        }
+
+        public Builder outputImagePath(final String outputImagePath) {
+            this.outputImagePath = outputImagePath;
+            return this;
+        }
+
+        public Builder outputImageFormat(final String outputImageFormat) {
+            this.outputImageFormat = outputImageFormat;
+            return this;
+        }
+
+        public Builder additionalOutputs(final List<OutputImage> additionalOutputs) {
+            this.additionalOutputs = additionalOutputs != null ? additionalOutputs : Collections.emptyList();
+            return this;
+        }
+
+        public Builder location(final int xLocation, final int yLocation) {
+            this.xLocation = xLocation;
+            this.yLocation = yLocation;
+            return this;
+        }
+
+        public Builder buildIdLocation(final int buildIdX, final int buildIdY) {
+            this.buildIdX = buildIdX;
+            this.buildIdY = buildIdY;
+            return this;
+        }
+
+        public Builder versionLabel(final String versionLabel) {
+            this.versionLabel = versionLabel;
+            return this;
+        }
+
+        public Builder buildId(final String buildId) {
+            this.buildId = buildId;
+            return this;
+        }
+
+        /**
+         * Font of the text, the renderer font when {@code fontName} is {@code null}.
+         */
+        public Builder font(final String fontName, final String fontResourcePath) {
+            this.fontName = fontName;
+            this.fontResourcePath = fontResourcePath;
+            return this;
+        }
+
+        /**
+         * Size of the version text, the default size when 0.
+         */
+        public Builder fontSize(final float fontSize) {
+            this.fontSize = fontSize;
+            return this;
+        }
+
+        /**
+         * Color of the text as {@code #rrggbb}, white when {@code null}.
+         */
+        public Builder color(final String color) {
+            this.color = color;
+            return this;
+        }
+
+        public Builder bold(final boolean bold) {
+            this.bold = bold;
+            return this;
+        }
+
+        public Builder italic(final boolean italic) {
+            this.italic = italic;
+            return this;
+        }
+
+        public Builder scale(final float scale) {
+            this.scale = scale;
+            return this;
+        }
+
+        public OverlaySpec build() {
+            return new OverlaySpec(this);
+        }
+    }
+}
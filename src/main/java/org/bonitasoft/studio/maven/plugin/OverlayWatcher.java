@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
+
+/**
+ * Keeps a warm renderer, with its fonts and decoded base images, and renders the overlays again as soon as their
+ * inputs change: base images, font files and the sidecar configuration, all watched with a {@link WatchService}.
+ * Only the overlays depending on a changed file are rendered. The {@link FontCache} parses font files again when
+ * their content changes, and keys the variants and text masks derived from them by content.
+ * <p>
+ * The sidecar is a properties file overriding the text of the overlays, as {@code property=value} for all of them
+ * or {@code <output file name>.property=value} for one, e.g. {@code splash.bmp.xLocation=210}. Supported
+ * properties are {@code xLocation}, {@code yLocation}, {@code buildIdX}, {@code buildIdY}, {@code fontSize},
+ * {@code color}, {@code bold}, {@code italic}, {@code versionLabel} and {@code buildId}. Deleting the sidecar
+ * restores the overlays as configured in the build.
+ */
+final class OverlayWatcher implements Closeable {
+
+    private static final List<String> PROPERTIES = List.of("xLocation", "yLocation", "buildIdX", "buildIdY",
+            "fontSize", "color", "bold", "italic", "versionLabel", "buildId");
+
+    private final Log log;
+    private final List<OverlaySpec> specs;
+    private final Path sidecar;
+    private final OverlayRenderer.Builder rendererBuilder;
+    private final long quietMillis;
+    private final WatchService watchService;
+    private final Set<Path> watchedDirectories = new HashSet<>();
+    private final List<OverlaySpec> effectiveSpecs = new ArrayList<>();
+    private final List<Map<String, String>> overrides = new ArrayList<>();
+    private OverlayRenderer renderer;
+
+    /**
+     * @param specs the overlays as configured in the build
+     * @param sidecar the properties overriding them, may not exist yet, {@code null} for none
+     * @param quietMillis how long to wait for more changes after a change, so that a file being saved is rendered
+     *        once
+     */
+    OverlayWatcher(final Log log, final List<OverlaySpec> specs, final Path sidecar,
+            final OverlayRenderer.Builder rendererBuilder, final long quietMillis) throws IOException {
+        this.log = log;
+        this.specs = specs;
+        this.sidecar = sidecar != null ? normalize(sidecar) : null;
+        this.rendererBuilder = rendererBuilder;
+        this.quietMillis = quietMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Starts watching the inputs and renders all the overlays. Failures are logged.
+     */
+    void start() throws IOException, CreateImageException {
+        renderer = rendererBuilder.build();
+        final Map<String, String> sidecarProperties = readSidecar();
+        for (final OverlaySpec spec : specs) {
+            final Map<String, String> specOverrides = overridesOf(spec, sidecarProperties);
+            overrides.add(specOverrides);
+            effectiveSpecs.add(apply(spec, specOverrides));
+            watch(inputFile(spec.getBaseImgPath()));
+            watch(inputFile(spec.getFontResourcePath()));
+        }
+        watch(sidecar);
+        for (final OverlaySpec spec : effectiveSpecs) {
+            render(spec);
+        }
+    }
+
+    /**
+     * Waits up to {@code timeout} for input changes, then renders the overlays depending on the changed files.
+     * Returns the rendered overlays, empty when nothing changed.
+     */
+    List<OverlaySpec> awaitChanges(final long timeout, final TimeUnit unit)
+            throws InterruptedException, IOException {
+        WatchKey key = watchService.poll(timeout, unit);
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        final Set<Path> changes = new LinkedHashSet<>();
+        boolean overflow = false;
+        // Collects the changes until the files stop changing, editors often write a file in several steps
+        while (key != null) {
+            final Path directory = (Path) key.watchable();
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    overflow = true;
+                } else {
+                    changes.add(directory.resolve((Path) event.context()));
+                }
+            }
+            key.reset();
+            key = watchService.poll(quietMillis, TimeUnit.MILLISECONDS);
+        }
+        return renderChanges(changes, overflow);
+    }
+
+    private List<OverlaySpec> renderChanges(final Set<Path> changes, final boolean overflow) {
+        final Set<Integer> affected = new LinkedHashSet<>();
+        if (overflow || sidecar != null && changes.contains(sidecar)) {
+            final Map<String, String> sidecarProperties = readSidecar();
+            for (int i = 0; i < specs.size(); i++) {
+                final Map<String, String> specOverrides = overridesOf(specs.get(i), sidecarProperties);
+                if (overflow || !specOverrides.equals(overrides.get(i))) {
+                    overrides.set(i, specOverrides);
+                    effectiveSpecs.set(i, apply(specs.get(i), specOverrides));
+                    affected.add(i);
+                }
+            }
+        }
+        for (int i = 0; i < specs.size(); i++) {
+            final OverlaySpec spec = specs.get(i);
+            if (changes.contains(inputFile(spec.getBaseImgPath()))) {
+                affected.add(i);
+            }
+            if (changes.contains(inputFile(spec.getFontResourcePath()))) {
+                affected.add(i);
+            }
+        }
+        final List<OverlaySpec> rendered = new ArrayList<>();
+        for (final int i : affected) {
+            if (render(effectiveSpecs.get(i))) {
+                rendered.add(effectiveSpecs.get(i));
+            }
+        }
+        return rendered;
+    }
+
+    private boolean render(final OverlaySpec spec) {
+        final long start = System.nanoTime();
+        try {
+            for (final String outputPath : spec.getOutputPaths()) {
+                final Path parent = Paths.get(outputPath).toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+            }
+            renderer.render(spec);
+            log.info(String.format("Rendered %s in %s ms.", String.join(", ", spec.getOutputPaths()),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            return true;
+        } catch (final CreateImageException | IOException | RuntimeException e) {
+            // A file being saved may be incomplete, it is rendered again on its next change
+            log.error("Failed to create image " + spec.getOutputImagePath() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void watch(final Path file) throws IOException {
+        if (file == null) {
+            return;
+        }
+        final Path directory = file.getParent();
+        if (directory != null && watchedDirectories.add(directory)) {
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        }
+    }
+
+    /**
+     * Reads the sidecar, empty when it does not exist or cannot be read.
+     */
+    private Map<String, String> readSidecar() {
+        final Map<String, String> values = new HashMap<>();
+        if (sidecar == null || !Files.isRegularFile(sidecar)) {
+            return values;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(sidecar)) {
+            properties.load(in);
+        } catch (final IOException | IllegalArgumentException e) {
+            log.warn("Failed to read " + sidecar + ": " + e.getMessage());
+            return values;
+        }
+        for (final String name : properties.stringPropertyNames()) {
+            values.put(name, properties.getProperty(name).trim());
+        }
+        return values;
+    }
+
+    /**
+     * The sidecar values applying to {@code spec}, the ones of its output file name taking precedence.
+     */
+    private static Map<String, String> overridesOf(final OverlaySpec spec, final Map<String, String> values) {
+        final String outputName = Paths.get(spec.getOutputImagePath()).getFileName().toString();
+        final Map<String, String> specOverrides = new HashMap<>();
+        for (final String property : PROPERTIES) {
+            final String value = values.getOrDefault(outputName + "." + property, values.get(property));
+            if (value != null) {
+                specOverrides.put(property, value);
+            }
+        }
+        return specOverrides;
+    }
+
+    private OverlaySpec apply(final OverlaySpec spec, final Map<String, String> specOverrides) {
+        if (specOverrides.isEmpty()) {
+            return spec;
+        }
+        try {
+            return spec.toBuilder()
+                    .location(intValue(specOverrides, "xLocation", spec.getxLocation()),
+                            intValue(specOverrides, "yLocation", spec.getyLocation()))
+                    .buildIdLocation(intValue(specOverrides, "buildIdX", spec.getBuildIdX()),
+                            intValue(specOverrides, "buildIdY", spec.getBuildIdY()))
+                    .fontSize(specOverrides.containsKey("fontSize") ? Float.parseFloat(specOverrides.get("fontSize"))
+                            : spec.getFontSize())
+                    .color(specOverrides.getOrDefault("color", spec.getColor()))
+                    .bold(specOverrides.containsKey("bold") ? Boolean.parseBoolean(specOverrides.get("bold"))
+                            : spec.isBold())
+                    .italic(specOverrides.containsKey("italic") ? Boolean.parseBoolean(specOverrides.get("italic"))
+                            : spec.isItalic())
+                    .versionLabel(specOverrides.getOrDefault("versionLabel", spec.getVersionLabel()))
+                    .buildId(specOverrides.getOrDefault("buildId", spec.getBuildId()))
+                    .build();
+        } catch (final NumberFormatException e) {
+            log.warn("Ignoring invalid values of " + sidecar + " for " + spec.getOutputImagePath() + ": "
+                    + e.getMessage());
+            return spec;
+        }
+    }
+
+    private static int intValue(final Map<String, String> specOverrides, final String property,
+            final int defaultValue) {
+        final String value = specOverrides.get(property);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    /**
+     * The file to watch for an input path: the archive of archive entries, {@code null} for bundled resources.
+     */
+    private static Path inputFile(final String path) {
+        if (path == null) {
+            return null;
+        }
+        final ArchiveEntry entry = ArchiveEntry.parse(path);
+        return normalize(entry != null ? entry.getArchive().toPath() : Paths.get(path));
+    }
+
+    private static Path normalize(final Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
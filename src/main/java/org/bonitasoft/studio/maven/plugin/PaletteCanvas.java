@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Draws the overlay on palette images without expanding them to true color: only the pixels under the text are
+ * converted to true color, drawn on, and mapped back to the palette. Colors of the anti-aliased text missing from
+ * the palette take the entries no pixel uses (decoders pad palettes to a power of two) or are appended while it has
+ * fewer than 256 entries, and are mapped to the closest entry afterwards,
+ * provided no channel differs by more than {@value #MAX_CHANNEL_ERROR}.
+ * The output keeps one byte or less per pixel, so both the raster in memory and the encoded PNG, BMP or GIF are
+ * several times smaller than their true color counterparts.
+ */
+final class PaletteCanvas {
+
+    private static final int MAX_PALETTE_SIZE = 256;
+    static final int MAX_CHANNEL_ERROR = 8;
+
+    private PaletteCanvas() {
+    }
+
+    /**
+     * Whether {@code image} uses a palette that {@link #draw(BufferedImage, Rectangle, TilePainter)} can keep.
+     */
+    static boolean isPaletteImage(final BufferedImage image) {
+        return image.getColorModel() instanceof IndexColorModel && image.getRaster().getNumBands() == 1
+                && image.getColorModel().getPixelSize() <= 8;
+    }
+
+    /**
+     * Returns a new palette image with the pixels of {@code source}, where {@code painter} drew on the pixels inside
+     * {@code region}, or {@code null} when the drawn colors do not fit in a 256 entries palette. {@code source} is
+     * left untouched, so it may be shared.
+     */
+    static BufferedImage draw(final BufferedImage source, final Rectangle region, final TilePainter painter) {
+        final IndexColorModel sourceModel = (IndexColorModel) source.getColorModel();
+        final Rectangle bounds = region.intersection(new Rectangle(source.getWidth(), source.getHeight()));
+        final Palette palette = new Palette(sourceModel, source.getRaster());
+        if (bounds.isEmpty()) {
+            return copy(source, palette, null, bounds);
+        }
+        final BufferedImage tile = new BufferedImage(bounds.width, bounds.height,
+                sourceModel.hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        // Copied color by color rather than drawn, which could round translucent colors into new palette entries
+        tile.setRGB(0, 0, bounds.width, bounds.height,
+                source.getRGB(bounds.x, bounds.y, bounds.width, bounds.height, null, 0, bounds.width), 0,
+                bounds.width);
+        painter.paint(tile, bounds.x, bounds.y);
+
+        final int[] argb = tile.getRGB(0, 0, bounds.width, bounds.height, null, 0, bounds.width);
+        final int[] indices = new int[argb.length];
+        for (int i = 0; i < argb.length; i++) {
+            indices[i] = palette.indexOf(argb[i]);
+            if (indices[i] < 0) {
+                return null;
+            }
+        }
+        return copy(source, palette, indices, bounds);
+    }
+
+    private static BufferedImage copy(final BufferedImage source, final Palette palette, final int[] indices,
+            final Rectangle bounds) {
+        final IndexColorModel model = palette.toColorModel(source.getColorModel().getPixelSize());
+        final BufferedImage image = new BufferedImage(source.getWidth(), source.getHeight(),
+                model.getPixelSize() < 8 ? BufferedImage.TYPE_BYTE_BINARY : BufferedImage.TYPE_BYTE_INDEXED, model);
+        final WritableRaster raster = image.getRaster();
+        // Entries used by the source pixels are unchanged: new colors only take unused entries
+        raster.setRect(source.getRaster());
+        if (indices != null) {
+            raster.setSamples(bounds.x, bounds.y, bounds.width, bounds.height, 0, indices);
+        }
+        return image;
+    }
+
+    private static final class Palette {
+
+        private final int[] colors = new int[MAX_PALETTE_SIZE];
+        private final boolean[] used = new boolean[MAX_PALETTE_SIZE];
+        private final Map<Integer, Integer> indices = new HashMap<>();
+        private int size;
+        private int nextFree;
+
+        Palette(final IndexColorModel model, final Raster raster) {
+            model.getRGBs(colors);
+            size = model.getMapSize();
+            final int[] row = new int[raster.getWidth()];
+            for (int y = 0; y < raster.getHeight(); y++) {
+                raster.getSamples(0, y, row.length, 1, 0, row);
+                for (final int index : row) {
+                    used[index] = true;
+                }
+            }
+            for (int i = size - 1; i >= 0; i--) {
+                if (used[i]) {
+                    indices.put(colors[i], i);
+                }
+            }
+        }
+
+        /**
+         * Index of {@code argb}, appended to the palette when missing, or else of the closest entry. Returns -1 when
+         * the palette is full and has no close enough entry.
+         */
+        int indexOf(final int argb) {
+            final Integer index = indices.get(argb);
+            if (index != null) {
+                return index;
+            }
+            while (nextFree < MAX_PALETTE_SIZE && used[nextFree]) {
+                nextFree++;
+            }
+            if (nextFree < MAX_PALETTE_SIZE) {
+                colors[nextFree] = argb;
+                used[nextFree] = true;
+                indices.put(argb, nextFree);
+                size = Math.max(size, nextFree + 1);
+                return nextFree;
+            }
+            final int closest = closest(argb);
+            if (closest >= 0) {
+                indices.put(argb, closest);
+            }
+            return closest;
+        }
+
+        private int closest(final int argb) {
+            int closest = -1;
+            int closestError = MAX_CHANNEL_ERROR + 1;
+            for (int i = 0; i < size; i++) {
+                if (!used[i]) {
+                    continue;
+                }
+                int error = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    error = Math.max(error, Math.abs((argb >>> shift & 0xFF) - (colors[i] >>> shift & 0xFF)));
+                }
+                if (error < closestError) {
+                    closest = i;
+                    closestError = error;
+                }
+            }
+            return closest;
+        }
+
+        IndexColorModel toColorModel(final int minBits) {
+            // Packed pixels of 1 or 4 bits, or one byte per pixel: the BMP writer has no 2 bits mode
+            final int entries = Math.max(size, 1 << minBits);
+            int bits = 1;
+            while (1 << bits < entries) {
+                bits = bits == 1 ? 4 : 8;
+            }
+            return new IndexColorModel(bits, size, colors, 0, true, -1, DataBuffer.TYPE_BYTE);
+        }
+    }
+}
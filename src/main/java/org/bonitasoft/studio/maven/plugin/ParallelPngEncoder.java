@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder deflating the image in independent blocks of scanlines compressed concurrently on a fork-join pool,
+ * like pigz: each block is primed with the last 32 KiB of the scanlines before it and ends on a sync flush, so that
+ * the blocks concatenate into a single standard zlib stream. The Adler-32 checksums of the blocks are combined.
+ * Scanlines are filtered with the minimum sum of absolute differences heuristic of libpng by default, palette images
+ * are not filtered. Supports 8-bit RGB, RGBA, gray and palette images; other images go through the JDK writer.
+ */
+final class ParallelPngEncoder {
+
+    /** Minimum number of filtered bytes per deflate block. */
+    static final int BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int DEFAULT_LEVEL = 4;
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    private static final int ADLER_BASE = 65521;
+
+    private static final int COLOR_TYPE_GRAY = 0;
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_PALETTE = 3;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    private final BufferedImage image;
+    private final int level;
+    private final int colorType;
+    private final int bytesPerPixel;
+    private final int rowBytes;
+    private final int rowsPerBlock;
+    private final Filter filter;
+
+    /**
+     * Filter applied to the scanlines: one of the five PNG filter types for every row, or the type chosen row by
+     * row with the minimum sum of absolute differences heuristic.
+     */
+    enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE
+    }
+
+    /**
+     * @param level deflate level, negative for the default level of the JDK writer
+     */
+    ParallelPngEncoder(final BufferedImage image, final int level) {
+        this(image, level, image.getColorModel() instanceof IndexColorModel ? Filter.NONE : Filter.ADAPTIVE);
+    }
+
+    /**
+     * @param level deflate level, negative for the default level of the JDK writer
+     * @param filter filter of the scanlines
+     */
+    ParallelPngEncoder(final BufferedImage image, final int level, final Filter filter) {
+        if (!canEncode(image)) {
+            throw new IllegalArgumentException("Unsupported image type " + image.getType());
+        }
+        this.image = image;
+        this.level = level >= 0 ? level : DEFAULT_LEVEL;
+        this.colorType = colorType(image.getColorModel());
+        this.bytesPerPixel = colorType == COLOR_TYPE_PALETTE ? 1 : image.getColorModel().getNumComponents();
+        this.rowBytes = image.getWidth() * bytesPerPixel;
+        this.rowsPerBlock = Math.max(1, (BLOCK_SIZE + rowBytes) / (rowBytes + 1));
+        this.filter = filter;
+    }
+
+    /**
+     * Whether the pixels of {@code image} map to an 8-bit PNG color type.
+     */
+    static boolean canEncode(final BufferedImage image) {
+        return colorType(image.getColorModel()) >= 0 && image.getRaster().getNumBands() == (image
+                .getColorModel() instanceof IndexColorModel ? 1 : image.getColorModel().getNumComponents());
+    }
+
+    private static int colorType(final ColorModel model) {
+        if (model instanceof IndexColorModel) {
+            return model.getPixelSize() == 8 ? COLOR_TYPE_PALETTE : -1;
+        }
+        if (!(model instanceof DirectColorModel || model instanceof ComponentColorModel)
+                || model.isAlphaPremultiplied() || model.getTransferType() == DataBuffer.TYPE_FLOAT
+                || model.getTransferType() == DataBuffer.TYPE_DOUBLE) {
+            return -1;
+        }
+        for (int i = 0; i < model.getNumComponents(); i++) {
+            if (model.getComponentSize(i) != 8) {
+                return -1;
+            }
+        }
+        if (model.getColorSpace().isCS_sRGB()) {
+            return model.hasAlpha() ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB;
+        }
+        if (model.getColorSpace().getType() == ColorSpace.TYPE_GRAY && !model.hasAlpha()) {
+            return COLOR_TYPE_GRAY;
+        }
+        return -1;
+    }
+
+    /**
+     * Fork-join pool shared by the encoders of the JVM, one worker per processor. Only runs CPU bound filtering and
+     * deflate tasks, blocking writes go to {@link OutputExecutor#shared()}.
+     */
+    static ForkJoinPool sharedPool() {
+        return SharedPool.POOL;
+    }
+
+    /**
+     * Number of deflate blocks compressed concurrently.
+     */
+    int getBlockCount() {
+        return (image.getHeight() + rowsPerBlock - 1) / rowsPerBlock;
+    }
+
+    /**
+     * Writes the PNG to {@code out}, deflating the blocks on {@code pool}.
+     */
+    void write(final OutputStream out, final ForkJoinPool pool) throws IOException {
+        // Each block is deflated once its scanlines and those of the previous block, its dictionary, are filtered
+        final List<CompletableFuture<Block>> tasks = new ArrayList<>();
+        CompletableFuture<byte[]> previous = CompletableFuture.completedFuture(null);
+        for (int y = 0; y < image.getHeight(); y += rowsPerBlock) {
+            final int startRow = y;
+            final int endRow = Math.min(image.getHeight(), startRow + rowsPerBlock);
+            final CompletableFuture<byte[]> filtered = CompletableFuture.supplyAsync(() -> filter(startRow, endRow),
+                    pool);
+            tasks.add(filtered.thenCombineAsync(previous,
+                    (scanlines, dictionary) -> deflate(scanlines, dictionary, endRow == image.getHeight()), pool));
+            previous = filtered;
+        }
+        final DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        writeHeader(data);
+        try {
+            long adler = 1;
+            for (int i = 0; i < tasks.size(); i++) {
+                final Block block = tasks.get(i).get();
+                final byte[] zlibHeader = i == 0 ? zlibHeader() : new byte[0];
+                final byte[] trailer = i == tasks.size() - 1 ? new byte[4] : new byte[0];
+                adler = combineAdler32(adler, block.adler, block.length);
+                if (trailer.length > 0) {
+                    trailer[0] = (byte) (adler >>> 24);
+                    trailer[1] = (byte) (adler >>> 16);
+                    trailer[2] = (byte) (adler >>> 8);
+                    trailer[3] = (byte) adler;
+                }
+                writeChunk(data, "IDAT", zlibHeader, block.compressed, trailer);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (final ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            for (final CompletableFuture<Block> task : tasks) {
+                task.cancel(false);
+            }
+        }
+        writeChunk(data, "IEND");
+        data.flush();
+    }
+
+    private void writeHeader(final DataOutputStream data) throws IOException {
+        final byte[] header = new byte[13];
+        putInt(header, 0, image.getWidth());
+        putInt(header, 4, image.getHeight());
+        header[8] = 8;
+        header[9] = (byte) colorType;
+        writeChunk(data, "IHDR", header);
+        if (colorType == COLOR_TYPE_PALETTE) {
+            final IndexColorModel model = (IndexColorModel) image.getColorModel();
+            final byte[] palette = new byte[model.getMapSize() * 3];
+            final byte[] alphas = new byte[model.getMapSize()];
+            int lastTranslucent = -1;
+            for (int i = 0; i < model.getMapSize(); i++) {
+                palette[3 * i] = (byte) model.getRed(i);
+                palette[3 * i + 1] = (byte) model.getGreen(i);
+                palette[3 * i + 2] = (byte) model.getBlue(i);
+                alphas[i] = (byte) model.getAlpha(i);
+                if (model.getAlpha(i) != 255) {
+                    lastTranslucent = i;
+                }
+            }
+            writeChunk(data, "PLTE", palette);
+            if (lastTranslucent >= 0) {
+                final byte[] transparency = new byte[lastTranslucent + 1];
+                System.arraycopy(alphas, 0, transparency, 0, transparency.length);
+                writeChunk(data, "tRNS", transparency);
+            }
+        }
+    }
+
+    /**
+     * Deflates the filtered scanlines of a block, primed with the end of the scanlines of the previous block.
+     */
+    private Block deflate(final byte[] filtered, final byte[] dictionary, final boolean last) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                // The inflater sees the scanlines before this block as history
+                final int offset = Math.max(0, dictionary.length - DICTIONARY_SIZE);
+                deflater.setDictionary(dictionary, offset, dictionary.length - offset);
+            }
+            final Adler32 adler = new Adler32();
+            adler.update(filtered);
+            deflater.setInput(filtered);
+            if (last) {
+                deflater.finish();
+            }
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(filtered.length / 4 + 64);
+            final byte[] buffer = new byte[64 * 1024];
+            while (true) {
+                final int length = deflater.deflate(buffer, 0, buffer.length,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                compressed.write(buffer, 0, length);
+                if (last ? deflater.finished() : length < buffer.length) {
+                    break;
+                }
+            }
+            return new Block(compressed.toByteArray(), adler.getValue(), filtered.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the filtered scanlines of rows {@code startRow} (inclusive) to {@code endRow} (exclusive), each
+     * prefixed with its filter type.
+     */
+    private byte[] filter(final int startRow, final int endRow) {
+        final byte[] filtered = new byte[(endRow - startRow) * (rowBytes + 1)];
+        final Raster raster = image.getRaster();
+        final int[] samples = new int[rowBytes];
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        if (startRow > 0) {
+            readRow(raster, startRow - 1, samples, previous);
+        }
+        final byte[][] candidates = new byte[5][rowBytes];
+        for (int y = startRow; y < endRow; y++) {
+            readRow(raster, y, samples, current);
+            final int offset = (y - startRow) * (rowBytes + 1);
+            if (filter == Filter.NONE) {
+                System.arraycopy(current, 0, filtered, offset + 1, rowBytes);
+            } else {
+                final int adaptiveType = filterRow(current, previous, candidates);
+                final int type = filter == Filter.ADAPTIVE ? adaptiveType : filter.ordinal();
+                filtered[offset] = (byte) type;
+                System.arraycopy(candidates[type], 0, filtered, offset + 1, rowBytes);
+            }
+            final byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return filtered;
+    }
+
+    /**
+     * Reads the samples of row {@code y}, in PNG order, straight from the data buffer for the usual int packed and
+     * byte interleaved rasters.
+     */
+    private void readRow(final Raster raster, final int y, final int[] samples, final byte[] row) {
+        final SampleModel sampleModel = raster.getSampleModel();
+        final DataBuffer dataBuffer = raster.getDataBuffer();
+        final int width = image.getWidth();
+        final int sampleY = y - raster.getSampleModelTranslateY();
+        final int sampleX = -raster.getSampleModelTranslateX();
+        if (sampleModel instanceof SinglePixelPackedSampleModel && dataBuffer instanceof DataBufferInt) {
+            final int[] data = ((DataBufferInt) dataBuffer).getData();
+            final int offset = dataBuffer.getOffset()
+                    + ((SinglePixelPackedSampleModel) sampleModel).getOffset(sampleX, sampleY);
+            final int[] bitOffsets = ((SinglePixelPackedSampleModel) sampleModel).getBitOffsets();
+            int i = 0;
+            for (int x = 0; x < width; x++) {
+                final int pixel = data[offset + x];
+                for (final int bitOffset : bitOffsets) {
+                    row[i++] = (byte) (pixel >>> bitOffset);
+                }
+            }
+            return;
+        }
+        if (sampleModel instanceof ComponentSampleModel && dataBuffer instanceof DataBufferByte
+                && dataBuffer.getNumBanks() == 1) {
+            final ComponentSampleModel components = (ComponentSampleModel) sampleModel;
+            final byte[] data = ((DataBufferByte) dataBuffer).getData();
+            final int pixelStride = components.getPixelStride();
+            final int offset = dataBuffer.getOffset() + sampleY * components.getScanlineStride()
+                    + sampleX * pixelStride;
+            final int[] bandOffsets = components.getBandOffsets();
+            int i = 0;
+            for (int x = 0; x < width; x++) {
+                final int pixel = offset + x * pixelStride;
+                for (final int bandOffset : bandOffsets) {
+                    row[i++] = data[pixel + bandOffset];
+                }
+            }
+            return;
+        }
+        raster.getPixels(0, y, width, 1, samples);
+        for (int i = 0; i < rowBytes; i++) {
+            row[i] = (byte) samples[i];
+        }
+    }
+
+    /**
+     * Computes the Sub, Up, Average and Paeth filters of {@code row} in {@code candidates} and returns the type
+     * with the minimum sum of absolute values, None being {@code row} itself. One simple loop per filter lets the
+     * JIT vectorize them.
+     */
+    private int filterRow(final byte[] row, final byte[] previous, final byte[][] candidates) {
+        final int bpp = bytesPerPixel;
+        final int length = rowBytes;
+        final byte[] sub = candidates[1];
+        final byte[] up = candidates[2];
+        final byte[] average = candidates[3];
+        final byte[] paeth = candidates[4];
+        for (int i = 0; i < bpp; i++) {
+            // The left neighbours of the first pixel are 0
+            sub[i] = row[i];
+            up[i] = (byte) (row[i] - previous[i]);
+            average[i] = (byte) (row[i] - ((previous[i] & 0xFF) >>> 1));
+            paeth[i] = up[i];
+        }
+        for (int i = bpp; i < length; i++) {
+            sub[i] = (byte) (row[i] - row[i - bpp]);
+        }
+        for (int i = bpp; i < length; i++) {
+            up[i] = (byte) (row[i] - previous[i]);
+        }
+        for (int i = bpp; i < length; i++) {
+            average[i] = (byte) (row[i] - (((row[i - bpp] & 0xFF) + (previous[i] & 0xFF)) >>> 1));
+        }
+        for (int i = bpp; i < length; i++) {
+            paeth[i] = (byte) (row[i] - paeth(row[i - bpp] & 0xFF, previous[i] & 0xFF, previous[i - bpp] & 0xFF));
+        }
+        int best = 0;
+        long bestSum = sumOfAbsolutes(row);
+        for (int type = 1; type < 5; type++) {
+            final long sum = sumOfAbsolutes(candidates[type]);
+            if (sum < bestSum) {
+                best = type;
+                bestSum = sum;
+            }
+        }
+        if (best == 0) {
+            System.arraycopy(row, 0, candidates[0], 0, length);
+        }
+        return best;
+    }
+
+    private long sumOfAbsolutes(final byte[] filtered) {
+        long sum = 0;
+        for (int i = 0; i < rowBytes; i++) {
+            sum += Math.abs(filtered[i]);
+        }
+        return sum;
+    }
+
+    private static int paeth(final int a, final int b, final int c) {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private byte[] zlibHeader() {
+        final int cmf = 0x78;
+        final int compressionLevel = level <= 1 ? 0 : level <= 5 ? 1 : level == 6 ? 2 : 3;
+        int flg = compressionLevel << 6;
+        flg += 31 - (cmf * 256 + flg) % 31;
+        return new byte[] { (byte) cmf, (byte) flg };
+    }
+
+    /**
+     * Adler-32 of the concatenation of two sequences from their checksums, as zlib's adler32_combine.
+     */
+    static long combineAdler32(final long adler1, final long adler2, final long length2) {
+        final long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = remainder * sum1 % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += (adler1 >>> 16 & 0xFFFF) + (adler2 >>> 16 & 0xFFFF) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= 2L * ADLER_BASE) {
+            sum2 -= 2L * ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | sum2 << 16;
+    }
+
+    private static void writeChunk(final DataOutputStream data, final String type, final byte[]... parts)
+            throws IOException {
+        int length = 0;
+        for (final byte[] part : parts) {
+            length += part.length;
+        }
+        final byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        final CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        data.writeInt(length);
+        data.write(typeBytes);
+        for (final byte[] part : parts) {
+            crc.update(part);
+            data.write(part);
+        }
+        data.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(final byte[] bytes, final int offset, final int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static final class SharedPool {
+
+        private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static final class Block {
+
+        private final byte[] compressed;
+        private final long adler;
+        private final long length;
+
+        Block(final byte[] compressed, final long adler, final long length) {
+            this.compressed = compressed;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bonitasoft.studio.maven.plugin.ParallelPngEncoder.Filter;
+
+/**
+ * Lossless size optimization of PNG outputs: the rendered image is encoded in several ways and the smallest PNG is
+ * kept. Candidates are the image itself and its lossless reductions: without its alpha channel when every pixel is
+ * opaque, in gray when every pixel is, and as a palette when it has at most 256 colors. Each candidate is filtered
+ * with one or several scanline filters and deflated at level 9. The outputs only have the chunks needed to decode
+ * the pixels.
+ * The effort bounds the number of encodings:
+ * <ul>
+ * <li>1: the smallest reduction, with the adaptive filter (none for palettes), 1 encoding</li>
+ * <li>2: every reduction, with the adaptive filter and without filter, up to 6 encodings</li>
+ * <li>3: every reduction with every filter, up to 18 encodings</li>
+ * </ul>
+ */
+final class PngOptimizer {
+
+    static final int MAX_EFFORT = 3;
+
+    private static final int LEVEL = 9;
+    private static final int MAX_PALETTE_SIZE = 256;
+
+    private final int effort;
+    private final ForkJoinPool pool;
+
+    PngOptimizer(final int effort, final ForkJoinPool pool) {
+        if (effort < 1 || effort > MAX_EFFORT) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid PNG optimization effort %s, efforts range from 1 to %s.", effort,
+                            MAX_EFFORT));
+        }
+        this.effort = effort;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the smallest PNG encoding of {@code image}.
+     */
+    byte[] optimize(final BufferedImage image) throws IOException {
+        final List<BufferedImage> reductions = reductions(image);
+        byte[] smallest = null;
+        for (final BufferedImage candidate : effort == 1 ? reductions.subList(0, 1) : reductions) {
+            for (final Filter filter : filters(candidate)) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                new ParallelPngEncoder(candidate, LEVEL, filter).write(out, pool);
+                if (smallest == null || out.size() < smallest.length) {
+                    smallest = out.toByteArray();
+                }
+            }
+        }
+        return smallest;
+    }
+
+    private List<Filter> filters(final BufferedImage candidate) {
+        final Filter preferred = candidate.getColorModel() instanceof IndexColorModel ? Filter.NONE
+                : Filter.ADAPTIVE;
+        switch (effort) {
+            case 1:
+                return List.of(preferred);
+            case 2:
+                return List.of(Filter.ADAPTIVE, Filter.NONE);
+            default:
+                return List.of(Filter.values());
+        }
+    }
+
+    /**
+     * Lossless variants of {@code image} that the PNG encoder supports, the most compact pixel format first.
+     */
+    static List<BufferedImage> reductions(final BufferedImage image) {
+        if (!(image.getColorModel() instanceof IndexColorModel) && !image.getColorModel().getColorSpace().isCS_sRGB()) {
+            // getRGB converts other color spaces, e.g. linear gray, so their samples are kept as they are
+            return List.of(ParallelPngEncoder.canEncode(image) ? image : copy(image, BufferedImage.TYPE_INT_ARGB));
+        }
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] row = new int[width];
+        final Map<Integer, Integer> palette = new HashMap<>();
+        boolean opaque = true;
+        boolean gray = true;
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (final int argb : row) {
+                opaque &= argb >>> 24 == 0xFF;
+                final int red = argb >>> 16 & 0xFF;
+                gray &= red == (argb >>> 8 & 0xFF) && red == (argb & 0xFF);
+                if (palette.size() <= MAX_PALETTE_SIZE) {
+                    palette.putIfAbsent(argb, palette.size());
+                }
+            }
+        }
+        final List<BufferedImage> reductions = new ArrayList<>();
+        if (palette.size() <= MAX_PALETTE_SIZE) {
+            reductions.add(toPalette(image, palette));
+        }
+        if (gray && opaque) {
+            reductions.add(toGray(image));
+        }
+        if (opaque) {
+            reductions.add(copy(image, BufferedImage.TYPE_INT_RGB));
+        } else {
+            reductions.add(ParallelPngEncoder.canEncode(image) && image.getColorModel().hasAlpha() ? image
+                    : copy(image, BufferedImage.TYPE_INT_ARGB));
+        }
+        return reductions;
+    }
+
+    private static BufferedImage toPalette(final BufferedImage image, final Map<Integer, Integer> palette) {
+        final int[] colors = new int[palette.size()];
+        palette.forEach((argb, index) -> colors[index] = argb);
+        final BufferedImage indexed = new BufferedImage(image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_BYTE_INDEXED,
+                new IndexColorModel(8, colors.length, colors, 0, true, -1, DataBuffer.TYPE_BYTE));
+        final WritableRaster raster = indexed.getRaster();
+        final int[] row = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, row.length, 1, row, 0, row.length);
+            for (int x = 0; x < row.length; x++) {
+                row[x] = palette.get(row[x]);
+            }
+            raster.setSamples(0, y, row.length, 1, 0, row);
+        }
+        return indexed;
+    }
+
+    private static BufferedImage toGray(final BufferedImage image) {
+        final BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_BYTE_GRAY);
+        final WritableRaster raster = gray.getRaster();
+        final int[] row = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, row.length, 1, row, 0, row.length);
+            for (int x = 0; x < row.length; x++) {
+                // Samples are written as is: the PNG gray level equals the sRGB components
+                row[x] &= 0xFF;
+            }
+            raster.setSamples(0, y, row.length, 1, 0, row);
+        }
+        return gray;
+    }
+
+    private static BufferedImage copy(final BufferedImage image, final int type) {
+        final BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        final int[] row = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, row.length, 1, row, 0, row.length);
+            copy.setRGB(0, y, row.length, 1, row, 0, row.length);
+        }
+        return copy;
+    }
+}
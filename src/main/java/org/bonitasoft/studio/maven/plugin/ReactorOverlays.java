@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluationException;
+import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluator;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+/**
+ * Reads the overlays configured in the {@code create-image} and {@code create-images} executions of a project,
+ * so that they can be rendered by {@link SetImageVersionAggregateMojo}.
+ * The expressions of the configurations are evaluated against the project, the way Maven does when it runs the
+ * executions, and relative paths are resolved against the base directory of the project.
+ */
+final class ReactorOverlays {
+
+    static final String CREATE_IMAGE_GOAL = "create-image";
+    static final String CREATE_IMAGES_GOAL = "create-images";
+
+    private ReactorOverlays() {
+    }
+
+    /**
+     * Returns the executions of the plugin {@code pluginKey} (groupId:artifactId) in {@code project} with their
+     * overlays, evaluating the configurations with {@code evaluator} and resolving the base images and fonts stored in
+     * artifacts with {@code artifactEntries}.
+     */
+    static List<Execution> collect(final MavenProject project, final String pluginKey,
+            final ArtifactEntries artifactEntries, final ExpressionEvaluator evaluator)
+            throws MojoFailureException, MojoExecutionException {
+        final List<Execution> executions = new ArrayList<>();
+        for (final Plugin plugin : project.getBuildPlugins()) {
+            if (!pluginKey.equals(plugin.getKey())) {
+                continue;
+            }
+            for (final PluginExecution execution : plugin.getExecutions()) {
+                if (execution.getConfiguration() == null) {
+                    continue;
+                }
+                final Xpp3Dom configuration = new Xpp3Dom((Xpp3Dom) execution.getConfiguration());
+                evaluate(configuration, evaluator, project, execution);
+                final List<OverlaySpec> specs = new ArrayList<>();
+                if (execution.getGoals().contains(CREATE_IMAGE_GOAL)) {
+                    final OverlaySpec spec = overlay(configuration, project.getBasedir()).toSpec(artifactEntries);
+                    final List<Float> scales = scales(configuration.getChild("scales"));
+                    specs.addAll(scales.isEmpty() ? List.of(spec) : SetImageVersionMojo.scaledVariants(spec, scales));
+                }
+                if (execution.getGoals().contains(CREATE_IMAGES_GOAL)) {
+                    final Xpp3Dom overlays = configuration.getChild("overlays");
+                    if (overlays != null) {
+                        for (final Xpp3Dom overlay : overlays.getChildren()) {
+                            specs.add(overlay(overlay, project.getBasedir()).toSpec(artifactEntries));
+                        }
+                    }
+                }
+                if (!specs.isEmpty()) {
+                    executions.add(new Execution(project, execution.getId(),
+                            new ExecutionConfiguration(configuration, project.getBasedir()), specs));
+                }
+            }
+        }
+        return executions;
+    }
+
+    /**
+     * Replaces the expressions of {@code configuration} and its children by their value, an expression without
+     * value leaving the parameter unset.
+     */
+    private static void evaluate(final Xpp3Dom configuration, final ExpressionEvaluator evaluator,
+            final MavenProject project, final PluginExecution execution) throws MojoExecutionException {
+        if (configuration.getValue() != null) {
+            try {
+                final Object value = evaluator.evaluate(configuration.getValue());
+                configuration.setValue(value != null ? String.valueOf(value) : null);
+            } catch (final ExpressionEvaluationException e) {
+                throw new MojoExecutionException(String.format("Failed to evaluate %s of execution %s of %s: %s",
+                        configuration.getName(), execution.getId(), project.getArtifactId(), e.getMessage()), e);
+            }
+        }
+        for (final Xpp3Dom child : configuration.getChildren()) {
+            evaluate(child, evaluator, project, execution);
+        }
+    }
+
+    static Overlay overlay(final Xpp3Dom configuration, final File basedir) throws MojoFailureException {
+        final Overlay overlay = new Overlay();
+        overlay.setBaseImgPath(path(basedir, value(configuration, "baseImgPath")));
+        overlay.setBaseImgArtifact(value(configuration, "baseImgArtifact"));
+        overlay.setBaseImgEntry(value(configuration, "baseImgEntry"));
+        overlay.setOutputImagePath(path(basedir, value(configuration, "outputImagePath")));
+        overlay.setOutputImageFormat(value(configuration, "outputImageFormat"));
+        overlay.setxLocation(intValue(configuration, "xLocation"));
+        overlay.setyLocation(intValue(configuration, "yLocation"));
+        overlay.setBuildIdX(intValue(configuration, "buildIdX"));
+        overlay.setBuildIdY(intValue(configuration, "buildIdY"));
+        overlay.setVersionLabel(value(configuration, "versionLabel"));
+        overlay.setBuildId(value(configuration, "buildId"));
+        overlay.setFontName(value(configuration, "fontName"));
+        overlay.setFontResourcePath(path(basedir, value(configuration, "fontResourcePath")));
+        overlay.setFontArtifact(value(configuration, "fontArtifact"));
+        overlay.setFontEntry(value(configuration, "fontEntry"));
+        final String fontSize = value(configuration, "fontSize");
+        if (fontSize != null) {
+            overlay.setFontSize(parseFloat("fontSize", fontSize));
+        }
+        overlay.setColor(value(configuration, "color"));
+        final String bold = value(configuration, "bold");
+        if (bold != null) {
+            overlay.setBold(Boolean.parseBoolean(bold));
+        }
+        overlay.setItalic(Boolean.parseBoolean(value(configuration, "italic")));
+        final Xpp3Dom additionalOutputs = configuration.getChild("additionalOutputs");
+        if (additionalOutputs != null) {
+            final List<OutputImage> outputs = new ArrayList<>();
+            for (final Xpp3Dom output : additionalOutputs.getChildren()) {
+                outputs.add(new OutputImage(path(basedir, value(output, "path")), value(output, "format")));
+            }
+            overlay.setAdditionalOutputs(outputs);
+        }
+        return overlay;
+    }
+
+    private static List<Float> scales(final Xpp3Dom scales) throws MojoFailureException {
+        final List<Float> values = new ArrayList<>();
+        if (scales != null) {
+            for (final Xpp3Dom scale : scales.getChildren()) {
+                values.add(parseFloat("scales", scale.getValue()));
+            }
+        }
+        return values;
+    }
+
+    static String value(final Xpp3Dom configuration, final String name) {
+        final Xpp3Dom child = configuration.getChild(name);
+        if (child == null || child.getValue() == null || child.getValue().trim().isEmpty()) {
+            return null;
+        }
+        return child.getValue().trim();
+    }
+
+    static int intValue(final Xpp3Dom configuration, final String name) throws MojoFailureException {
+        final String value = value(configuration, name);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            throw new MojoFailureException(String.format("Invalid %s '%s', an integer is expected.", name, value));
+        }
+    }
+
+    static float parseFloat(final String name, final String value) throws MojoFailureException {
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (final NullPointerException | NumberFormatException e) {
+            throw new MojoFailureException(String.format("Invalid %s '%s', a number is expected.", name, value));
+        }
+    }
+
+    static String path(final File basedir, final String path) {
+        if (path == null || basedir == null || new File(path).isAbsolute()) {
+            return path;
+        }
+        return new File(basedir, path).getPath();
+    }
+
+    /**
+     * An execution of the plugin in a project of the reactor and the overlays it configures.
+     */
+    static final class Execution {
+
+        private final MavenProject project;
+        private final String id;
+        private final ExecutionConfiguration configuration;
+        private final List<OverlaySpec> specs;
+
+        Execution(final MavenProject project, final String id, final ExecutionConfiguration configuration,
+                final List<OverlaySpec> specs) {
+            this.project = project;
+            this.id = id;
+            this.configuration = configuration;
+            this.specs = specs;
+        }
+
+        MavenProject getProject() {
+            return project;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        ExecutionConfiguration getConfiguration() {
+            return configuration;
+        }
+
+        List<OverlaySpec> getSpecs() {
+            return specs;
+        }
+    }
+}
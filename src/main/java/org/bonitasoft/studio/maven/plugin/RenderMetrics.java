@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+import org.bonitasoft.studio.maven.plugin.jfr.FontResolveEvent;
+import org.bonitasoft.studio.maven.plugin.jfr.ImageDecodeEvent;
+import org.bonitasoft.studio.maven.plugin.jfr.ImageEncodeEvent;
+import org.bonitasoft.studio.maven.plugin.jfr.OverlayEvent;
+import org.bonitasoft.studio.maven.plugin.jfr.TextCompositionEvent;
+
+/**
+ * Wall time and allocated bytes of each stage of one {@link SetImageVersion#createImage()} call, with the number
+ * of bytes read and written. Each stage is also recorded as a Java Flight Recorder event.
+ * Allocated bytes are only available on JVMs supporting {@code com.sun.management.ThreadMXBean}, -1 otherwise.
+ * When a BMP is patched in place or a base image is decoded by tiles, decoding and composition happen while
+ * the output is written and are accounted to the encode stage. Images restored from the output cache have no
+ * stage timings.
+ */
+public class RenderMetrics {
+
+    public enum Stage {
+        FONT, DECODE, COMPOSE, ENCODE;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        OverlayEvent newEvent() {
+            switch (this) {
+                case FONT:
+                    return new FontResolveEvent();
+                case DECODE:
+                    return new ImageDecodeEvent();
+                case COMPOSE:
+                    return new TextCompositionEvent();
+                default:
+                    return new ImageEncodeEvent();
+            }
+        }
+    }
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final long[] wallTimeNanos = new long[Stage.values().length];
+    private final long[] allocatedBytes = new long[Stage.values().length];
+    private String outputImagePath;
+    private String baseImagePath;
+    private String format;
+    private String fontName;
+    private int width;
+    private int height;
+    private long bytesRead;
+    private long bytesWritten;
+    private boolean cached;
+
+    /**
+     * Measures a stage until the returned timer is closed.
+     */
+    public Timer start(final Stage stage) {
+        return new Timer(stage);
+    }
+
+    /**
+     * Whether the Flight Recorder event of {@code stage} is recorded, so that callers only gather the details it
+     * reports when needed.
+     */
+    boolean isRecording(final Stage stage) {
+        return stage.newEvent().isEnabled();
+    }
+
+    public long getWallTimeNanos(final Stage stage) {
+        return wallTimeNanos[stage.ordinal()];
+    }
+
+    public long getAllocatedBytes(final Stage stage) {
+        return allocatedBytes[stage.ordinal()];
+    }
+
+    public long getTotalWallTimeNanos() {
+        long total = 0;
+        for (final long nanos : wallTimeNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    public long getTotalAllocatedBytes() {
+        long total = 0;
+        for (final long bytes : allocatedBytes) {
+            if (bytes < 0) {
+                return -1;
+            }
+            total += bytes;
+        }
+        return total;
+    }
+
+    void setImage(final String outputImagePath, final String baseImagePath, final String format,
+            final String fontName) {
+        this.outputImagePath = outputImagePath;
+        this.baseImagePath = baseImagePath;
+        this.format = format;
+        this.fontName = fontName;
+    }
+
+    void setDimensions(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    void addBytesRead(final long bytes) {
+        bytesRead += bytes;
+    }
+
+    void addBytesWritten(final long bytes) {
+        bytesWritten += bytes;
+    }
+
+    void setCached(final boolean cached) {
+        this.cached = cached;
+    }
+
+    /**
+     * Whether the image was restored from the output cache instead of being rendered.
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    public String getOutputImagePath() {
+        return outputImagePath;
+    }
+
+    public String getBaseImagePath() {
+        return baseImagePath;
+    }
+
+    public String getFontName() {
+        return fontName;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * One line summary for the build log.
+     */
+    public String summary() {
+        if (cached) {
+            return String.format(Locale.ROOT, "Restored %s from the output cache, wrote %s bytes", outputImagePath,
+                    bytesWritten);
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Rendered %s (%sx%s) in %.1f ms (", outputImagePath, width, height,
+                millis(getTotalWallTimeNanos())));
+        for (final Stage stage : Stage.values()) {
+            if (stage.ordinal() > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format(Locale.ROOT, "%s %.1f ms", stage.label(), millis(getWallTimeNanos(stage))));
+        }
+        sb.append(String.format(Locale.ROOT, "), read %s bytes, wrote %s bytes", bytesRead, bytesWritten));
+        if (getTotalAllocatedBytes() >= 0) {
+            sb.append(String.format(Locale.ROOT, ", allocated %s bytes", getTotalAllocatedBytes()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Machine readable form of these metrics.
+     */
+    public String toJson() {
+        final StringBuilder sb = new StringBuilder("{");
+        sb.append("\"outputImagePath\":").append(jsonString(outputImagePath));
+        sb.append(",\"format\":").append(jsonString(format));
+        sb.append(",\"width\":").append(width);
+        sb.append(",\"height\":").append(height);
+        sb.append(",\"bytesRead\":").append(bytesRead);
+        sb.append(",\"bytesWritten\":").append(bytesWritten);
+        sb.append(",\"cached\":").append(cached);
+        sb.append(",\"wallTimeNanos\":").append(getTotalWallTimeNanos());
+        sb.append(",\"allocatedBytes\":").append(getTotalAllocatedBytes());
+        sb.append(",\"stages\":{");
+        for (final Stage stage : Stage.values()) {
+            if (stage.ordinal() > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(stage.label()).append("\":{\"wallTimeNanos\":").append(getWallTimeNanos(stage))
+                    .append(",\"allocatedBytes\":").append(getAllocatedBytes(stage)).append('}');
+        }
+        return sb.append("}}").toString();
+    }
+
+    private static double millis(final long nanos) {
+        return nanos / 1_000_000d;
+    }
+
+    private static String jsonString(final String value) {
+        if (value == null) {
+            return "null";
+        }
+        final StringBuilder sb = new StringBuilder("\"");
+        for (final char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+            if (threadMXBean.isThreadAllocatedMemoryEnabled()) {
+                return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the time and allocations since its creation to its stage when closed, and fires the matching Flight
+     * Recorder event.
+     */
+    public final class Timer implements AutoCloseable {
+
+        private final Stage stage;
+        private final OverlayEvent event;
+        private final long startNanos;
+        private final long startAllocatedBytes;
+
+        private Timer(final Stage stage) {
+            this.stage = stage;
+            this.event = stage.newEvent();
+            this.startAllocatedBytes = currentThreadAllocatedBytes();
+            event.begin();
+            this.startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            wallTimeNanos[stage.ordinal()] += System.nanoTime() - startNanos;
+            event.end();
+            if (event.shouldCommit()) {
+                event.setOverlay(outputImagePath, baseImagePath, width, height, format, fontName);
+                event.commit();
+            }
+            final long endAllocatedBytes = currentThreadAllocatedBytes();
+            if (startAllocatedBytes < 0 || endAllocatedBytes < 0) {
+                allocatedBytes[stage.ordinal()] = -1;
+            } else if (allocatedBytes[stage.ordinal()] >= 0) {
+                allocatedBytes[stage.ordinal()] += endAllocatedBytes - startAllocatedBytes;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
+
+/**
+ * Renders images in three overlapping stages: decoding (I/O and CPU), composition (CPU) and encoding (CPU and
+ * I/O), so that the base image of the next image is decoded and the previous image is written while the current
+ * one is composed.
+ * Composition runs on a fixed pool of {@code composeThreads} threads. Decoding and encoding run on virtual threads
+ * when the JVM supports them (Java 21+), on a pool of {@code maxImagesInFlight} threads otherwise.
+ * At most {@code maxImagesInFlight} images are between the start of their decoding and the end of their encoding:
+ * {@link #submit(SetImageVersion)} blocks beyond that, which bounds the memory held by decoded images.
+ */
+public final class RenderPipeline implements AutoCloseable {
+
+    private final ExecutorService ioExecutor;
+    private final ExecutorService composeExecutor;
+    private final Semaphore imagesInFlight;
+
+    /**
+     * Creates a pipeline keeping up to three images per compose thread in flight: one being decoded, one composed
+     * and one encoded.
+     */
+    public RenderPipeline(final int composeThreads) {
+        this(composeThreads, 3 * composeThreads);
+    }
+
+    public RenderPipeline(final int composeThreads, final int maxImagesInFlight) {
+        if (composeThreads < 1 || maxImagesInFlight < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid pipeline size: %s compose threads and %s images in flight.", composeThreads,
+                    maxImagesInFlight));
+        }
+        this.composeExecutor = Executors.newFixedThreadPool(composeThreads);
+        this.ioExecutor = newIoExecutor(maxImagesInFlight);
+        this.imagesInFlight = new Semaphore(maxImagesInFlight);
+    }
+
+    /**
+     * Queues the rendering of an image, waiting while the pipeline is full. The returned future completes with
+     * the metrics of the image once its outputs are written.
+     */
+    CompletableFuture<RenderMetrics> submit(final SetImageVersion setImageVersion) throws InterruptedException {
+        imagesInFlight.acquire();
+        final CompletableFuture<RenderMetrics> result;
+        try {
+            result = CompletableFuture.supplyAsync(() -> decode(setImageVersion), ioExecutor)
+                    .thenApplyAsync(img -> img != null ? setImageVersion.composeImage(img) : null, composeExecutor)
+                    .thenApplyAsync(img -> encode(setImageVersion, img), ioExecutor);
+        } catch (final RuntimeException e) {
+            imagesInFlight.release();
+            throw e;
+        }
+        return result.whenComplete((metrics, failure) -> imagesInFlight.release());
+    }
+
+    /**
+     * Returns the decoded image, or {@code null} when the outputs were written without decoding it.
+     */
+    private static BufferedImage decode(final SetImageVersion setImageVersion) {
+        try {
+            return setImageVersion.beginImage() ? null : setImageVersion.decodeImage();
+        } catch (final CreateImageException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static RenderMetrics encode(final SetImageVersion setImageVersion, final BufferedImage img) {
+        try {
+            if (img != null) {
+                setImageVersion.encodeImage(img);
+            }
+            return setImageVersion.getMetrics();
+        } catch (final CreateImageException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Stops the stage threads, the images in flight are abandoned.
+     */
+    @Override
+    public void close() {
+        composeExecutor.shutdownNow();
+        ioExecutor.shutdownNow();
+    }
+
+    /**
+     * Virtual threads are looked up reflectively since the plugin targets Java 11.
+     */
+    private static ExecutorService newIoExecutor(final int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of {@link OverlayRenderer#render(OverlaySpec)}: the files written and the metrics of the rendering.
+ */
+public final class RenderResult {
+
+    private final List<String> outputPaths;
+    private final RenderMetrics metrics;
+
+    RenderResult(final List<String> outputPaths, final RenderMetrics metrics) {
+        this.outputPaths = Collections.unmodifiableList(outputPaths);
+        this.metrics = metrics;
+    }
+
+    public List<String> getOutputPaths() {
+        return outputPaths;
+    }
+
+    /**
+     * Stage timings and sizes, or {@code null} when the renderer did not record any.
+     */
+    public RenderMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -21,22 +21,41 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontFormatException;
 import java.awt.Graphics2D;
-import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Transparency;
+import java.awt.font.FontRenderContext;
 import java.awt.font.TextAttribute;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
+import org.bonitasoft.studio.maven.plugin.RenderMetrics.Stage;
 import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
 
 /**
@@ -45,6 +64,7 @@ import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
 public class SetImageVersion {
 
     protected static final String DEFAULT_FONT_NAME = "HelveticaNeueLTStd-Cn";
+    protected static final int DEFAULT_TILE_HEIGHT = 256;
 
     private String baseImgPath;
     private String fontName;
@@ -62,45 +82,373 @@ public class SetImageVersion {
 
     private float size;
     private String color = "#ffffff"; //white
+    private Font font;
+    private boolean renderInPlace = true;
+    private boolean bmpRegionRendering = true;
+    private boolean tiledDecoding = false;
+    private int tileHeight = DEFAULT_TILE_HEIGHT;
+    private boolean maskCompositing = false;
+    private boolean preserveColorModel = false;
+    private boolean writeOnlyIfChanged = false;
+    private EncoderSettings encoderSettings = EncoderSettings.DEFAULT;
+    private float scale = 1f;
+    private List<OutputImage> additionalOutputs = Collections.emptyList();
+    private RenderMetrics metrics;
+    private BaseImageCache baseImageCache;
+    private OutputCache outputCache;
+    private Font renderFont;
+    private String contentKey;
 
     public void createImage() throws CreateImageException {
+        if (!beginImage()) {
+            encodeImage(composeImage(decodeImage()));
+        }
+    }
+
+    /**
+     * First step of {@link #createImage()}: validates the parameters and loads the font, then writes the outputs
+     * directly when they are in the output cache or can be rendered in a single streaming pass. Returns whether
+     * the outputs are written; otherwise the image goes through {@link #decodeImage()},
+     * {@link #composeImage(BufferedImage)} and {@link #encodeImage(BufferedImage)}.
+     */
+    boolean beginImage() throws CreateImageException {
         configure();
         checkArgumentsNotNull(baseImgPath, "baseImgPath");
         checkArgumentsNotNull(fontName, "fontName");
         checkArgumentsNotNull(versionLabel, "versionLabel");
         checkArgumentsNotNull(outputImagePath, "outputImagePath");
         checkArgumentsNotNull(outputImageFormat, "outputImageFormat");
+        for (final OutputImage output : additionalOutputs) {
+            checkArgumentsNotNull(output.getPath(), "additional output path");
+            checkArgumentsNotNull(output.getFormat(), "additional output format");
+        }
 
-        Font font;
+        metrics = new RenderMetrics();
+        metrics.setImage(outputImagePath, baseImgPath, outputImageFormat, fontName);
         try {
-            font = createCustomFont();
-        } catch (FontFormatException | IOException e) {
-            throw new CreateImageException("Failed to load font.", e);
+            if (outputCache != null) {
+                contentKey = contentKey(outputCache.getPluginVersion());
+                if (outputCache.restore(contentKey, getOutputPaths(), writeOnlyIfChanged)) {
+                    metrics.setCached(true);
+                    recordBytesWritten();
+                    return true;
+                }
+                // Outputs restored earlier may be hard links to cache entries, which must not be written through.
+                // Outputs written only if changed are renamed over, never written through, and must be kept to be
+                // compared with
+                if (!writeOnlyIfChanged) {
+                    for (final String outputPath : getOutputPaths()) {
+                        Files.deleteIfExists(Paths.get(outputPath));
+                    }
+                }
+            }
+            if (metrics.isRecording(Stage.FONT)) {
+                readBaseImageDimensions();
+            }
+            try (RenderMetrics.Timer timer = metrics.start(Stage.FONT)) {
+                renderFont = this.font != null ? this.font : loadFont();
+            }
+
+            final boolean streamable = !isScaled() && additionalOutputs.isEmpty() && !isArchiveEntry();
+            if (bmpRegionRendering && isBmpOutput() && streamable) {
+                final BmpRegionWriter bmpWriter = BmpRegionWriter.open(getBaseImageFile());
+                if (bmpWriter != null) {
+                    metrics.setDimensions(bmpWriter.getWidth(), bmpWriter.getHeight());
+                    try (RenderMetrics.Timer timer = metrics.start(Stage.ENCODE)) {
+                        writeBmpRegion(bmpWriter, renderFont);
+                    }
+                    metrics.addBytesRead(getBaseImageFile().length());
+                    completeImage();
+                    return true;
+                }
+            }
+
+            if (tiledDecoding && supportsRowStreaming() && streamable) {
+                try (RenderMetrics.Timer timer = metrics.start(Stage.ENCODE)) {
+                    writeTiled(renderFont);
+                }
+                metrics.addBytesRead(getBaseImageFile().length());
+                completeImage();
+                return true;
+            }
+            return false;
+        } catch (final IOException | UncheckedIOException e) {
+            throw new CreateImageException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decodes the base image, after {@link #beginImage()} returned {@code false}.
+     */
+    BufferedImage decodeImage() throws CreateImageException {
+        try (RenderMetrics.Timer timer = metrics.start(Stage.DECODE)) {
+            final BufferedImage image = loadBaseImage();
+            metrics.setDimensions(scaled(image.getWidth()), scaled(image.getHeight()));
+            return image;
+        } catch (final IOException | UncheckedIOException e) {
+            throw new CreateImageException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Draws the text on the image returned by {@link #decodeImage()}.
+     */
+    BufferedImage composeImage(final BufferedImage loadImg) {
+        try (RenderMetrics.Timer timer = metrics.start(Stage.COMPOSE)) {
+            final BufferedImage paletteImg = canKeepPalette(loadImg)
+                    ? PaletteCanvas.draw(loadImg, getTextBounds(renderFont),
+                            (tile, x, y) -> drawProductVersion(tile, renderFont, x, y))
+                    : null;
+            if (paletteImg != null) {
+                metrics.setDimensions(paletteImg.getWidth(), paletteImg.getHeight());
+                return paletteImg;
+            }
+            final BufferedImage img = prepareCanvas(loadImg);
+            metrics.setDimensions(img.getWidth(), img.getHeight());
+            drawProductVersion(img, renderFont);
+            return img;
+        }
+    }
+
+    /**
+     * Whether the text can be drawn on {@code loadImg} without leaving its palette: every output format must be
+     * able to store a palette image. The image still falls back to true color when the text colors overflow the
+     * palette.
+     */
+    private boolean canKeepPalette(final BufferedImage loadImg) {
+        if (!preserveColorModel || isScaled() || !PaletteCanvas.isPaletteImage(loadImg)
+                || !isPaletteFormat(getOutputImageFormat())) {
+            return false;
+        }
+        for (final OutputImage output : additionalOutputs) {
+            if (!isPaletteFormat(output.getFormat())) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        BufferedImage loadImg = null;
+    /**
+     * Writes the image returned by {@link #composeImage(BufferedImage)} to every output.
+     */
+    void encodeImage(final BufferedImage img) throws CreateImageException {
         try {
-            loadImg = loadBaseImage();
-        } catch (final IOException e) {
+            try (RenderMetrics.Timer timer = metrics.start(Stage.ENCODE)) {
+                writeOutputImages(img);
+            }
+            completeImage();
+        } catch (final IOException | UncheckedIOException e) {
             throw new CreateImageException(e.getMessage(), e);
         }
+    }
+
+    private void completeImage() throws IOException {
+        recordBytesWritten();
+        if (contentKey != null) {
+            outputCache.store(contentKey, getOutputPaths());
+        }
+    }
+
+    private List<String> getOutputPaths() {
+        final List<String> outputPaths = new ArrayList<>();
+        outputPaths.add(outputImagePath);
+        for (final OutputImage output : additionalOutputs) {
+            outputPaths.add(output.getPath());
+        }
+        return outputPaths;
+    }
+
+    private void recordBytesWritten() {
+        metrics.addBytesWritten(new File(getOutputImagePath()).length());
+        for (final OutputImage output : additionalOutputs) {
+            metrics.addBytesWritten(new File(output.getPath()).length());
+        }
+    }
+
+    /**
+     * Metrics of the last {@link #createImage()} call, {@code null} before the first call.
+     */
+    public RenderMetrics getMetrics() {
+        return metrics;
+    }
 
-        BufferedImage img = new BufferedImage(
-                loadImg.getWidth(), loadImg.getHeight(), getType());
-        drawProductVersion(loadImg, img, font);
+    /**
+     * Loads the font described by {@code fontName} and {@code fontResourcePath}.
+     * The result can be shared with other instances using the same font through {@link #setFont(Font)}.
+     */
+    public Font loadFont() throws CreateImageException {
+        configure();
         try {
-            writeOutputImage(img);
+            return createCustomFont();
+        } catch (FontFormatException | IOException e) {
+            throw new CreateImageException("Failed to load font.", e);
+        }
+    }
+
+    /**
+     * Computes a fingerprint of every input of {@link #createImage()}: base image and font contents, all
+     * parameters and the given plugin version.
+     */
+    public String fingerprint(final String pluginVersion) throws CreateImageException {
+        return renderingInputs(pluginVersion)
+                .add("fontResourcePath", fontResourcePath)
+                .add("outputImagePath", outputImagePath)
+                .add("additionalOutputs", additionalOutputs)
+                .toHex();
+    }
+
+    /**
+     * Computes a fingerprint of the content of the images written by {@link #createImage()}: like
+     * {@link #fingerprint(String)}, but independent of where the base image, the font and the outputs are.
+     */
+    String contentKey(final String pluginVersion) throws CreateImageException {
+        final Fingerprint fingerprint = renderingInputs(pluginVersion);
+        for (final OutputImage output : additionalOutputs) {
+            fingerprint.add("additionalOutputFormat", output.getFormat());
+        }
+        return fingerprint.toHex();
+    }
+
+    private Fingerprint renderingInputs(final String pluginVersion) throws CreateImageException {
+        configure();
+        checkArgumentsNotNull(baseImgPath, "baseImgPath");
+        try {
+            return new Fingerprint()
+                    .add("pluginVersion", pluginVersion)
+                    .addBytes("baseImage", baseImageContent())
+                    .addBytes("font", FontCache.readFontBytes(getFontResourcePath()))
+                    .add("fontName", fontName)
+                    .add("versionLabel", versionLabel)
+                    .add("buildId", buildId)
+                    .add("buildIdX", buildIdX)
+                    .add("buildIdY", buildIdY)
+                    .add("outputImageFormat", outputImageFormat)
+                    .add("xLocation", xLocation)
+                    .add("yLocation", yLocation)
+                    .add("bold", isBold)
+                    .add("italic", isItalic)
+                    .add("size", size)
+                    .add("color", color)
+                    .add("scale", scale)
+                    .add("encoder", encoderSettings)
+                    .add("maskCompositing", maskCompositing)
+                    .add("preserveColorModel", preserveColorModel);
         } catch (final IOException e) {
             throw new CreateImageException(e.getMessage(), e);
         }
     }
 
-    private void drawProductVersion(BufferedImage loadImg, BufferedImage img, Font bontitaBrandingFont) {
-        Graphics2D graphics = img.createGraphics();
+    /**
+     * Returns the image to draw the text on: the decoded image itself when its pixel type can be written as is
+     * in the output format, or else a copy converted to {@link #getType()}. Scaled variants are resampled from the
+     * decoded image.
+     */
+    BufferedImage prepareCanvas(final BufferedImage loadImg) {
+        if (isScaled()) {
+            return resample(loadImg);
+        }
+        if (renderInPlace && canRenderInPlace(loadImg)) {
+            // Images from the cache are shared and must be copied before being drawn on
+            return baseImageCache != null && baseImageCache.contains(loadImg) ? copy(loadImg) : loadImg;
+        }
+        final BufferedImage img = new BufferedImage(loadImg.getWidth(), loadImg.getHeight(), getType());
+        final Graphics2D graphics = img.createGraphics();
         graphics.drawImage(loadImg, 0, 0, loadImg.getWidth(), loadImg.getHeight(), null);
+        graphics.dispose();
+        return img;
+    }
+
+    private BufferedImage resample(final BufferedImage loadImg) {
+        final BufferedImage img = new BufferedImage(scaled(loadImg.getWidth()), scaled(loadImg.getHeight()),
+                getType());
+        final Graphics2D graphics = img.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.drawImage(loadImg, 0, 0, img.getWidth(), img.getHeight(), null);
+        graphics.dispose();
+        return img;
+    }
+
+    private static BufferedImage copy(final BufferedImage image) {
+        final WritableRaster raster = image.getRaster().createCompatibleWritableRaster();
+        image.copyData(raster);
+        return new BufferedImage(image.getColorModel(), raster, image.isAlphaPremultiplied(), null);
+    }
+
+    private boolean canRenderInPlace(final BufferedImage loadImg) {
+        switch (loadImg.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return true;
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return getType() == BufferedImage.TYPE_INT_ARGB;
+            default:
+                // Indexed, gray and custom color models would degrade the anti-aliased text
+                return false;
+        }
+    }
+
+    private void writeBmpRegion(final BmpRegionWriter bmpWriter, final Font bontitaBrandingFont) throws IOException {
+        writeOutput(getOutputImagePath(), file -> bmpWriter.write(file, getTextBounds(bontitaBrandingFont),
+                (tile, x, y) -> drawProductVersion(tile, bontitaBrandingFont, x, y)));
+    }
+
+    private void writeTiled(final Font bontitaBrandingFont) throws IOException {
+        try (TiledOverlayImage image = new TiledOverlayImage(getBaseImageFile(), tileHeight, getType(),
+                getTextBounds(bontitaBrandingFont),
+                (tile, x, y) -> drawProductVersion(tile, bontitaBrandingFont, x, y))) {
+            metrics.setDimensions(image.getWidth(), image.getHeight());
+            writeOutputImage(image);
+        }
+    }
+
+    /**
+     * PNG and BMP writers pull the image row by row, other writers request the whole raster at once.
+     */
+    private boolean supportsRowStreaming() {
+        final String format = getOutputImageFormat().toLowerCase();
+        return "png".equals(format) || "bmp".equals(format);
+    }
 
+    void drawProductVersion(BufferedImage img, Font bontitaBrandingFont) {
+        drawProductVersion(img, bontitaBrandingFont, 0, 0);
+    }
+
+    /**
+     * Draws the text on {@code img}, whose top left pixel is at ({@code x}, {@code y}) in the output image.
+     */
+    private void drawProductVersion(BufferedImage img, Font bontitaBrandingFont, int x, int y) {
+        if (maskCompositing && LabelMask.canBlend(img)) {
+            final Color textColor = Color.decode(color);
+            LabelMask.get(versionFont(bontitaBrandingFont), versionText())
+                    .blend(img, scaled(getxLocation()) - x, scaled(getyLocation()) - y, textColor);
+            if (hasBuildId()) {
+                LabelMask.get(qualifierFont(bontitaBrandingFont), qualifierText())
+                        .blend(img, scaled(buildIdX) - x, scaled(buildIdY) - y, textColor);
+            }
+            return;
+        }
+        final Graphics2D graphics = img.createGraphics();
+        graphics.translate(-x, -y);
+        drawProductVersion(graphics, bontitaBrandingFont);
+        graphics.dispose();
+    }
+
+    private void drawProductVersion(Graphics2D graphics, Font bontitaBrandingFont) {
         graphics.setColor(Color.decode(color));
-        graphics.setFont(configureVersionFontStyle(bontitaBrandingFont));
+        graphics.setFont(versionFont(bontitaBrandingFont));
+        configureTextRendering(graphics);
+
+        graphics.drawString(versionText(), scaled(getxLocation()), scaled(getyLocation()));
+        if (hasBuildId()) {
+            graphics.setFont(qualifierFont(bontitaBrandingFont));
+            graphics.drawString(qualifierText(), scaled(buildIdX), scaled(buildIdY));
+        }
+    }
+
+    static void configureTextRendering(Graphics2D graphics) {
         graphics.setRenderingHint(
                 RenderingHints.KEY_TEXT_ANTIALIASING,
                 RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
@@ -110,36 +458,284 @@ public class SetImageVersion {
                 RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
         graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
                 RenderingHints.VALUE_RENDER_QUALITY);
-        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    }
 
-        graphics.drawString(stripSNAPSHOT(getVersionLabel()), getxLocation(), getyLocation());
-        if (buildId != null && !buildId.isEmpty()) {
-            graphics.setFont(configureQualifierFontStyle(bontitaBrandingFont));
-            graphics.drawString(String.format("Build: %s", trimDot(buildId)), buildIdX, buildIdY);
+    /**
+     * Returns the pixel bounds of the text drawn by {@link #drawProductVersion(Graphics2D, Font)}, with a safety
+     * margin for anti-aliasing.
+     */
+    Rectangle getTextBounds(final Font bontitaBrandingFont) {
+        // Same context as the Graphics2D used to draw: identity transform, anti-aliased, integer metrics
+        final FontRenderContext frc = new FontRenderContext(null, true, false);
+        final Rectangle bounds = versionFont(bontitaBrandingFont).createGlyphVector(frc, versionText())
+                .getPixelBounds(frc, scaled(getxLocation()), scaled(getyLocation()));
+        if (hasBuildId()) {
+            bounds.add(qualifierFont(bontitaBrandingFont).createGlyphVector(frc, qualifierText())
+                    .getPixelBounds(frc, scaled(buildIdX), scaled(buildIdY)));
         }
-        graphics.dispose();
+        bounds.grow(2, 2);
+        return bounds;
+    }
+
+    private Font versionFont(final Font bontitaBrandingFont) {
+        return FontCache.derive(bontitaBrandingFont, versionFontVariant(), this::configureVersionFontStyle);
+    }
+
+    private Font qualifierFont(final Font bontitaBrandingFont) {
+        return FontCache.derive(bontitaBrandingFont, qualifierFontVariant(), this::configureQualifierFontStyle);
+    }
+
+    private String versionText() {
+        return stripSNAPSHOT(getVersionLabel());
+    }
+
+    private String qualifierText() {
+        return String.format("Build: %s", trimDot(buildId));
+    }
+
+    private boolean hasBuildId() {
+        return buildId != null && !buildId.isEmpty();
+    }
+
+    /**
+     * Whether the base image is read from an archive, such as a Maven artifact, rather than from a file.
+     */
+    private boolean isArchiveEntry() {
+        return ArchiveEntry.parse(baseImgPath) != null;
+    }
+
+    private byte[] baseImageContent() throws IOException {
+        final ArchiveEntry entry = ArchiveEntry.parse(baseImgPath);
+        return entry != null ? entry.readAllBytes() : Files.readAllBytes(getBaseImageFile().toPath());
+    }
+
+    private boolean isBmpOutput() {
+        return Objects.equals(getOutputImageFormat().toLowerCase(), "bmp");
+    }
+
+    private String versionFontVariant() {
+        return String.format("%s:version:%s:%s:%s:%s", getClass().getName(), getSize(), isBold, isItalic, scale);
+    }
+
+    private String qualifierFontVariant() {
+        return String.format("%s:qualifier:%s", getClass().getName(), scale);
+    }
+
+    private boolean isScaled() {
+        return scale != 1f;
+    }
+
+    /**
+     * Scales a coordinate or dimension of the base image to the output image.
+     */
+    private int scaled(final int value) {
+        return Math.round(value * scale);
     }
 
     String trimDot(String label) {
         return label.lastIndexOf(".") == label.length() - 1 ? label.substring(0, label.length() - 1) : label;
     }
 
+    /**
+     * Pixel type of the rendered image: with alpha as soon as one of the outputs can store it.
+     */
     private int getType() {
-        return Objects.equals(getOutputImageFormat().toLowerCase(), "bmp") ? BufferedImage.TYPE_INT_RGB
-                : BufferedImage.TYPE_INT_ARGB;
+        if (!isOpaqueFormat(getOutputImageFormat())) {
+            return BufferedImage.TYPE_INT_ARGB;
+        }
+        for (final OutputImage output : additionalOutputs) {
+            if (!isOpaqueFormat(output.getFormat())) {
+                return BufferedImage.TYPE_INT_ARGB;
+            }
+        }
+        return BufferedImage.TYPE_INT_RGB;
+    }
+
+    private static boolean isOpaqueFormat(final String format) {
+        switch (format.toLowerCase()) {
+            case "bmp":
+            case "jpg":
+            case "jpeg":
+                return true;
+            default:
+                return false;
+        }
     }
 
-    protected void writeOutputImage(final BufferedImage loadImg) throws IOException {
-        if (!ImageIO.write(loadImg, getOutputImageFormat(), new File(getOutputImagePath()))) {
-            throw new IOException(String.format("Failed to create image %s with %s fromat.", getOutputImagePath(),
-                    getOutputImageFormat()));
+    private static boolean isPaletteFormat(final String format) {
+        switch (format.toLowerCase()) {
+            case "png":
+            case "bmp":
+            case "gif":
+                return true;
+            default:
+                return false;
         }
     }
 
-    private BufferedImage loadBaseImage() throws IOException {
+    protected void writeOutputImage(final RenderedImage loadImg) throws IOException {
+        writeOutputImage(loadImg, getOutputImageFormat(), getOutputImagePath());
+    }
+
+    private void writeOutputImage(final RenderedImage loadImg, final String format, final String path)
+            throws IOException {
+        writeOutput(path, file -> encode(loadImg, format, file));
+    }
+
+    /**
+     * Writes the output at {@code path} directly, or through {@link OutputFile} when it is only written if changed.
+     */
+    private void writeOutput(final String path, final OutputFile.Writer writer) throws IOException {
+        if (writeOnlyIfChanged) {
+            OutputFile.write(Paths.get(path), writer);
+        } else {
+            writer.write(new File(path));
+        }
+    }
+
+    private void encode(final RenderedImage loadImg, final String format, final File file) throws IOException {
+        if (encoderSettings.getPngOptimization() > 0 && "png".equalsIgnoreCase(format)
+                && loadImg instanceof BufferedImage) {
+            final byte[] png = new PngOptimizer(encoderSettings.getPngOptimization(),
+                    ParallelPngEncoder.sharedPool()).optimize((BufferedImage) loadImg);
+            final Path output = file.toPath();
+            Files.deleteIfExists(output);
+            Files.write(output, png);
+            return;
+        }
+        if (encoderSettings.isParallelPng() && "png".equalsIgnoreCase(format) && loadImg instanceof BufferedImage
+                && ParallelPngEncoder.canEncode((BufferedImage) loadImg)) {
+            // Streamed images, e.g. tiled ones, must be read in order and go through the JDK writer
+            final Path output = file.toPath();
+            Files.deleteIfExists(output);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+                new ParallelPngEncoder((BufferedImage) loadImg, encoderSettings.getPngCompressionLevel())
+                        .write(out, ParallelPngEncoder.sharedPool());
+            }
+            return;
+        }
+        ImageWriterPool.shared().write(loadImg, format, file, encoderSettings);
+    }
+
+    /**
+     * Writes the rendered image to the output and additional outputs, concurrently when there are several.
+     * Formats without alpha get an opaque copy of the image.
+     */
+    private void writeOutputImages(final BufferedImage img) throws IOException {
+        if (additionalOutputs.isEmpty() || OutputExecutor.isOutputThread()) {
+            // A scaled variant already rendered by the output executor writes its outputs itself
+            writeOutputImage(toFormat(img, getOutputImageFormat()));
+            for (final OutputImage output : additionalOutputs) {
+                writeOutputImage(toFormat(img, output.getFormat()), output.getFormat(), output.getPath());
+            }
+            return;
+        }
+        // The additional outputs are encoded by the output executor while the calling thread encodes the output
+        final List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (final OutputImage output : additionalOutputs) {
+            results.add(CompletableFuture.runAsync(() -> {
+                try {
+                    writeOutputImage(toFormat(img, output.getFormat()), output.getFormat(), output.getPath());
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, OutputExecutor.shared()));
+        }
+        IOException failure = null;
+        try {
+            writeOutputImage(toFormat(img, getOutputImageFormat()));
+        } catch (final IOException e) {
+            failure = e;
+        }
+        // Waits for all the outputs, so that none is still being written once this method returns
+        for (final CompletableFuture<Void> result : results) {
+            try {
+                result.join();
+            } catch (final CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof UncheckedIOException
+                            ? ((UncheckedIOException) e.getCause()).getCause()
+                            : new IOException(e.getCause().getMessage(), e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static BufferedImage toFormat(final BufferedImage img, final String format) {
+        if (!isOpaqueFormat(format) || !img.getColorModel().hasAlpha()) {
+            return img;
+        }
+        final BufferedImage opaque = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = opaque.createGraphics();
+        graphics.drawImage(img, 0, 0, null);
+        graphics.dispose();
+        return opaque;
+    }
+
+    /**
+     * Sets the dimensions of the metrics from the header of the base image, before it is decoded, for the events
+     * of the first stages. Unreadable images are left to the decoding to report.
+     */
+    private void readBaseImageDimensions() {
+        final ArchiveEntry entry = ArchiveEntry.parse(baseImgPath);
+        try (InputStream in = entry != null ? entry.open() : Files.newInputStream(getBaseImageFile().toPath());
+                ImageInputStream input = ImageIO.createImageInputStream(in)) {
+            final Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input)
+                    : Collections.emptyIterator();
+            if (readers.hasNext()) {
+                final ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true, true);
+                    metrics.setDimensions(scaled(reader.getWidth(0)), scaled(reader.getHeight(0)));
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            // Reported by decodeImage()
+        }
+    }
+
+    BufferedImage loadBaseImage() throws IOException {
+        final ArchiveEntry entry = ArchiveEntry.parse(baseImgPath);
+        if (entry != null) {
+            return baseImageCache != null ? baseImageCache.get(entry, this::decodeBaseImage) : decodeBaseImage(entry);
+        }
         final File inputFile = getBaseImageFile();
-        return ImageIO.read(inputFile);
+        if (baseImageCache != null) {
+            return baseImageCache.get(inputFile, this::decodeBaseImage);
+        }
+        return decodeBaseImage(inputFile);
+    }
+
+    private BufferedImage decodeBaseImage(final File inputFile) throws IOException {
+        if (metrics != null) {
+            metrics.addBytesRead(inputFile.length());
+        }
+        final BufferedImage image = ImageIO.read(inputFile);
+        if (image == null) {
+            throw new IOException("No image reader found for " + inputFile.getAbsolutePath());
+        }
+        return image;
+    }
+
+    /**
+     * Decodes a base image stored in an archive from memory, without extracting it or caching it on disk.
+     */
+    private BufferedImage decodeBaseImage(final ArchiveEntry entry) throws IOException {
+        final byte[] content = entry.readAllBytes();
+        if (metrics != null) {
+            metrics.addBytesRead(content.length);
+        }
+        final BufferedImage image = ImageIO
+                .read(new MemoryCacheImageInputStream(new ByteArrayInputStream(content)));
+        if (image == null) {
+            throw new IOException("No image reader found for " + entry);
+        }
+        return image;
     }
 
     private void checkArgumentsNotNull(final Object arg, final String argName) {
@@ -157,10 +753,6 @@ public class SetImageVersion {
         }
     }
 
-    private InputStream getDefaultFontInputStream() {
-        return SetImageVersion.class.getResourceAsStream("/HelveticaNeueLTStd-Cn.otf");
-    }
-
     private File getBaseImageFile() throws FileNotFoundException {
         final File inputFile = new File(getBaseImgPath());
         if (!inputFile.exists()) {
@@ -189,7 +781,7 @@ public class SetImageVersion {
         } else {
             attributes.put(TextAttribute.WEIGHT, TextAttribute.WEIGHT_LIGHT);
         }
-        return bontitaBrandingFont.deriveFont(Font.TRUETYPE_FONT, getSize()).deriveFont(attributes);
+        return bontitaBrandingFont.deriveFont(Font.TRUETYPE_FONT, getSize() * scale).deriveFont(attributes);
     }
 
     protected Font configureQualifierFontStyle(final Font bontitaBrandingFont) {
@@ -198,30 +790,11 @@ public class SetImageVersion {
         attributes.put(TextAttribute.BACKGROUND, Transparency.TRANSLUCENT);
         attributes.put(TextAttribute.POSTURE, TextAttribute.POSTURE_REGULAR);
         attributes.put(TextAttribute.WEIGHT, TextAttribute.WEIGHT_MEDIUM);
-        return bontitaBrandingFont.deriveFont(Font.TRUETYPE_FONT, 15).deriveFont(attributes);
-    }
-
-    private Font createCustomFont() throws FontFormatException, IOException {
-        final GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
-        Font customFont = getFont(ge);
-        if (customFont == null) {
-            try (InputStream fontInputStream = getFontResourcePath() != null
-                    ? new FileInputStream(new File(getFontResourcePath()))
-                    : getDefaultFontInputStream()) {
-                customFont = Font.createFont(Font.TRUETYPE_FONT, fontInputStream);
-                ge.registerFont(customFont);
-            }
-        }
-        return customFont;
+        return bontitaBrandingFont.deriveFont(Font.TRUETYPE_FONT, 15 * scale).deriveFont(attributes);
     }
 
-    private Font getFont(final GraphicsEnvironment ge) {
-        for (final Font f : ge.getAllFonts()) {
-            if (getFontName().equals(f.getName())) {
-                return f;
-            }
-        }
-        return null;
+    Font createCustomFont() throws FontFormatException, IOException {
+        return FontCache.getFont(getFontName(), getFontResourcePath());
     }
 
     String stripSNAPSHOT(String version) {
@@ -322,4 +895,110 @@ public class SetImageVersion {
     public void setBuildId(String buildId) {
         this.buildId = buildId;
     }
+
+    /**
+     * Whether the text may be drawn directly on the decoded base image, default is {@code true}.
+     */
+    void setRenderInPlace(boolean renderInPlace) {
+        this.renderInPlace = renderInPlace;
+    }
+
+    /**
+     * Whether BMP outputs may be written by patching only the text region of a copy of the base image, default is
+     * {@code true}.
+     */
+    void setBmpRegionRendering(boolean bmpRegionRendering) {
+        this.bmpRegionRendering = bmpRegionRendering;
+    }
+
+    /**
+     * Decode the base image by tiles of {@code tileHeight} rows and re-render only the tiles under the text, so
+     * that memory is proportional to the tile size instead of the image size. Only used for PNG and BMP outputs.
+     */
+    public void setTiledDecoding(boolean tiledDecoding) {
+        this.tiledDecoding = tiledDecoding;
+    }
+
+    public void setTileHeight(int tileHeight) {
+        this.tileHeight = tileHeight;
+    }
+
+    /**
+     * Renders the output at {@code scale} times the size of the base image: the base image is resampled, while the
+     * text is rasterized at the scaled font size and coordinates.
+     */
+    public void setScale(float scale) {
+        this.scale = scale;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * Files written in addition to the output image, from the same rendered image.
+     */
+    public void setAdditionalOutputs(List<OutputImage> additionalOutputs) {
+        this.additionalOutputs = additionalOutputs != null ? additionalOutputs : Collections.emptyList();
+    }
+
+    public List<OutputImage> getAdditionalOutputs() {
+        return additionalOutputs;
+    }
+
+    /**
+     * Blend cached coverage masks of the text into the pixels instead of drawing it with a {@link Graphics2D}.
+     */
+    public void setMaskCompositing(boolean maskCompositing) {
+        this.maskCompositing = maskCompositing;
+    }
+
+    /**
+     * Keep the palette of indexed base images, adding the colors of the text to it, instead of rendering them in
+     * true color. Only applies when every output is a PNG, BMP or GIF, and not to tiled decoding.
+     */
+    public void setPreserveColorModel(boolean preserveColorModel) {
+        this.preserveColorModel = preserveColorModel;
+    }
+
+    /**
+     * PNG and JPEG encoder parameters, the JDK writer defaults when not set.
+     */
+    public void setEncoderSettings(EncoderSettings encoderSettings) {
+        this.encoderSettings = encoderSettings != null ? encoderSettings : EncoderSettings.DEFAULT;
+    }
+
+    /**
+     * Encode the outputs to temporary files and replace the existing outputs, atomically, only when their content
+     * changed, instead of writing them in place. Unchanged outputs keep their modification time.
+     */
+    public void setWriteOnlyIfChanged(boolean writeOnlyIfChanged) {
+        this.writeOnlyIfChanged = writeOnlyIfChanged;
+    }
+
+    public EncoderSettings getEncoderSettings() {
+        return encoderSettings;
+    }
+
+    /**
+     * Share decoded base images through the given cache instead of decoding them on each call.
+     */
+    void setBaseImageCache(BaseImageCache baseImageCache) {
+        this.baseImageCache = baseImageCache;
+    }
+
+    /**
+     * Copy the outputs from the given cache when an identical image was already rendered, and store the images
+     * rendered otherwise.
+     */
+    void setOutputCache(OutputCache outputCache) {
+        this.outputCache = outputCache;
+    }
+
+    /**
+     * Use an already loaded font instead of loading it again in {@link #createImage()}.
+     */
+    public void setFont(Font font) {
+        this.font = font;
+    }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.PluginParameterExpressionEvaluator;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
+import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluator;
+
+/**
+ * Renders the overlays of every project of the reactor in a single pass.
+ * The overlays configured in the {@code create-image} and {@code create-images} executions of each module are
+ * collected and rendered on one bounded pool, so that Java2D, the fonts and the decoded base images are initialized
+ * once for the whole build. Each execution keeps its own settings: the parameters it sets, expressions evaluated
+ * against its module, replace those of this goal, except for {@code threads}, {@code pipelined} and
+ * {@code baseImageCachePixels} which apply to the whole reactor. Each image is written where its module configures
+ * it, relative paths being resolved against the module base directory, and its incremental state and metrics are
+ * kept in the module build directory.
+ * Meant to be run from the command line, with the module executions bound to the {@code none} phase.
+ */
+@Mojo(name = "create-reactor-images", aggregator = true, threadSafe = true)
+public class SetImageVersionAggregateMojo extends AbstractSetImageVersionMojo {
+
+    @Parameter(defaultValue = "${reactorProjects}", readonly = true, required = true)
+    private List<MavenProject> reactorProjects;
+
+    /**
+     * Number of images rendered concurrently, defaults to the number of available processors.
+     */
+    @Parameter(required = false, defaultValue = "0")
+    private int threads;
+
+    /**
+     * Overlap the decoding, composition and encoding of successive images: {@code threads} threads compose the
+     * images while the next ones are decoded and the previous ones written, with at most three images per thread
+     * in memory.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean pipelined;
+
+    /**
+     * Maximum number of decoded base image pixels kept in memory, so that modules overlaying the same base image
+     * decode it once. The cache is shared by the JVM and keeps the largest budget requested. 0 disables it.
+     */
+    @Parameter(required = false, defaultValue = "16777216")
+    private long baseImageCachePixels;
+
+    @Parameter(defaultValue = "${plugin.groupId}:${plugin.artifactId}", readonly = true)
+    private String pluginKey;
+
+    @Parameter(defaultValue = "${session}", readonly = true, required = true)
+    private MavenSession session;
+
+    @Parameter(defaultValue = "${mojoExecution}", readonly = true, required = true)
+    private MojoExecution mojoExecution;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (isSkip()) {
+            getLog().info("Skipping the creation of the images.");
+            return;
+        }
+        final ArtifactEntries artifactEntries = artifactEntries();
+        final List<ReactorOverlays.Execution> executions = new ArrayList<>();
+        for (final MavenProject project : reactorProjects) {
+            for (final ReactorOverlays.Execution execution : ReactorOverlays.collect(project, pluginKey,
+                    artifactEntries, evaluator(project))) {
+                if (execution.getConfiguration().booleanValue("skip", false)) {
+                    getLog().info(String.format("Skipping execution %s of %s.", execution.getId(),
+                            project.getArtifactId()));
+                } else {
+                    warnReactorParameters(execution);
+                    executions.add(execution);
+                }
+            }
+        }
+        if (executions.isEmpty()) {
+            getLog().info("No overlay to create in the reactor.");
+            return;
+        }
+        final BaseImageCache baseImageCache = baseImageCache(baseImageCachePixels);
+        final List<ModuleOverlay> overlays = new ArrayList<>();
+        for (final ReactorOverlays.Execution execution : executions) {
+            final OverlayExecution overlayExecution = overlayExecution(
+                    new File(execution.getProject().getBuild().getDirectory()), execution.getConfiguration());
+            final OverlayRenderer renderer = createRenderer(baseImageCache, execution);
+            for (final OverlaySpec spec : execution.getSpecs()) {
+                overlays.add(new ModuleOverlay(execution.getProject(), overlayExecution, renderer, spec));
+            }
+        }
+        getLog().info(String.format("Creating %s images of %s projects.", overlays.size(), reactorProjects.size()));
+        try {
+            reportFailures(images(overlays), pipelined ? submitImages(overlays) : createImages(overlays));
+        } finally {
+            logCacheStatistics(baseImageCache);
+        }
+    }
+
+    /**
+     * Evaluates the configurations of {@code project} as if Maven were running its executions.
+     */
+    private ExpressionEvaluator evaluator(final MavenProject project) {
+        final MavenSession projectSession = session.clone();
+        projectSession.setCurrentProject(project);
+        return new PluginParameterExpressionEvaluator(projectSession, mojoExecution);
+    }
+
+    /**
+     * Warns when an execution sets one of the parameters applying to the whole reactor to another value.
+     */
+    private void warnReactorParameters(final ReactorOverlays.Execution execution) {
+        final Map<String, Object> reactorParameters = new LinkedHashMap<>();
+        reactorParameters.put("threads", threads);
+        reactorParameters.put("pipelined", pipelined);
+        reactorParameters.put("baseImageCachePixels", baseImageCachePixels);
+        for (final Map.Entry<String, Object> parameter : reactorParameters.entrySet()) {
+            final String value = execution.getConfiguration().value(parameter.getKey(), null);
+            if (value != null && !value.equals(String.valueOf(parameter.getValue()))) {
+                getLog().warn(String.format("%s %s of execution %s of %s is ignored, %s applies to the whole reactor.",
+                        parameter.getKey(), value, execution.getId(), execution.getProject().getArtifactId(),
+                        parameter.getValue()));
+            }
+        }
+    }
+
+    private List<Future<?>> createImages(final List<ModuleOverlay> overlays) throws MojoExecutionException {
+        final ExecutorService executor = Executors.newFixedThreadPool(poolSize(overlays.size()));
+        try {
+            final List<Future<?>> results = new ArrayList<>();
+            for (final ModuleOverlay overlay : overlays) {
+                results.add(executor.submit(() -> {
+                    overlay.execution.createImage(overlay.renderer, overlay.spec);
+                    return null;
+                }));
+            }
+            awaitAll(results);
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Future<?>> submitImages(final List<ModuleOverlay> overlays) throws MojoExecutionException {
+        try (RenderPipeline pipeline = new RenderPipeline(poolSize(overlays.size()))) {
+            final List<Future<?>> results = new ArrayList<>();
+            for (final ModuleOverlay overlay : overlays) {
+                results.add(overlay.execution.submitImage(overlay.renderer, overlay.spec, pipeline));
+            }
+            awaitAll(results);
+            return results;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while creating images", e);
+        }
+    }
+
+    /**
+     * Creates the renderer of an execution and loads its fonts up front, so that a missing font fails the build
+     * before any image is written.
+     */
+    private OverlayRenderer createRenderer(final BaseImageCache baseImageCache,
+            final ReactorOverlays.Execution execution) throws MojoExecutionException, MojoFailureException {
+        try {
+            final OverlayRenderer renderer = rendererBuilder(baseImageCache, execution.getConfiguration()).build();
+            for (final OverlaySpec spec : execution.getSpecs()) {
+                renderer.getFont(spec);
+            }
+            return renderer;
+        } catch (final CreateImageException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    private static List<String> images(final List<ModuleOverlay> overlays) {
+        final List<String> images = new ArrayList<>();
+        for (final ModuleOverlay overlay : overlays) {
+            images.add(overlay.project.getArtifactId() + ": " + overlay.spec.getOutputImagePath());
+        }
+        return images;
+    }
+
+    private int poolSize(final int images) {
+        final int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(poolSize, images));
+    }
+
+    public void setReactorProjects(List<MavenProject> reactorProjects) {
+        this.reactorProjects = reactorProjects;
+    }
+
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setBaseImageCachePixels(long baseImageCachePixels) {
+        this.baseImageCachePixels = baseImageCachePixels;
+    }
+
+    void setPluginKey(String pluginKey) {
+        this.pluginKey = pluginKey;
+    }
+
+    void setSession(MavenSession session) {
+        this.session = session;
+    }
+
+    void setMojoExecution(MojoExecution mojoExecution) {
+        this.mojoExecution = mojoExecution;
+    }
+
+    private static final class ModuleOverlay {
+
+        private final MavenProject project;
+        private final OverlayExecution execution;
+        private final OverlayRenderer renderer;
+        private final OverlaySpec spec;
+
+        ModuleOverlay(final MavenProject project, final OverlayExecution execution, final OverlayRenderer renderer,
+                final OverlaySpec spec) {
+            this.project = project;
+            this.execution = execution;
+            this.renderer = renderer;
+            this.spec = spec;
+        }
+    }
+}
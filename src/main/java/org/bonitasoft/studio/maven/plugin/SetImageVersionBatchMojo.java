@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
+
+/**
+ * Renders a list of overlays in a single execution.
+ * All overlays share one {@link OverlayRenderer}, so fonts are loaded once, and images are rendered concurrently
+ * on a bounded pool.
+ */
+@Mojo(defaultPhase = LifecyclePhase.GENERATE_RESOURCES, name = "create-images", threadSafe = true)
+public class SetImageVersionBatchMojo extends AbstractSetImageVersionMojo {
+
+    @Parameter(required = true)
+    private List<Overlay> overlays;
+
+    /**
+     * Number of images rendered concurrently, defaults to the number of available processors.
+     */
+    @Parameter(required = false, defaultValue = "0")
+    private int threads;
+
+    /**
+     * Overlap the decoding, composition and encoding of successive images: {@code threads} threads compose the
+     * images while the next ones are decoded and the previous ones written, with at most three images per thread
+     * in memory.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean pipelined;
+
+    /**
+     * Maximum number of decoded base image pixels kept in memory and shared between the executions of the build,
+     * the largest budget of the executions applying to all of them. 0 disables the cache for this execution.
+     */
+    @Parameter(required = false, defaultValue = "0")
+    private long baseImageCachePixels;
+
+    @Parameter(defaultValue = "${project.build.directory}", readonly = true)
+    private File buildDirectory;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (isSkip()) {
+            getLog().info("Skipping the creation of the images.");
+            return;
+        }
+        if (overlays == null || overlays.isEmpty()) {
+            getLog().info("No overlay to create.");
+            return;
+        }
+        final BaseImageCache baseImageCache = baseImageCache(baseImageCachePixels);
+        final ArtifactEntries artifactEntries = artifactEntries();
+        final List<OverlaySpec> specs = new ArrayList<>();
+        final List<String> images = new ArrayList<>();
+        for (final Overlay overlay : overlays) {
+            final OverlaySpec spec = overlay.toSpec(artifactEntries);
+            specs.add(spec);
+            images.add(spec.getOutputImagePath());
+        }
+        final OverlayRenderer renderer = createRenderer(baseImageCache, specs);
+
+        final OverlayExecution execution = overlayExecution(buildDirectory);
+        try {
+            reportFailures(images, pipelined ? submitImages(execution, renderer, specs)
+                    : createImages(execution, renderer, specs));
+        } finally {
+            logCacheStatistics(baseImageCache);
+        }
+    }
+
+    private List<Future<?>> createImages(final OverlayExecution execution, final OverlayRenderer renderer,
+            final List<OverlaySpec> specs) throws MojoExecutionException {
+        final ExecutorService executor = Executors.newFixedThreadPool(poolSize());
+        try {
+            final List<Future<?>> results = new ArrayList<>();
+            for (final OverlaySpec spec : specs) {
+                results.add(executor.submit(() -> {
+                    execution.createImage(renderer, spec);
+                    return null;
+                }));
+            }
+            awaitAll(results);
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Future<?>> submitImages(final OverlayExecution execution, final OverlayRenderer renderer,
+            final List<OverlaySpec> specs) throws MojoExecutionException {
+        try (RenderPipeline pipeline = new RenderPipeline(poolSize())) {
+            final List<Future<?>> results = new ArrayList<>();
+            for (final OverlaySpec spec : specs) {
+                results.add(execution.submitImage(renderer, spec, pipeline));
+            }
+            awaitAll(results);
+            return results;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while creating images", e);
+        }
+    }
+
+    /**
+     * Creates the renderer shared by all overlays and loads their fonts up front, so that a missing font fails
+     * the build before any image is written.
+     */
+    private OverlayRenderer createRenderer(final BaseImageCache baseImageCache, final List<OverlaySpec> specs)
+            throws MojoExecutionException, MojoFailureException {
+        try {
+            final OverlayRenderer renderer = rendererBuilder(baseImageCache).build();
+            for (final OverlaySpec spec : specs) {
+                renderer.getFont(spec);
+            }
+            return renderer;
+        } catch (final CreateImageException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    private int poolSize() {
+        final int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(poolSize, overlays.size()));
+    }
+
+    public void setOverlays(List<Overlay> overlays) {
+        this.overlays = overlays;
+    }
+
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setBuildDirectory(File buildDirectory) {
+        this.buildDirectory = buildDirectory;
+    }
+
+    public void setBaseImageCachePixels(long baseImageCachePixels) {
+        this.baseImageCachePixels = baseImageCachePixels;
+    }
+
+}
@@ -17,7 +17,14 @@
  */
 package org.bonitasoft.studio.maven.plugin;
 
-import org.apache.maven.plugin.AbstractMojo;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
@@ -30,11 +37,24 @@ import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
  * @phase generate-resources
  */
 @Mojo(defaultPhase = LifecyclePhase.GENERATE_RESOURCES, name = "create-image", threadSafe = true)
-public class SetImageVersionMojo extends AbstractMojo {
+public class SetImageVersionMojo extends AbstractSetImageVersionMojo {
 
-    @Parameter(required = true)
+    /**
+     * Base image file, required unless {@code baseImgArtifact} is set.
+     */
+    @Parameter(required = false)
     private String baseImgPath;
 
+    /**
+     * Artifact holding the base image, as {@code groupId:artifactId[:extension[:classifier]]:version}. The image
+     * is read from the {@code baseImgEntry} file of the artifact, without extracting it.
+     */
+    @Parameter(required = false)
+    private String baseImgArtifact;
+
+    @Parameter(required = false)
+    private String baseImgEntry;
+
     @Parameter(required = true)
     private String outputImagePath;
 
@@ -65,6 +85,15 @@ public class SetImageVersionMojo extends AbstractMojo {
     @Parameter(required = false)
     private String fontResourcePath;
 
+    /**
+     * Artifact holding the font file, read from its {@code fontEntry} file in place of {@code fontResourcePath}.
+     */
+    @Parameter(required = false)
+    private String fontArtifact;
+
+    @Parameter(required = false)
+    private String fontEntry;
+
     @Parameter(required = false)
     private float fontSize;
 
@@ -77,59 +106,190 @@ public class SetImageVersionMojo extends AbstractMojo {
     @Parameter(required = false, defaultValue = "false")
     private boolean italic;
 
+    /**
+     * Other files to write from the same rendered image, each with its own path and format, for instance a PNG
+     * and a JPG next to a BMP output. The image is rendered once and the outputs are encoded concurrently.
+     */
+    @Parameter(required = false)
+    private List<OutputImage> additionalOutputs;
+
+    /**
+     * Scale factors of the HiDPI variants to create from the base image, for instance 1, 2 and 3. Coordinates and
+     * font size are multiplied by each factor, and variants other than 1 are written next to outputImagePath
+     * with an {@code @<scale>x} suffix.
+     */
+    @Parameter(required = false)
+    private List<Float> scales;
+
+    /**
+     * Maximum number of decoded base image pixels kept in memory and shared between the executions of the build,
+     * the largest budget of the executions applying to all of them. 0 disables the cache for this execution.
+     */
+    @Parameter(required = false, defaultValue = "0")
+    private long baseImageCachePixels;
+
+    @Parameter(defaultValue = "${project.build.directory}", readonly = true)
+    private File buildDirectory;
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        final SetImageVersion setImageVersion = createSetImageVersion();
-        setImageVersion.setBaseImgPath(baseImgPath);
-        setImageVersion.setOutputImageFormat(outputImageFormat);
-        setImageVersion.setOutputImagePath(outputImagePath);
-        setImageVersion.setVersionLabel(versionLabel);
-        setImageVersion.setBuildId(buildId);
-        setImageVersion.setBuildIdX(buildIdX);
-        setImageVersion.setBuildIdY(buildIdY);
-        setImageVersion.setxLocation(xLocation);
-        setImageVersion.setyLocation(yLocation);
-        setImageVersion.setBold(bold);
-        setImageVersion.setItalic(italic);
-        if (fontName != null) {
-            if (fontResourcePath == null) {
-                throw new MojoFailureException(
-                        "You must provide a custom font resourcefile when using a custom font name.");
+        if (isSkip()) {
+            getLog().info("Skipping the creation of the image.");
+            return;
+        }
+        final BaseImageCache baseImageCache = baseImageCache(baseImageCachePixels);
+        final OverlayExecution execution = overlayExecution(buildDirectory);
+        final OverlaySpec spec = toOverlay().toSpec(artifactEntries());
+        try {
+            if (scales == null || scales.isEmpty()) {
+                execution.createImage(createRenderer(baseImageCache), spec);
+            } else {
+                createScaledImages(execution, createRenderer(baseImageCache != null ? baseImageCache
+                        : variantCache()), spec);
             }
-            setImageVersion.setFontName(fontName);
-            setImageVersion.setFontResourcePath(fontResourcePath);
+        } catch (final CreateImageException | IOException e) {
+            throw new MojoExecutionException("Failed to create target image", e);
+        } finally {
+            logCacheStatistics(baseImageCache);
         }
-        if (fontSize > 0) {
-            setImageVersion.setSize(fontSize);
+    }
+
+    private OverlayRenderer createRenderer(final BaseImageCache baseImageCache)
+            throws CreateImageException, MojoFailureException {
+        return rendererBuilder(baseImageCache).build();
+    }
+
+    /**
+     * Renders one image per scale in parallel, all of them sharing a single decode of the base image.
+     */
+    private void createScaledImages(final OverlayExecution execution, final OverlayRenderer renderer,
+            final OverlaySpec spec) throws MojoExecutionException, MojoFailureException {
+        final List<OverlaySpec> variants = scaledVariants(spec, scales);
+        // The other variants are rendered by the output executor while the calling thread renders the first one
+        final List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (final OverlaySpec variant : variants.subList(1, variants.size())) {
+            results.add(CompletableFuture.runAsync(() -> {
+                try {
+                    execution.createImage(renderer, variant);
+                } catch (final CreateImageException | IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, OutputExecutor.shared()));
+        }
+        Throwable failure = null;
+        try {
+            execution.createImage(renderer, variants.get(0));
+        } catch (final CreateImageException | IOException e) {
+            failure = e;
         }
-        if (color != null && !color.isEmpty()) {
-            if (!color.startsWith("#")) {
-                color = "#" + color;
+        for (final CompletableFuture<Void> result : results) {
+            try {
+                result.join();
+            } catch (final CompletionException e) {
+                failure = failure != null ? failure : e.getCause();
             }
-            if (color.length() > 7) {
-                throw new MojoFailureException("Color parameter has not the expected format eg: 0f125e");
+        }
+        if (failure != null) {
+            throw new MojoExecutionException("Failed to create target image", failure);
+        }
+    }
+
+    /**
+     * Returns one spec per scale, written to the HiDPI variants of the spec outputs.
+     */
+    static List<OverlaySpec> scaledVariants(final OverlaySpec spec, final List<Float> scales)
+            throws MojoFailureException {
+        final List<OverlaySpec> variants = new ArrayList<>();
+        for (final Float scale : scales) {
+            if (scale == null || scale <= 0) {
+                throw new MojoFailureException(String.format("Invalid scale %s, scales must be positive.", scale));
+            }
+            final List<OutputImage> scaledOutputs = new ArrayList<>();
+            for (final OutputImage output : spec.getAdditionalOutputs()) {
+                scaledOutputs.add(new OutputImage(scaledOutputPath(output.getPath(), scale), output.getFormat()));
             }
-            setImageVersion.setColor(color);
+            variants.add(spec.toBuilder()
+                    .scale(scale)
+                    .outputImagePath(scaledOutputPath(spec.getOutputImagePath(), scale))
+                    .additionalOutputs(scaledOutputs)
+                    .build());
         }
+        return variants;
+    }
 
-        getLog().info("Writing image with version " + versionLabel + " to " + outputImagePath + "...");
+    /**
+     * Keeps the base image decoded for the variants of this execution only, when no cache is configured.
+     */
+    private static BaseImageCache variantCache() {
+        final BaseImageCache cache = new BaseImageCache();
+        cache.setPixelBudget(Long.MAX_VALUE);
+        return cache;
+    }
 
-        try {
-            setImageVersion.createImage();
-        } catch (final CreateImageException e) {
-            throw new MojoExecutionException("Failed to create target image", e);
+    /**
+     * Returns the output path of a scale variant, following the HiDPI naming convention: {@code splash.png} at
+     * scale 2 is written to {@code splash@2x.png}. Scale 1 keeps the configured path.
+     */
+    static String scaledOutputPath(final String outputImagePath, final float scale) {
+        if (scale == 1f) {
+            return outputImagePath;
         }
+        final String suffix = "@" + new BigDecimal(Float.toString(scale)).stripTrailingZeros().toPlainString() + "x";
+        final File output = new File(outputImagePath);
+        final String name = output.getName();
+        final int extension = name.lastIndexOf('.');
+        final String scaledName = extension > 0 ? name.substring(0, extension) + suffix + name.substring(extension)
+                : name + suffix;
+        return new File(output.getParentFile(), scaledName).getPath();
     }
 
-   
+    private Overlay toOverlay() {
+        final Overlay overlay = new Overlay();
+        overlay.setBaseImgPath(baseImgPath);
+        overlay.setBaseImgArtifact(baseImgArtifact);
+        overlay.setBaseImgEntry(baseImgEntry);
+        overlay.setOutputImagePath(outputImagePath);
+        overlay.setOutputImageFormat(outputImageFormat);
+        overlay.setAdditionalOutputs(additionalOutputs);
+        overlay.setxLocation(xLocation);
+        overlay.setyLocation(yLocation);
+        overlay.setBuildIdX(buildIdX);
+        overlay.setBuildIdY(buildIdY);
+        overlay.setVersionLabel(versionLabel);
+        overlay.setBuildId(buildId);
+        overlay.setFontName(fontName);
+        overlay.setFontResourcePath(fontResourcePath);
+        overlay.setFontArtifact(fontArtifact);
+        overlay.setFontEntry(fontEntry);
+        overlay.setFontSize(fontSize);
+        overlay.setColor(color);
+        overlay.setBold(bold);
+        overlay.setItalic(italic);
+        return overlay;
+    }
 
     public void setVersionLabel(String versionLabel) {
         this.versionLabel = versionLabel;
     }
 
-    protected SetImageVersion createSetImageVersion() {
-        return new SetImageVersion();
+    public void setBuildDirectory(File buildDirectory) {
+        this.buildDirectory = buildDirectory;
+    }
+
+    public void setAdditionalOutputs(List<OutputImage> additionalOutputs) {
+        this.additionalOutputs = additionalOutputs;
+    }
+
+    public void setScales(List<Float> scales) {
+        this.scales = scales;
+    }
+
+    public void setOutputImagePath(String outputImagePath) {
+        this.outputImagePath = outputImagePath;
+    }
+
+    public void setBaseImageCachePixels(long baseImageCachePixels) {
+        this.baseImageCachePixels = baseImageCachePixels;
     }
 
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Renders a list of overlays, then keeps running and renders them again within milliseconds whenever a base image,
+ * a font file or the sidecar configuration changes, until the build is stopped. Meant to be run from the command
+ * line while adjusting the overlays, see {@link OverlayWatcher} for the sidecar format.
+ */
+@Mojo(name = "watch-images", threadSafe = true)
+public class SetImageVersionWatchMojo extends AbstractMojo {
+
+    @Parameter(required = true)
+    private List<Overlay> overlays;
+
+    /**
+     * Properties overriding the location, size, color and labels of the overlays, read again on each change.
+     */
+    @Parameter(required = false, defaultValue = "${project.basedir}/image-overlay.properties")
+    private File sidecarConfig;
+
+    /**
+     * Milliseconds without further changes to wait for before rendering, so that a file being saved is rendered
+     * once.
+     */
+    @Parameter(required = false, defaultValue = "50")
+    private long quietPeriod;
+
+    /**
+     * Maximum number of decoded base image pixels kept in memory between two renderings.
+     */
+    @Parameter(required = false, defaultValue = "67108864")
+    private long baseImageCachePixels;
+
+    /**
+     * Blend cached anti-aliased masks of the text into the pixels instead of rasterizing it for each image.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean maskCompositing;
+
+    /**
+     * Keep palette base images of up to 256 colors in their palette, extended with the colors of the text, instead of
+     * expanding them to true color. Falls back to true color when the palette overflows or an output is a JPEG.
+     */
+    @Parameter(required = false, defaultValue = "false")
+    private boolean preserveColorModel;
+
+    /**
+     * Replace the outputs only when their content changed, so that image viewers and other watchers are not
+     * notified of identical images.
+     */
+    @Parameter(required = false, defaultValue = "true")
+    private boolean writeOnlyIfChanged;
+
+    @Component
+    private RepositorySystem repositorySystem;
+
+    @Parameter(defaultValue = "${repositorySystemSession}", readonly = true)
+    private RepositorySystemSession repositorySystemSession;
+
+    @Parameter(defaultValue = "${project.remoteProjectRepositories}", readonly = true)
+    private List<RemoteRepository> remoteRepositories;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (overlays == null || overlays.isEmpty()) {
+            getLog().info("No overlay to watch.");
+            return;
+        }
+        final ArtifactEntries artifactEntries = new ArtifactEntries(repositorySystem, repositorySystemSession,
+                remoteRepositories);
+        final List<OverlaySpec> specs = new ArrayList<>();
+        for (final Overlay overlay : overlays) {
+            specs.add(overlay.toSpec(artifactEntries));
+        }
+        try (OverlayWatcher watcher = createWatcher(specs)) {
+            watcher.start();
+            getLog().info("Watching the base images, fonts and " + sidecarConfig + ", press Ctrl+C to stop.");
+            while (!Thread.currentThread().isInterrupted()) {
+                watcher.awaitChanges(1, TimeUnit.HOURS);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final CreateImageException | IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    OverlayWatcher createWatcher(final List<OverlaySpec> specs) throws IOException {
+        final BaseImageCache baseImageCache = new BaseImageCache();
+        baseImageCache.setPixelBudget(baseImageCachePixels);
+        final OverlayRenderer.Builder rendererBuilder = OverlayRenderer.builder()
+                .maskCompositing(maskCompositing)
+                .preserveColorModel(preserveColorModel)
+                .writeOnlyIfChanged(writeOnlyIfChanged)
+                .baseImageCache(baseImageCache);
+        return new OverlayWatcher(getLog(), specs, sidecarConfig != null ? sidecarConfig.toPath() : null,
+                rendererBuilder, quietPeriod);
+    }
+
+    public void setOverlays(List<Overlay> overlays) {
+        this.overlays = overlays;
+    }
+
+    public void setSidecarConfig(File sidecarConfig) {
+        this.sidecarConfig = sidecarConfig;
+    }
+
+    public void setQuietPeriod(long quietPeriod) {
+        this.quietPeriod = quietPeriod;
+    }
+
+    public void setBaseImageCachePixels(long baseImageCachePixels) {
+        this.baseImageCachePixels = baseImageCachePixels;
+    }
+
+    public void setMaskCompositing(boolean maskCompositing) {
+        this.maskCompositing = maskCompositing;
+    }
+
+    public void setPreserveColorModel(boolean preserveColorModel) {
+        this.preserveColorModel = preserveColorModel;
+    }
+
+    public void setWriteOnlyIfChanged(boolean writeOnlyIfChanged) {
+        this.writeOnlyIfChanged = writeOnlyIfChanged;
+    }
+}
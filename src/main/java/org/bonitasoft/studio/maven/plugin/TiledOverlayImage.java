@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Vector;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A base image decoded lazily by horizontal tiles of {@code tileHeight} rows, using
+ * {@link ImageReadParam#setSourceRegion(Rectangle)}.
+ * Only the tiles intersecting the text region are painted. Image writers pulling rows through
+ * {@link #getData(Rectangle)} (PNG and BMP writers do) keep a single decoded tile in memory.
+ */
+final class TiledOverlayImage implements RenderedImage, Closeable {
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int tileHeight;
+    private final ColorModel colorModel;
+    private final int imageType;
+    private final Rectangle paintRegion;
+    private final TilePainter painter;
+
+    private int currentTileY = -1;
+    private BufferedImage currentTile;
+
+    TiledOverlayImage(final File baseImage, final int tileHeight, final int imageType, final Rectangle paintRegion,
+            final TilePainter painter) throws IOException {
+        this.input = ImageIO.createImageInputStream(baseImage);
+        if (input == null) {
+            throw new IOException("Cannot read " + baseImage.getAbsolutePath());
+        }
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("No image reader found for " + baseImage.getAbsolutePath());
+        }
+        this.reader = readers.next();
+        reader.setInput(input, false, true);
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+        this.tileHeight = Math.max(1, Math.min(tileHeight, height));
+        this.imageType = imageType;
+        this.colorModel = new BufferedImage(1, 1, imageType).getColorModel();
+        this.paintRegion = paintRegion;
+        this.painter = painter;
+    }
+
+    private synchronized BufferedImage tile(final int tileY) {
+        if (tileY != currentTileY) {
+            currentTile = null;
+            currentTile = decodeTile(tileY);
+            currentTileY = tileY;
+        }
+        return currentTile;
+    }
+
+    private BufferedImage decodeTile(final int tileY) {
+        final Rectangle region = new Rectangle(0, tileY * tileHeight, width,
+                Math.min(tileHeight, height - tileY * tileHeight));
+        final ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(region);
+        final BufferedImage decoded;
+        try {
+            decoded = reader.read(0, param);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final BufferedImage tile = new BufferedImage(region.width, region.height, imageType);
+        final Graphics2D graphics = tile.createGraphics();
+        graphics.drawImage(decoded, 0, 0, null);
+        graphics.dispose();
+        if (region.intersects(paintRegion)) {
+            painter.paint(tile, region.x, region.y);
+        }
+        return tile;
+    }
+
+    @Override
+    public Raster getData(final Rectangle rect) {
+        final int firstTile = rect.y / tileHeight;
+        final int lastTile = (rect.y + rect.height - 1) / tileHeight;
+        if (firstTile == lastTile) {
+            final int tileMinY = firstTile * tileHeight;
+            return tile(firstTile).getRaster().createChild(rect.x, rect.y - tileMinY, rect.width, rect.height,
+                    rect.x, rect.y, null);
+        }
+        final WritableRaster raster = colorModel.createCompatibleWritableRaster(rect.width, rect.height)
+                .createWritableTranslatedChild(rect.x, rect.y);
+        return copyData(raster);
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public WritableRaster copyData(final WritableRaster raster) {
+        final WritableRaster target = raster != null ? raster
+                : colorModel.createCompatibleWritableRaster(width, height);
+        final Rectangle bounds = target.getBounds();
+        for (int tileY = bounds.y / tileHeight; tileY <= (bounds.y + bounds.height - 1) / tileHeight; tileY++) {
+            final Rectangle tileBounds = new Rectangle(0, tileY * tileHeight, width, tileHeight)
+                    .intersection(bounds);
+            target.setDataElements(0, 0, getData(tileBounds));
+        }
+        return target;
+    }
+
+    @Override
+    public Raster getTile(final int tileX, final int tileY) {
+        return tile(tileY).getRaster().createTranslatedChild(0, tileY * tileHeight);
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(final String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return colorModel.createCompatibleSampleModel(width, tileHeight);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return (height + tileHeight - 1) / tileHeight;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return width;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Base of the Flight Recorder events fired while rendering an overlay, identifying the image being rendered.
+ */
+@Category({ "Bonita", "Image Overlay" })
+public abstract class OverlayEvent extends Event {
+
+    @Label("Image Path")
+    String imagePath;
+
+    @Label("Base Image Path")
+    String baseImagePath;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Format")
+    String format;
+
+    @Label("Font Name")
+    String fontName;
+
+    public void setOverlay(final String imagePath, final String baseImagePath, final int width, final int height,
+            final String format, final String fontName) {
+        this.imagePath = imagePath;
+        this.baseImagePath = baseImagePath;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.fontName = fontName;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ArchiveEntryTest {
+
+    private static final String BASE_IMAGE = "/splash_sp_without_version.bmp";
+
+    @TempDir
+    Path tmpFolder;
+
+    @Test
+    void should_parse_archive_entry_paths() throws Exception {
+        final File jar = brandingJar();
+
+        final ArchiveEntry entry = ArchiveEntry.parse(ArchiveEntry.path(jar, "/images/splash.bmp"));
+
+        assertThat(entry.getArchive()).isEqualTo(jar.getAbsoluteFile());
+        assertThat(entry.getName()).isEqualTo("images/splash.bmp");
+        assertThat(ArchiveEntry.parse(resource(BASE_IMAGE))).isNull();
+        assertThat(ArchiveEntry.parse(tmpFolder.resolve("missing.jar") + "!/images/splash.bmp")).isNull();
+        assertThat(ArchiveEntry.parse(null)).isNull();
+    }
+
+    @Test
+    void should_read_entries_without_extracting() throws Exception {
+        final ArchiveEntry entry = ArchiveEntry.parse(ArchiveEntry.path(brandingJar(), "images/splash.bmp"));
+
+        assertThat(entry.readAllBytes()).isEqualTo(Files.readAllBytes(Path.of(resource(BASE_IMAGE))));
+        assertThat(tmpFolder.toFile().list()).containsExactly("branding.jar");
+    }
+
+    @Test
+    void should_fail_on_missing_entries() throws Exception {
+        final ArchiveEntry entry = ArchiveEntry.parse(ArchiveEntry.path(brandingJar(), "images/missing.bmp"));
+
+        assertThrows(FileNotFoundException.class, entry::readAllBytes);
+    }
+
+    @Test
+    void should_render_base_image_and_font_from_archive() throws Exception {
+        final File jar = brandingJar();
+        final File fromArchive = tmpFolder.resolve("from-archive.png").toFile();
+        final File fromFiles = tmpFolder.resolve("from-files.png").toFile();
+        final Path fontFile = Files.write(tmpFolder.resolve("font.otf"), FontCache.readFontBytes(null));
+
+        final SetImageVersion archived = setImageVersion(ArchiveEntry.path(jar, "images/splash.bmp"),
+                ArchiveEntry.path(jar, "fonts/branding.otf"), fromArchive);
+        archived.createImage();
+        setImageVersion(resource(BASE_IMAGE), fontFile.toString(), fromFiles).createImage();
+
+        SetImageVersionTest.assertSamePixels(ImageIO.read(fromArchive), ImageIO.read(fromFiles));
+        assertThat(archived.getMetrics().getBytesRead()).isEqualTo(new File(resource(BASE_IMAGE)).length());
+    }
+
+    @Test
+    void should_resolve_artifact_entries_once() throws Exception {
+        final File jar = brandingJar();
+        final RepositorySystem repositorySystem = mock(RepositorySystem.class);
+        final ArtifactResult result = new ArtifactResult(new ArtifactRequest());
+        result.setArtifact(new DefaultArtifact("org.bonitasoft:branding:1.0").setFile(jar));
+        when(repositorySystem.resolveArtifact(any(), any())).thenReturn(result);
+        final ArtifactEntries artifactEntries = new ArtifactEntries(repositorySystem,
+                mock(RepositorySystemSession.class), List.of());
+
+        assertThat(artifactEntries.resolve("org.bonitasoft:branding:1.0", "images/splash.bmp"))
+                .isEqualTo(ArchiveEntry.path(jar, "images/splash.bmp"));
+        assertThat(artifactEntries.resolve("org.bonitasoft:branding:1.0", "/fonts/branding.otf"))
+                .isEqualTo(ArchiveEntry.path(jar, "fonts/branding.otf"));
+        verify(repositorySystem, times(1)).resolveArtifact(any(), any());
+        assertThrows(MojoFailureException.class, () -> artifactEntries.resolve("org.bonitasoft:branding:1.0", null));
+        assertThrows(MojoFailureException.class, () -> artifactEntries.resolve("branding", "images/splash.bmp"));
+    }
+
+    @Test
+    void should_create_spec_from_overlay_artifacts() throws Exception {
+        final File jar = brandingJar();
+        final ArtifactEntries artifactEntries = mock(ArtifactEntries.class);
+        when(artifactEntries.resolve(eq("org.bonitasoft:branding:1.0"), any()))
+                .thenAnswer(invocation -> ArchiveEntry.path(jar, invocation.getArgument(1)));
+        final Overlay overlay = new Overlay();
+        overlay.setBaseImgArtifact("org.bonitasoft:branding:1.0");
+        overlay.setBaseImgEntry("images/splash.bmp");
+        overlay.setFontName("Branding");
+        overlay.setFontArtifact("org.bonitasoft:branding:1.0");
+        overlay.setFontEntry("fonts/branding.otf");
+
+        final OverlaySpec spec = overlay.toSpec(artifactEntries);
+
+        assertThat(spec.getBaseImgPath()).isEqualTo(ArchiveEntry.path(jar, "images/splash.bmp"));
+        assertThat(spec.getFontResourcePath()).isEqualTo(ArchiveEntry.path(jar, "fonts/branding.otf"));
+        assertThrows(MojoFailureException.class, overlay::toSpec);
+    }
+
+    private SetImageVersion setImageVersion(final String baseImgPath, final String fontResourcePath,
+            final File output) {
+        final SetImageVersion setImageVersion = new SetImageVersion();
+        setImageVersion.setBaseImgPath(baseImgPath);
+        setImageVersion.setFontName("Branding");
+        setImageVersion.setFontResourcePath(fontResourcePath);
+        setImageVersion.setOutputImagePath(output.getAbsolutePath());
+        setImageVersion.setOutputImageFormat("png");
+        setImageVersion.setVersionLabel("7.6.0");
+        setImageVersion.setxLocation(200);
+        setImageVersion.setyLocation(200);
+        return setImageVersion;
+    }
+
+    private File brandingJar() throws Exception {
+        final File jar = tmpFolder.resolve("branding.jar").toFile();
+        try (OutputStream os = Files.newOutputStream(jar.toPath()); ZipOutputStream zip = new ZipOutputStream(os)) {
+            zip.putNextEntry(new ZipEntry("images/"));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("images/splash.bmp"));
+            zip.write(Files.readAllBytes(Path.of(resource(BASE_IMAGE))));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("fonts/branding.otf"));
+            zip.write(FontCache.readFontBytes(null));
+            zip.closeEntry();
+        }
+        return jar;
+    }
+
+    private static String resource(final String name) {
+        return new File(ArchiveEntryTest.class.getResource(name).getFile()).getAbsolutePath();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BaseImageCacheTest {
+
+    @TempDir
+    Path tmpFolder;
+
+    private BaseImageCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new BaseImageCache();
+        cache.setPixelBudget(10_000);
+    }
+
+    @Test
+    void should_decode_an_image_once() throws Exception {
+        final File image = writeImage("base.png", 50, 50);
+
+        final BufferedImage first = cache.get(image, ImageIO::read);
+        final BufferedImage second = cache.get(image, ImageIO::read);
+
+        assertThat(second).isSameAs(first);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.contains(first)).isTrue();
+    }
+
+    @Test
+    void should_evict_least_recently_used_images_over_budget() throws Exception {
+        final File first = writeImage("first.png", 70, 70);
+        final File second = writeImage("second.png", 70, 70);
+        final File third = writeImage("third.png", 70, 70);
+
+        cache.get(first, ImageIO::read);
+        cache.get(second, ImageIO::read);
+        cache.get(first, ImageIO::read);
+        cache.get(third, ImageIO::read);
+
+        assertThat(cache.size()).isEqualTo(2);
+        cache.get(first, ImageIO::read);
+        assertThat(cache.getHits()).isEqualTo(2);
+        cache.get(second, ImageIO::read);
+        assertThat(cache.getMisses()).isEqualTo(4);
+    }
+
+    @Test
+    void should_not_cache_images_larger_than_budget() throws Exception {
+        final File image = writeImage("large.png", 200, 200);
+
+        final BufferedImage decoded = cache.get(image, ImageIO::read);
+
+        assertThat(cache.size()).isZero();
+        assertThat(cache.contains(decoded)).isFalse();
+    }
+
+    @Test
+    void should_decode_again_when_file_changed() throws Exception {
+        final File image = writeImage("base.png", 50, 50);
+        final BufferedImage first = cache.get(image, ImageIO::read);
+
+        writeImage("base.png", 60, 60);
+        image.setLastModified(image.lastModified() + 2000);
+        final BufferedImage second = cache.get(image, ImageIO::read);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getWidth()).isEqualTo(60);
+        assertThat(cache.getMisses()).isEqualTo(2);
+    }
+
+    @Test
+    void should_keep_the_largest_requested_budget() throws Exception {
+        final File image = writeImage("base.png", 50, 50);
+        cache.setPixelBudget(0);
+        cache.requestPixelBudget(10_000);
+        final BufferedImage cached = cache.get(image, ImageIO::read);
+
+        cache.requestPixelBudget(100);
+        cache.requestPixelBudget(0);
+
+        assertThat(cache.getPixelBudget()).isEqualTo(10_000);
+        assertThat(cache.get(image, ImageIO::read)).isSameAs(cached);
+    }
+
+    @Test
+    void should_decode_once_for_concurrent_requests() throws Exception {
+        final File image = writeImage("base.png", 50, 50);
+        cache.setPixelBudget(0);
+        final AtomicInteger decodes = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<BufferedImage>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get(image, file -> {
+                decodes.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return ImageIO.read(file);
+            })));
+            started.await();
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> cache.get(image, file -> {
+                    decodes.incrementAndGet();
+                    return ImageIO.read(file);
+                })));
+            }
+            while (cache.getHits() < 3) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            final BufferedImage decoded = results.get(0).get();
+            for (final Future<BufferedImage> result : results) {
+                assertThat(result.get()).isSameAs(decoded);
+            }
+            assertThat(decodes).hasValue(1);
+            assertThat(cache.contains(decoded)).isTrue();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void should_not_draw_on_cached_images(@TempDir Path outputFolder) throws Exception {
+        final File base = new File(BaseImageCacheTest.class.getResource("/splash_sp_without_version.bmp").getFile());
+        cache.setPixelBudget(10_000_000);
+        final BufferedImage cached = cache.get(base, ImageIO::read);
+        final BufferedImage pristine = ImageIO.read(base);
+
+        final SetImageVersion setImageVersion = new SetImageVersion();
+        setImageVersion.setBaseImgPath(base.getAbsolutePath());
+        setImageVersion.setxLocation(200);
+        setImageVersion.setyLocation(200);
+        setImageVersion.setVersionLabel("6.4.0");
+        setImageVersion.setOutputImageFormat("bmp");
+        setImageVersion.setBmpRegionRendering(false);
+        setImageVersion.setBaseImageCache(cache);
+        final File first = outputFolder.resolve("first.bmp").toFile();
+        setImageVersion.setOutputImagePath(first.getAbsolutePath());
+        setImageVersion.createImage();
+        final File second = outputFolder.resolve("second.bmp").toFile();
+        setImageVersion.setOutputImagePath(second.getAbsolutePath());
+        setImageVersion.createImage();
+
+        assertThat(cache.getHits()).isEqualTo(2);
+        SetImageVersionTest.assertSamePixels(cached, pristine);
+        SetImageVersionTest.assertSamePixels(ImageIO.read(second), ImageIO.read(first));
+    }
+
+    private File writeImage(final String name, final int width, final int height) throws Exception {
+        final File file = tmpFolder.resolve(name).toFile();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", file);
+        return file;
+    }
+}
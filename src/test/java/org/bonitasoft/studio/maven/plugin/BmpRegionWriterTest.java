@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BmpRegionWriterTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "/splash_sp_without_version.bmp, 200, 200",
+            "/splash_without_version.bmp, 420, 285",
+            "/splash_without_version.bmp, 590, 10" })
+    void should_write_same_bytes_as_full_render(String baseImage, int x, int y, @TempDir Path tmpFolder)
+            throws Exception {
+        final File regionOutput = tmpFolder.resolve("region.bmp").toFile();
+        final File fullOutput = tmpFolder.resolve("full.bmp").toFile();
+
+        render(baseImage, x, y, regionOutput, true);
+        render(baseImage, x, y, fullOutput, false);
+
+        assertThat(Files.readAllBytes(regionOutput.toPath())).isEqualTo(Files.readAllBytes(fullOutput.toPath()));
+    }
+
+    @Test
+    void should_not_open_other_formats() throws Exception {
+        assertThat(BmpRegionWriter.open(resource("/Logo-Welcome-Community-Without-Version.png"))).isNull();
+    }
+
+    @Test
+    void should_open_24_bits_bmp() throws Exception {
+        final BmpRegionWriter writer = BmpRegionWriter.open(resource("/splash_sp_without_version.bmp"));
+
+        assertThat(writer).isNotNull();
+        assertThat(writer.getWidth()).isEqualTo(600);
+        assertThat(writer.getHeight()).isEqualTo(300);
+    }
+
+    @Test
+    void should_not_write_through_hard_links(@TempDir Path tmpFolder) throws Exception {
+        final Path output = tmpFolder.resolve("region.bmp");
+        final Path link = tmpFolder.resolve("link.bmp");
+        Files.write(output, new byte[] { 1, 2, 3 });
+        Files.createLink(link, output);
+
+        render("/splash_sp_without_version.bmp", 200, 200, output.toFile(), true);
+
+        assertThat(link).hasBinaryContent(new byte[] { 1, 2, 3 });
+        assertThat(Files.size(output)).isGreaterThan(BmpRegionWriter.HEADER_SIZE);
+    }
+
+    @Test
+    void should_write_over_the_base_image(@TempDir Path tmpFolder) throws Exception {
+        final Path base = tmpFolder.resolve("splash.bmp");
+        Files.copy(resource("/splash_sp_without_version.bmp").toPath(), base);
+        final File expected = tmpFolder.resolve("expected.bmp").toFile();
+        render(base.toString(), 200, 200, expected, false);
+
+        render(base.toString(), 200, 200, base.toFile(), true);
+
+        assertThat(Files.readAllBytes(base)).isEqualTo(Files.readAllBytes(expected.toPath()));
+        try (Stream<Path> files = Files.list(tmpFolder)) {
+            assertThat(files).containsExactlyInAnyOrder(base, expected.toPath());
+        }
+    }
+
+    private static void render(String baseImage, int x, int y, File output, boolean bmpRegionRendering)
+            throws Exception {
+        final SetImageVersion setImageVersion = new SetImageVersion();
+        setImageVersion.setBmpRegionRendering(bmpRegionRendering);
+        setImageVersion.setBaseImgPath(new File(baseImage).isFile() ? baseImage
+                : resource(baseImage).getAbsolutePath());
+        setImageVersion.setxLocation(x);
+        setImageVersion.setyLocation(y);
+        setImageVersion.setVersionLabel("7.6.0-SNAPSHOT");
+        setImageVersion.setBuildId("20240101.");
+        setImageVersion.setBuildIdX(x);
+        setImageVersion.setBuildIdY(y + 25);
+        setImageVersion.setColor("#0b4361");
+        setImageVersion.setOutputImageFormat("bmp");
+        setImageVersion.setOutputImagePath(output.getAbsolutePath());
+        setImageVersion.createImage();
+    }
+
+    private static File resource(String name) {
+        return new File(BmpRegionWriterTest.class.getResource(name).getFile());
+    }
+
+}
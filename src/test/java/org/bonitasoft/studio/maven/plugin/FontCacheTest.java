@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.awt.GraphicsEnvironment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FontCacheTest {
+
+    @Test
+    void should_reuse_parsed_font() throws Exception {
+        final Font font = FontCache.getFont(SetImageVersion.DEFAULT_FONT_NAME, null);
+
+        assertThat(FontCache.getFont(SetImageVersion.DEFAULT_FONT_NAME, null)).isSameAs(font);
+    }
+
+    @Test
+    void should_key_fonts_by_resource_path(@TempDir Path tmpFolder) throws Exception {
+        final Path fontFile = tmpFolder.resolve("MyFont.otf");
+        Files.write(fontFile, FontCache.readFontBytes(null));
+
+        final Font font = FontCache.getFont("MyFont", fontFile.toString());
+
+        assertThat(font).isNotNull();
+        assertThat(FontCache.getFont("MyFont", fontFile.toString())).isSameAs(font);
+        assertThat(FontCache.getFont("MyFont", null)).isNotSameAs(font);
+    }
+
+    @Test
+    void should_not_cache_invalid_fonts(@TempDir Path tmpFolder) throws Exception {
+        final Path fontFile = tmpFolder.resolve("invalid.otf");
+        Files.write(fontFile, new byte[] { 1, 2, 3 });
+
+        assertThrows(FontFormatException.class, () -> FontCache.getFont("invalid", fontFile.toString()));
+        assertThrows(FontFormatException.class, () -> FontCache.getFont("invalid", fontFile.toString()));
+    }
+
+    @Test
+    void should_parse_font_once_under_contention(@TempDir Path tmpFolder) throws Exception {
+        final Path fontFile = tmpFolder.resolve("Contended.otf");
+        Files.write(fontFile, FontCache.readFontBytes(null));
+        final int threads = 16;
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long parsedFonts = FontCache.getParsedFonts();
+        try {
+            final List<Future<Font>> fonts = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                fonts.add(executor.submit(() -> {
+                    start.await();
+                    return FontCache.getFont("Contended", fontFile.toString());
+                }));
+            }
+            final Font font = fonts.get(0).get();
+            for (final Future<Font> other : fonts) {
+                assertThat(other.get()).isSameAs(font);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(FontCache.getParsedFonts() - parsedFonts).isEqualTo(1);
+    }
+
+    @Test
+    void should_not_register_fonts_globally() throws Exception {
+        final Font font = FontCache.getFont(SetImageVersion.DEFAULT_FONT_NAME, null);
+
+        assertThat(Arrays.stream(GraphicsEnvironment.getLocalGraphicsEnvironment().getAllFonts())
+                .map(Font::getFontName)).doesNotContain(font.getFontName());
+    }
+
+    @Test
+    void should_derive_font_variant_once() throws Exception {
+        final Font font = FontCache.getFont(SetImageVersion.DEFAULT_FONT_NAME, null);
+        final AtomicInteger derivations = new AtomicInteger();
+
+        final Font variant = FontCache.derive(font, "test:bold", f -> {
+            derivations.incrementAndGet();
+            return f.deriveFont(Font.BOLD, 20);
+        });
+
+        assertThat(FontCache.derive(font, "test:bold", f -> f.deriveFont(Font.BOLD, 20))).isSameAs(variant);
+        assertThat(derivations).hasValue(1);
+        assertThat(variant.getSize2D()).isEqualTo(20);
+    }
+
+    @Test
+    void should_derive_variants_of_a_changed_font_file(@TempDir Path tmpFolder) throws Exception {
+        final Path fontFile = tmpFolder.resolve("MyFont.otf");
+        Files.write(fontFile, FontCache.readFontBytes(null));
+        final Font font = FontCache.getFont("MyFont", fontFile.toString());
+        final Font variant = FontCache.derive(font, "test:bold", f -> f.deriveFont(Font.BOLD, 20));
+
+        // Same font name, style and size, different content
+        Files.write(fontFile, new byte[16], StandardOpenOption.APPEND);
+        final Font changed = FontCache.getFont("MyFont", fontFile.toString());
+
+        assertThat(changed).isNotSameAs(font).isEqualTo(font);
+        assertThat(FontCache.contentKey(changed)).isNotEqualTo(FontCache.contentKey(font));
+        final Font changedVariant = FontCache.derive(changed, "test:bold", f -> f.deriveFont(Font.BOLD, 20));
+        assertThat(changedVariant).isNotSameAs(variant);
+        assertThat(FontCache.contentKey(changedVariant)).isNotEqualTo(FontCache.contentKey(variant));
+    }
+
+    @Test
+    void should_keep_one_version_of_an_edited_font_file(@TempDir Path tmpFolder) throws Exception {
+        final Path fontFile = tmpFolder.resolve("MyFont.otf");
+        Files.write(fontFile, FontCache.readFontBytes(null));
+        final Font font = FontCache.getFont("MyFont", fontFile.toString());
+        FontCache.derive(font, "test:edited", f -> f.deriveFont(Font.BOLD, 20));
+        final int cachedFonts = FontCache.getCachedFonts();
+        final int contentKeys = FontCache.getContentKeys();
+
+        for (int i = 0; i < 5; i++) {
+            Files.write(fontFile, new byte[16], StandardOpenOption.APPEND);
+            final Font edited = FontCache.getFont("MyFont", fontFile.toString());
+            FontCache.derive(edited, "test:edited", f -> f.deriveFont(Font.BOLD, 20));
+        }
+
+        assertThat(FontCache.getCachedFonts()).isEqualTo(cachedFonts);
+        assertThat(FontCache.getContentKeys()).isEqualTo(contentKeys);
+    }
+
+    @Test
+    void should_bound_derived_fonts() throws Exception {
+        final Font font = FontCache.getFont(SetImageVersion.DEFAULT_FONT_NAME, null);
+        final Font first = FontCache.derive(font, "test:evicted", f -> f.deriveFont(10f));
+
+        for (int i = 0; i < FontCache.MAX_DERIVED_FONTS; i++) {
+            final float size = 11 + i;
+            FontCache.derive(font, "test:size" + i, f -> f.deriveFont(size));
+        }
+
+        assertThat(FontCache.derive(font, "test:evicted", f -> f.deriveFont(10f))).isNotSameAs(first);
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+class ImageWriterPoolTest {
+
+    private final ImageWriterPool pool = new ImageWriterPool(2);
+
+    @Test
+    void should_reuse_writers_across_images(@TempDir Path tmpFolder) throws Exception {
+        for (int i = 0; i < 3; i++) {
+            pool.write(gradient(BufferedImage.TYPE_INT_RGB), "png", tmpFolder.resolve(i + ".png").toFile(),
+                    EncoderSettings.DEFAULT);
+        }
+
+        assertThat(pool.getCreatedWriters()).isEqualTo(1);
+        assertThat(ImageIO.read(tmpFolder.resolve("2.png").toFile())).isNotNull();
+    }
+
+    @Test
+    void should_trade_png_size_against_compression_level(@TempDir Path tmpFolder) throws Exception {
+        final BufferedImage image = gradient(BufferedImage.TYPE_INT_RGB);
+        final File fastest = tmpFolder.resolve("fastest.png").toFile();
+        final File smallest = tmpFolder.resolve("smallest.png").toFile();
+
+        pool.write(image, "png", fastest, new EncoderSettings(0, -1f, false, null));
+        pool.write(image, "png", smallest, new EncoderSettings(9, -1f, false, null));
+
+        assertThat(fastest.length()).isGreaterThan(smallest.length());
+        SetImageVersionTest.assertSamePixels(ImageIO.read(fastest), ImageIO.read(smallest));
+    }
+
+    @Test
+    void should_apply_jpeg_quality(@TempDir Path tmpFolder) throws Exception {
+        final BufferedImage image = gradient(BufferedImage.TYPE_INT_RGB);
+        final File low = tmpFolder.resolve("low.jpg").toFile();
+        final File high = tmpFolder.resolve("high.jpg").toFile();
+
+        pool.write(image, "jpg", low, new EncoderSettings(-1, 0.2f, false, null));
+        pool.write(image, "jpg", high, new EncoderSettings(-1, 0.95f, false, null));
+
+        assertThat(low.length()).isLessThan(high.length());
+    }
+
+    @Test
+    void should_write_progressive_jpeg_with_chroma_subsampling(@TempDir Path tmpFolder) throws Exception {
+        final File jpg = tmpFolder.resolve("progressive.jpg").toFile();
+
+        pool.write(gradient(BufferedImage.TYPE_INT_RGB), "jpg", jpg, new EncoderSettings(-1, 0.9f, true, "4:4:4"));
+
+        final Element metadata = jpegMetadata(jpg);
+        final Element sof = (Element) metadata.getElementsByTagName("sof").item(0);
+        assertThat(sof.getAttribute("process")).isEqualTo("2");
+        final Element luma = (Element) metadata.getElementsByTagName("componentSpec").item(0);
+        assertThat(luma.getAttribute("HsamplingFactor")).isEqualTo("1");
+        assertThat(luma.getAttribute("VsamplingFactor")).isEqualTo("1");
+    }
+
+    @Test
+    void should_replace_existing_files(@TempDir Path tmpFolder) throws Exception {
+        final File png = tmpFolder.resolve("out.png").toFile();
+        Files.write(png.toPath(), new byte[1 << 20]);
+
+        pool.write(gradient(BufferedImage.TYPE_INT_RGB), "png", png, EncoderSettings.DEFAULT);
+
+        assertThat(png.length()).isLessThan(1 << 20);
+        assertThat(ImageIO.read(png)).isNotNull();
+    }
+
+    @Test
+    void should_fail_for_images_the_format_cannot_store(@TempDir Path tmpFolder) {
+        final File jpg = tmpFolder.resolve("alpha.jpg").toFile();
+
+        assertThrows(IOException.class,
+                () -> pool.write(gradient(BufferedImage.TYPE_INT_ARGB), "jpg", jpg, EncoderSettings.DEFAULT));
+        assertThrows(IOException.class,
+                () -> pool.write(gradient(BufferedImage.TYPE_INT_RGB), "unknown", jpg, EncoderSettings.DEFAULT));
+    }
+
+    @Test
+    void should_reject_invalid_settings() {
+        assertThrows(IllegalArgumentException.class, () -> new EncoderSettings(10, -1f, false, null));
+        assertThrows(IllegalArgumentException.class, () -> new EncoderSettings(-1, 1.5f, false, null));
+        assertThrows(IllegalArgumentException.class, () -> new EncoderSettings(-1, -1f, false, "4:1:1"));
+    }
+
+    private static BufferedImage gradient(final int type) {
+        final BufferedImage image = new BufferedImage(256, 128, type);
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.RED, 256, 128, Color.BLUE));
+        graphics.fillRect(0, 0, 256, 128);
+        graphics.setColor(Color.WHITE);
+        graphics.drawString("7.6.0", 20, 60);
+        graphics.dispose();
+        return image;
+    }
+
+    private static Element jpegMetadata(final File jpg) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(jpg)) {
+            final ImageReader reader = ImageIO.getImageReaders(input).next();
+            try {
+                reader.setInput(input);
+                final Node tree = reader.getImageMetadata(0).getAsTree("javax_imageio_jpeg_image_1.0");
+                return (Element) tree;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
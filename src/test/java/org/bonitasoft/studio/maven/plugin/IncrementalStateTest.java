@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IncrementalStateTest {
+
+    @TempDir
+    Path tmpFolder;
+
+    private IncrementalState state;
+    private String output;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        state = new IncrementalState(tmpFolder.resolve("target").toFile());
+        output = tmpFolder.resolve("splash.bmp").toString();
+        Files.write(Path.of(output), new byte[] { 1, 2, 3 });
+    }
+
+    @Test
+    void should_be_up_to_date_when_fingerprint_matches() throws Exception {
+        state.save(output, "abc");
+
+        assertThat(state.isUpToDate(output, "abc")).isTrue();
+        assertThat(tmpFolder.resolve("target").resolve(IncrementalState.STATE_DIRECTORY)).isDirectory();
+    }
+
+    @Test
+    void should_not_be_up_to_date_when_fingerprint_changed() throws Exception {
+        state.save(output, "abc");
+
+        assertThat(state.isUpToDate(output, "def")).isFalse();
+    }
+
+    @Test
+    void should_not_be_up_to_date_without_state() throws Exception {
+        assertThat(state.isUpToDate(output, "abc")).isFalse();
+    }
+
+    @Test
+    void should_not_be_up_to_date_when_output_is_missing_or_rewritten() throws Exception {
+        state.save(output, "abc");
+        Files.write(Path.of(output), new byte[] { 1, 2, 3, 4 });
+
+        assertThat(state.isUpToDate(output, "abc")).isFalse();
+
+        new File(output).delete();
+        assertThat(state.isUpToDate(output, "abc")).isFalse();
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LabelMaskTest {
+
+    private static final Color TEXT_COLOR = Color.decode("#0b4361");
+
+    private Font font;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        font = FontCache.getFont(SetImageVersion.DEFAULT_FONT_NAME, null).deriveFont(Font.BOLD, 35f);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_3BYTE_BGR })
+    void should_blend_like_graphics_on_opaque_images(final int type) {
+        final BufferedImage expected = background(type, false);
+        final BufferedImage actual = background(type, false);
+
+        drawString(expected, "7.6.0", 12, 40);
+        LabelMask.get(font, "7.6.0").blend(actual, 12, 40, TEXT_COLOR);
+
+        assertThat(maxChannelDifference(actual, expected)).isZero();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_4BYTE_ABGR })
+    void should_blend_like_graphics_on_translucent_images(final int type) {
+        final BufferedImage expected = background(type, true);
+        final BufferedImage actual = background(type, true);
+
+        drawString(expected, "7.6.0", 12, 40);
+        LabelMask.get(font, "7.6.0").blend(actual, 12, 40, TEXT_COLOR);
+
+        assertThat(maxChannelDifference(actual, expected)).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void should_clip_text_outside_of_the_image() {
+        final BufferedImage expected = background(BufferedImage.TYPE_INT_RGB, false);
+        final BufferedImage actual = background(BufferedImage.TYPE_INT_RGB, false);
+
+        drawString(expected, "Build: 20240101", -20, 10);
+        LabelMask.get(font, "Build: 20240101").blend(actual, -20, 10, TEXT_COLOR);
+
+        assertThat(maxChannelDifference(actual, expected)).isZero();
+    }
+
+    @Test
+    void should_rasterize_a_label_once() {
+        assertThat(LabelMask.get(font, "7.6.0")).isSameAs(LabelMask.get(font, "7.6.0"));
+        assertThat(LabelMask.get(font, "7.6.0")).isNotSameAs(LabelMask.get(font, "7.6.1"));
+        assertThat(LabelMask.get(font, "7.6.0")).isNotSameAs(LabelMask.get(font.deriveFont(36f), "7.6.0"));
+    }
+
+    @Test
+    void should_bound_cached_masks() {
+        final LabelMask first = LabelMask.get(font, "evicted");
+
+        for (int i = 0; i < LabelMask.MAX_MASKS; i++) {
+            LabelMask.get(font, "7.6." + i);
+        }
+
+        assertThat(LabelMask.get(font, "evicted")).isNotSameAs(first);
+    }
+
+    @Test
+    void should_rasterize_changed_fonts_again(@TempDir Path tmpFolder) throws Exception {
+        final Path fontFile = tmpFolder.resolve("MyFont.otf");
+        Files.write(fontFile, FontCache.readFontBytes(null));
+        final LabelMask mask = LabelMask.get(FontCache.getFont("MyFont", fontFile.toString()), "7.6.0");
+
+        Files.write(fontFile, new byte[16], StandardOpenOption.APPEND);
+
+        assertThat(LabelMask.get(FontCache.getFont("MyFont", fontFile.toString()), "7.6.0")).isNotSameAs(mask);
+    }
+
+    @Test
+    void should_create_the_same_image_with_mask_compositing(@TempDir Path tmpFolder) throws Exception {
+        final SetImageVersion setImageVersion = new SetImageVersion();
+        setImageVersion.setBaseImgPath(
+                new File(LabelMaskTest.class.getResource("/Logo-Welcome-Community-Without-Version.png").getFile())
+                        .getAbsolutePath());
+        setImageVersion.setxLocation(192);
+        setImageVersion.setyLocation(78);
+        setImageVersion.setSize(35);
+        setImageVersion.setColor("#0b4361");
+        setImageVersion.setVersionLabel("7.6.0");
+        setImageVersion.setBuildId("20240101");
+        setImageVersion.setBuildIdX(192);
+        setImageVersion.setBuildIdY(100);
+        setImageVersion.setOutputImageFormat("png");
+        final File drawn = tmpFolder.resolve("drawn.png").toFile();
+        setImageVersion.setOutputImagePath(drawn.getAbsolutePath());
+        setImageVersion.createImage();
+        setImageVersion.setMaskCompositing(true);
+        final File blended = tmpFolder.resolve("blended.png").toFile();
+        setImageVersion.setOutputImagePath(blended.getAbsolutePath());
+        setImageVersion.createImage();
+
+        assertThat(maxChannelDifference(ImageIO.read(blended), ImageIO.read(drawn))).isLessThanOrEqualTo(2);
+    }
+
+    private void drawString(final BufferedImage image, final String text, final int x, final int y) {
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setColor(TEXT_COLOR);
+        graphics.setFont(font);
+        SetImageVersion.configureTextRendering(graphics);
+        graphics.drawString(text, x, y);
+        graphics.dispose();
+    }
+
+    private static BufferedImage background(final int type, final boolean translucent) {
+        final BufferedImage image = new BufferedImage(160, 60, type);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                final int alpha = translucent ? (x * 7 + y * 3) % 256 : 0xFF;
+                image.setRGB(x, y, alpha << 24 | (x * 5 % 256) << 16 | (y * 11 % 256) << 8 | (x + y) % 256);
+            }
+        }
+        return image;
+    }
+
+    private static int maxChannelDifference(final BufferedImage actual, final BufferedImage expected) {
+        assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+        int max = 0;
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                final int a = actual.getRGB(x, y);
+                final int e = expected.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    max = Math.max(max, Math.abs((a >>> shift & 0xFF) - (e >>> shift & 0xFF)));
+                }
+            }
+        }
+        return max;
+    }
+}
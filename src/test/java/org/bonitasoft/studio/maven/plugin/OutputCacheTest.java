@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutputCacheTest {
+
+    @TempDir
+    Path tmpFolder;
+
+    @Test
+    void should_restore_stored_outputs() throws Exception {
+        final OutputCache cache = new OutputCache(tmpFolder.resolve("cache"), 1024, "1.0");
+        final Path rendered = Files.write(tmpFolder.resolve("rendered.png"), new byte[] { 1, 2, 3 });
+        final Path restored = tmpFolder.resolve("other/restored.png");
+
+        assertThat(cache.restore("key", List.of(restored.toString()))).isFalse();
+        cache.store("key", List.of(rendered.toString()));
+
+        assertThat(cache.restore("key", List.of(restored.toString()))).isTrue();
+        assertThat(restored).hasBinaryContent(new byte[] { 1, 2, 3 });
+        assertThat(cache.restore("other", List.of(restored.toString()))).isFalse();
+    }
+
+    @Test
+    void should_keep_unchanged_outputs_when_restoring_only_if_changed() throws Exception {
+        final OutputCache cache = new OutputCache(tmpFolder.resolve("cache"), 1024, "1.0");
+        final Path rendered = Files.write(tmpFolder.resolve("rendered.png"), new byte[] { 1, 2, 3 });
+        cache.store("key", List.of(rendered.toString()));
+        final FileTime past = FileTime.fromMillis(1_000_000_000_000L);
+        Files.setLastModifiedTime(rendered, past);
+
+        assertThat(cache.restore("key", List.of(rendered.toString()), true)).isTrue();
+
+        assertThat(Files.getLastModifiedTime(rendered)).isEqualTo(past);
+    }
+
+    @Test
+    void should_not_restore_partially_cached_outputs() throws Exception {
+        final OutputCache cache = new OutputCache(tmpFolder.resolve("cache"), 1024, "1.0");
+        final Path rendered = Files.write(tmpFolder.resolve("rendered.png"), new byte[] { 1, 2, 3 });
+        cache.store("key", List.of(rendered.toString()));
+        final Path first = tmpFolder.resolve("first.png");
+        final Path second = tmpFolder.resolve("second.bmp");
+
+        assertThat(cache.restore("key", List.of(first.toString(), second.toString()))).isFalse();
+        assertThat(first).doesNotExist();
+    }
+
+    @Test
+    void should_evict_least_recently_used_entries() throws Exception {
+        final Path directory = tmpFolder.resolve("cache");
+        final OutputCache cache = new OutputCache(directory, 25, "1.0");
+        final Path rendered = Files.write(tmpFolder.resolve("rendered.png"), new byte[10]);
+        cache.store("old", List.of(rendered.toString()));
+        cache.store("recent", List.of(rendered.toString()));
+        Files.setLastModifiedTime(directory.resolve("old.used"), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(directory.resolve("recent.used"), FileTime.fromMillis(2000));
+        assertThat(cache.restore("old", List.of(tmpFolder.resolve("out.png").toString()))).isTrue();
+
+        cache.store("new", List.of(rendered.toString()));
+
+        assertThat(directory.resolve("old-0")).exists();
+        assertThat(directory.resolve("recent-0")).doesNotExist();
+        assertThat(directory.resolve("recent.used")).doesNotExist();
+        assertThat(directory.resolve("new-0")).exists();
+    }
+
+    @Test
+    void should_delete_stale_temporary_files() throws Exception {
+        final Path directory = Files.createDirectories(tmpFolder.resolve("cache"));
+        final Path stale = Files.write(directory.resolve("key123.tmp"), new byte[1]);
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+        final Path recent = Files.write(directory.resolve("key456.tmp"), new byte[1]);
+
+        new OutputCache(directory, 1024, "1.0").evict();
+
+        assertThat(stale).doesNotExist();
+        assertThat(recent).exists();
+    }
+
+    @Test
+    void should_restore_identical_image_rendered_for_another_output() throws Exception {
+        final OutputCache cache = new OutputCache(tmpFolder.resolve("cache"), Long.MAX_VALUE, "1.0");
+        final File first = tmpFolder.resolve("workspace1/splash.png").toFile();
+        final File second = tmpFolder.resolve("workspace2/splash.png").toFile();
+        first.getParentFile().mkdirs();
+
+        final SetImageVersion rendering = setImageVersion(cache, first, "7.6.0");
+        rendering.createImage();
+        final SetImageVersion restoring = setImageVersion(cache, second, "7.6.0");
+        restoring.createImage();
+
+        assertThat(rendering.getMetrics().isCached()).isFalse();
+        assertThat(restoring.getMetrics().isCached()).isTrue();
+        assertThat(Files.readAllBytes(second.toPath())).isEqualTo(Files.readAllBytes(first.toPath()));
+    }
+
+    @Test
+    void should_not_write_through_restored_outputs() throws Exception {
+        final OutputCache cache = new OutputCache(tmpFolder.resolve("cache"), Long.MAX_VALUE, "1.0");
+        final File output = tmpFolder.resolve("splash.png").toFile();
+        setImageVersion(cache, output, "7.6.0").createImage();
+        setImageVersion(cache, output, "7.6.0").createImage();
+        final byte[] cached = Files.readAllBytes(output.toPath());
+
+        final SetImageVersion changed = setImageVersion(cache, output, "7.6.1");
+        changed.createImage();
+        final File other = tmpFolder.resolve("other.png").toFile();
+        final SetImageVersion restoring = setImageVersion(cache, other, "7.6.0");
+        restoring.createImage();
+
+        assertThat(changed.getMetrics().isCached()).isFalse();
+        assertThat(restoring.getMetrics().isCached()).isTrue();
+        assertThat(Files.readAllBytes(other.toPath())).isEqualTo(cached);
+    }
+
+    @Test
+    void should_not_touch_outputs_linked_to_a_restored_entry() throws Exception {
+        final OutputCache cache = new OutputCache(tmpFolder.resolve("cache"), Long.MAX_VALUE, "1.0");
+        final Path rendered = Files.write(tmpFolder.resolve("rendered.png"), new byte[] { 1, 2, 3 });
+        cache.store("key", List.of(rendered.toString()));
+        final Path first = tmpFolder.resolve("workspace1/splash.png");
+        assertThat(cache.restore("key", List.of(first.toString()))).isTrue();
+        final FileTime past = FileTime.fromMillis(1_000_000_000_000L);
+        Files.setLastModifiedTime(first, past);
+
+        assertThat(cache.restore("key", List.of(tmpFolder.resolve("workspace2/splash.png").toString()))).isTrue();
+
+        assertThat(Files.getLastModifiedTime(first)).isEqualTo(past);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "bmp", "png" })
+    void should_keep_entries_intact_when_rendering_restored_outputs_without_cache(final String format)
+            throws Exception {
+        final OutputCache cache = new OutputCache(tmpFolder.resolve("cache"), Long.MAX_VALUE, "1.0");
+        final File output = tmpFolder.resolve("splash." + format).toFile();
+        setImageVersion(cache, output, "7.6.0", format).createImage();
+        setImageVersion(cache, output, "7.6.0", format).createImage();
+        final byte[] cached = Files.readAllBytes(output.toPath());
+
+        setImageVersion(null, output, "7.6.1", format).createImage();
+        final SetImageVersion restoring = setImageVersion(cache, output, "7.6.0", format);
+        restoring.createImage();
+
+        assertThat(restoring.getMetrics().isCached()).isTrue();
+        assertThat(Files.readAllBytes(output.toPath())).isEqualTo(cached);
+    }
+
+    private static SetImageVersion setImageVersion(final OutputCache cache, final File output,
+            final String versionLabel) {
+        return setImageVersion(cache, output, versionLabel, "png");
+    }
+
+    private static SetImageVersion setImageVersion(final OutputCache cache, final File output,
+            final String versionLabel, final String format) {
+        final SetImageVersion setImageVersion = new SetImageVersion();
+        setImageVersion.setBaseImgPath(new File(OutputCacheTest.class.getResource("/splash_sp_without_version.bmp")
+                .getFile()).getAbsolutePath());
+        setImageVersion.setOutputImagePath(output.getAbsolutePath());
+        setImageVersion.setOutputImageFormat(format);
+        setImageVersion.setVersionLabel(versionLabel);
+        setImageVersion.setxLocation(200);
+        setImageVersion.setyLocation(200);
+        setImageVersion.setOutputCache(cache);
+        return setImageVersion;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+class OutputExecutorTest {
+
+    @Test
+    void should_run_tasks_on_daemon_output_threads() throws Exception {
+        final Thread worker = CompletableFuture.supplyAsync(Thread::currentThread, OutputExecutor.shared()).get();
+
+        assertThat(worker.isDaemon()).isTrue();
+        assertThat(CompletableFuture.supplyAsync(OutputExecutor::isOutputThread, OutputExecutor.shared()).get())
+                .isTrue();
+        assertThat(OutputExecutor.isOutputThread()).isFalse();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutputFileTest {
+
+    private static final FileTime PAST = FileTime.fromMillis(1_000_000_000_000L);
+
+    @Test
+    void should_create_missing_output(@TempDir Path tmpFolder) throws Exception {
+        final Path output = tmpFolder.resolve("images").resolve("splash.png");
+
+        final boolean changed = OutputFile.write(output, file -> Files.write(file.toPath(), new byte[] { 1, 2, 3 }));
+
+        assertThat(changed).isTrue();
+        assertThat(output).hasBinaryContent(new byte[] { 1, 2, 3 });
+        assertThat(list(output.getParent())).containsExactly(output);
+    }
+
+    @Test
+    void should_keep_unchanged_output(@TempDir Path tmpFolder) throws Exception {
+        final Path output = Files.write(tmpFolder.resolve("splash.png"), new byte[] { 1, 2, 3 });
+        Files.setLastModifiedTime(output, PAST);
+
+        final boolean changed = OutputFile.write(output, file -> Files.write(file.toPath(), new byte[] { 1, 2, 3 }));
+
+        assertThat(changed).isFalse();
+        assertThat(Files.getLastModifiedTime(output)).isEqualTo(PAST);
+        assertThat(list(tmpFolder)).containsExactly(output);
+    }
+
+    @Test
+    void should_replace_changed_output(@TempDir Path tmpFolder) throws Exception {
+        final Path output = Files.write(tmpFolder.resolve("splash.png"), new byte[] { 1, 2, 3 });
+        final Path link = Files.createLink(tmpFolder.resolve("link.png"), output);
+
+        final boolean changed = OutputFile.write(output, file -> Files.write(file.toPath(), new byte[] { 1, 2, 4 }));
+
+        assertThat(changed).isTrue();
+        assertThat(output).hasBinaryContent(new byte[] { 1, 2, 4 });
+        // Renamed over, not written through
+        assertThat(link).hasBinaryContent(new byte[] { 1, 2, 3 });
+    }
+
+    @Test
+    void should_leave_output_untouched_when_writing_fails(@TempDir Path tmpFolder) throws Exception {
+        final Path output = Files.write(tmpFolder.resolve("splash.png"), new byte[] { 1, 2, 3 });
+
+        assertThrows(IOException.class, () -> OutputFile.write(output, file -> {
+            Files.write(file.toPath(), new byte[] { 9 });
+            throw new IOException("killed");
+        }));
+
+        assertThat(output).hasBinaryContent(new byte[] { 1, 2, 3 });
+        assertThat(list(tmpFolder)).containsExactly(output);
+    }
+
+    @Test
+    void should_compare_content() throws Exception {
+        assertThat(sameContent(new byte[] { 1, 2, 3 }, new byte[] { 1, 2, 3 })).isTrue();
+        assertThat(sameContent(new byte[] { 1, 2, 3 }, new byte[] { 1, 2, 4 })).isFalse();
+        assertThat(sameContent(new byte[] { 1, 2, 3 }, new byte[] { 1, 2 })).isFalse();
+        final byte[] large = new byte[200_000];
+        final byte[] other = large.clone();
+        other[150_000] = 1;
+        assertThat(sameContent(large, large.clone())).isTrue();
+        assertThat(sameContent(large, other)).isFalse();
+    }
+
+    private static boolean sameContent(final byte[] content, final byte[] other) throws IOException {
+        final Path file = Files.createTempFile("output", ".bin");
+        final Path otherFile = Files.createTempFile("output", ".bin");
+        try {
+            Files.write(file, content);
+            Files.write(otherFile, other);
+            return OutputFile.sameContent(file, otherFile);
+        } finally {
+            Files.delete(file);
+            Files.delete(otherFile);
+        }
+    }
+
+    private static Object[] list(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.toArray();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.Font;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OverlayRendererTest {
+
+    @TempDir
+    Path tmpFolder;
+
+    @Test
+    void should_render_a_spec() throws Exception {
+        final OverlayRenderer renderer = OverlayRenderer.builder().build();
+        final File output = tmpFolder.resolve("splash.png").toFile();
+
+        final RenderResult result = renderer.render(spec("7.6.0", output));
+
+        assertThat(output).exists().isNotEmpty();
+        assertThat(result.getOutputPaths()).containsExactly(output.getAbsolutePath());
+        assertThat(result.getMetrics().getWidth()).isEqualTo(600);
+    }
+
+    @Test
+    void should_render_concurrently_with_a_shared_renderer() throws Exception {
+        final OverlayRenderer renderer = OverlayRenderer.builder().maskCompositing(true).build();
+        final File expected = tmpFolder.resolve("expected.png").toFile();
+        renderer.render(spec("7.6.0", expected));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<RenderResult>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                final OverlaySpec spec = spec("7.6.0", tmpFolder.resolve("splash" + i + ".png").toFile());
+                results.add(executor.submit(() -> renderer.render(spec)));
+            }
+            for (final Future<RenderResult> result : results) {
+                final String outputPath = result.get().getOutputPaths().get(0);
+                SetImageVersionTest.assertSamePixels(ImageIO.read(new File(outputPath)), ImageIO.read(expected));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void should_derive_specs_without_changing_them() throws Exception {
+        final OverlaySpec spec = spec("7.6.0", tmpFolder.resolve("splash.png").toFile());
+
+        final OverlaySpec variant = spec.toBuilder().versionLabel("7.6.1").scale(2f).build();
+
+        assertThat(spec.getVersionLabel()).isEqualTo("7.6.0");
+        assertThat(spec.getScale()).isEqualTo(1f);
+        assertThat(variant.getVersionLabel()).isEqualTo("7.6.1");
+        assertThat(variant.getScale()).isEqualTo(2f);
+        assertThat(variant.getBaseImgPath()).isEqualTo(spec.getBaseImgPath());
+    }
+
+    @Test
+    void should_change_fingerprint_with_spec() throws Exception {
+        final OverlayRenderer renderer = OverlayRenderer.builder().build();
+        final OverlaySpec spec = spec("7.6.0", tmpFolder.resolve("splash.png").toFile());
+
+        assertThat(renderer.fingerprint(spec, "1.0")).isEqualTo(renderer.fingerprint(spec, "1.0"));
+        assertThat(renderer.fingerprint(spec.toBuilder().versionLabel("7.6.1").build(), "1.0"))
+                .isNotEqualTo(renderer.fingerprint(spec, "1.0"));
+    }
+
+    @Test
+    void should_fail_to_build_with_an_invalid_font() throws Exception {
+        final Path fontFile = Files.write(tmpFolder.resolve("invalid.otf"), new byte[] { 1, 2, 3 });
+
+        assertThrows(CreateImageException.class,
+                () -> OverlayRenderer.builder().font("invalid", fontFile.toString()).build());
+    }
+
+    @Test
+    void should_load_font_files_changed_after_build() throws Exception {
+        final Path fontFile = tmpFolder.resolve("MyFont.otf");
+        Files.write(fontFile, FontCache.readFontBytes(null));
+        final OverlayRenderer renderer = OverlayRenderer.builder().font("MyFont", fontFile.toString()).build();
+        final OverlaySpec spec = spec("7.6.0", tmpFolder.resolve("splash.png").toFile());
+        final Font font = renderer.getFont(spec);
+
+        try (InputStream medium = OverlayRendererTest.class.getResourceAsStream("/HelveticaNeueLTStd-MdCn.otf")) {
+            Files.write(fontFile, medium.readAllBytes());
+        }
+
+        assertThat(renderer.getFont(spec)).isNotSameAs(font);
+        assertThat(renderer.getFont(spec).getFontName()).isNotEqualTo(font.getFontName());
+    }
+
+    private static OverlaySpec spec(final String versionLabel, final File output) {
+        return OverlaySpec.builder()
+                .baseImgPath(new File(OverlayRendererTest.class.getResource("/splash_sp_without_version.bmp")
+                        .getFile()).getAbsolutePath())
+                .outputImagePath(output.getAbsolutePath())
+                .outputImageFormat("png")
+                .location(200, 200)
+                .buildId("20240101")
+                .buildIdLocation(200, 230)
+                .versionLabel(versionLabel)
+                .build();
+    }
+}
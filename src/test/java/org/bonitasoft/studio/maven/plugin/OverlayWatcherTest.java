@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OverlayWatcherTest {
+
+    private static final FileTime PAST = FileTime.fromMillis(1_000_000_000_000L);
+
+    @TempDir
+    Path tmpFolder;
+
+    @Test
+    void should_render_all_overlays_on_start() throws Exception {
+        final OverlaySpec splash = spec(copy("/splash_sp_without_version.bmp"), "splash.bmp", "bmp");
+        final OverlaySpec welcome = spec(copy("/Logo-Welcome-Community-Without-Version.png"), "welcome.png", "png");
+
+        try (OverlayWatcher watcher = watcher(List.of(splash, welcome))) {
+            watcher.start();
+        }
+
+        assertThat(Paths.get(splash.getOutputImagePath())).exists();
+        assertThat(Paths.get(welcome.getOutputImagePath())).exists();
+    }
+
+    @Test
+    void should_render_only_the_overlays_changed_in_the_sidecar() throws Exception {
+        final OverlaySpec splash = spec(copy("/splash_sp_without_version.bmp"), "splash.bmp", "bmp");
+        final OverlaySpec welcome = spec(copy("/Logo-Welcome-Community-Without-Version.png"), "welcome.png", "png");
+        try (OverlayWatcher watcher = watcher(List.of(splash, welcome))) {
+            watcher.start();
+            final Path splashOutput = Paths.get(splash.getOutputImagePath());
+            final byte[] rendered = Files.readAllBytes(splashOutput);
+            Files.setLastModifiedTime(Paths.get(welcome.getOutputImagePath()), PAST);
+
+            Files.write(tmpFolder.resolve("image-overlay.properties"),
+                    "splash.bmp.xLocation=250\nsplash.bmp.color=#ff0000\n".getBytes(StandardCharsets.ISO_8859_1));
+            final List<OverlaySpec> changed = watcher.awaitChanges(10, TimeUnit.SECONDS);
+
+            assertThat(changed).extracting(OverlaySpec::getOutputImagePath)
+                    .containsExactly(splash.getOutputImagePath());
+            assertThat(changed.get(0).getxLocation()).isEqualTo(250);
+            assertThat(Files.readAllBytes(splashOutput)).isNotEqualTo(rendered);
+            assertThat(Files.getLastModifiedTime(Paths.get(welcome.getOutputImagePath()))).isEqualTo(PAST);
+        }
+    }
+
+    @Test
+    void should_restore_the_overlays_when_the_sidecar_is_deleted() throws Exception {
+        final OverlaySpec splash = spec(copy("/splash_sp_without_version.bmp"), "splash.bmp", "bmp");
+        final Path sidecar = tmpFolder.resolve("image-overlay.properties");
+        Files.write(sidecar, "xLocation=250\n".getBytes(StandardCharsets.ISO_8859_1));
+        try (OverlayWatcher watcher = watcher(List.of(splash))) {
+            watcher.start();
+
+            Files.delete(sidecar);
+            final List<OverlaySpec> changed = watcher.awaitChanges(10, TimeUnit.SECONDS);
+
+            assertThat(changed).containsExactly(splash);
+        }
+    }
+
+    @Test
+    void should_render_the_overlays_of_a_changed_base_image() throws Exception {
+        final Path baseImage = copy("/splash_sp_without_version.bmp");
+        final OverlaySpec splash = spec(baseImage, "splash.bmp", "bmp");
+        final OverlaySpec welcome = spec(copy("/Logo-Welcome-Community-Without-Version.png"), "welcome.png", "png");
+        try (OverlayWatcher watcher = watcher(List.of(splash, welcome))) {
+            watcher.start();
+
+            ImageIO.write(new BufferedImage(300, 150, BufferedImage.TYPE_3BYTE_BGR), "bmp", baseImage.toFile());
+            final List<OverlaySpec> changed = watcher.awaitChanges(10, TimeUnit.SECONDS);
+
+            assertThat(changed).containsExactly(splash);
+            assertThat(ImageIO.read(new File(splash.getOutputImagePath())).getWidth()).isEqualTo(300);
+        }
+    }
+
+    @Test
+    void should_render_the_overlays_of_a_changed_font_file() throws Exception {
+        final Path fontFile = copy("/HelveticaNeueLTStd-Cn.otf");
+        final OverlaySpec splash = spec(copy("/splash_sp_without_version.bmp"), "splash.png", "png").toBuilder()
+                .font("MyFont", fontFile.toString())
+                .build();
+        final OverlaySpec welcome = spec(copy("/Logo-Welcome-Community-Without-Version.png"), "welcome.png", "png");
+        final BaseImageCache baseImageCache = new BaseImageCache();
+        baseImageCache.setPixelBudget(Long.MAX_VALUE);
+        try (OverlayWatcher watcher = new OverlayWatcher(new SystemStreamLog(), List.of(splash, welcome), null,
+                OverlayRenderer.builder().baseImageCache(baseImageCache).maskCompositing(true), 50)) {
+            watcher.start();
+            final BufferedImage rendered = ImageIO.read(new File(splash.getOutputImagePath()));
+
+            Files.copy(Paths.get(OverlayWatcherTest.class.getResource("/HelveticaNeueLTStd-MdCn.otf").toURI()),
+                    fontFile, StandardCopyOption.REPLACE_EXISTING);
+            final List<OverlaySpec> changed = watcher.awaitChanges(10, TimeUnit.SECONDS);
+
+            assertThat(changed).containsExactly(splash);
+            assertThat(differentPixels(ImageIO.read(new File(splash.getOutputImagePath())), rendered)).isPositive();
+        }
+    }
+
+    @Test
+    void should_keep_watching_after_a_failed_rendering() throws Exception {
+        final Path baseImage = copy("/splash_sp_without_version.bmp");
+        final OverlaySpec splash = spec(baseImage, "splash.bmp", "bmp");
+        try (OverlayWatcher watcher = watcher(List.of(splash))) {
+            watcher.start();
+
+            Files.write(baseImage, new byte[] { 1, 2, 3 });
+            assertThat(watcher.awaitChanges(10, TimeUnit.SECONDS)).isEmpty();
+
+            ImageIO.write(new BufferedImage(300, 150, BufferedImage.TYPE_3BYTE_BGR), "bmp", baseImage.toFile());
+            assertThat(watcher.awaitChanges(10, TimeUnit.SECONDS)).containsExactly(splash);
+        }
+    }
+
+    @Test
+    void should_return_nothing_without_changes() throws Exception {
+        final OverlaySpec splash = spec(copy("/splash_sp_without_version.bmp"), "splash.bmp", "bmp");
+        try (OverlayWatcher watcher = watcher(List.of(splash))) {
+            watcher.start();
+
+            assertThat(watcher.awaitChanges(50, TimeUnit.MILLISECONDS)).isEmpty();
+        }
+    }
+
+    private static int differentPixels(final BufferedImage image, final BufferedImage other) {
+        int count = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (image.getRGB(x, y) != other.getRGB(x, y)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private OverlayWatcher watcher(final List<OverlaySpec> specs) throws Exception {
+        final BaseImageCache baseImageCache = new BaseImageCache();
+        baseImageCache.setPixelBudget(Long.MAX_VALUE);
+        return new OverlayWatcher(new SystemStreamLog(), specs, tmpFolder.resolve("image-overlay.properties"),
+                OverlayRenderer.builder().baseImageCache(baseImageCache), 50);
+    }
+
+    private OverlaySpec spec(final Path baseImage, final String outputName, final String format) {
+        return OverlaySpec.builder()
+                .baseImgPath(baseImage.toString())
+                .outputImagePath(tmpFolder.resolve("target").resolve(outputName).toString())
+                .outputImageFormat(format)
+                .versionLabel("7.6.0")
+                .location(200, 200)
+                .build();
+    }
+
+    private Path copy(final String resource) throws Exception {
+        final Path directory = Files.createDirectories(tmpFolder.resolve("images"));
+        final Path target = directory.resolve(resource.substring(1));
+        Files.copy(Paths.get(OverlayWatcherTest.class.getResource(resource).toURI()), target);
+        return target;
+    }
+}
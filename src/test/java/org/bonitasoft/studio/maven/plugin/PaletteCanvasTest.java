@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+
+import org.junit.jupiter.api.Test;
+
+class PaletteCanvasTest {
+
+    private static final int BLUE = 0xFF0000FF;
+    private static final int GREEN = 0xFF00FF00;
+    private static final int RED = 0xFFFF0000;
+
+    @Test
+    void should_append_drawn_colors_to_the_palette() {
+        final BufferedImage source = paletteImage(4, BLUE, GREEN);
+        source.getRaster().setSample(1, 1, 0, 1);
+
+        final BufferedImage image = PaletteCanvas.draw(source, new Rectangle(4, 4, 4, 4), PaletteCanvasTest::fillRed);
+
+        assertThat(image.getColorModel()).isInstanceOf(IndexColorModel.class);
+        assertThat(((IndexColorModel) image.getColorModel()).getMapSize()).isEqualTo(3);
+        assertThat(image.getColorModel().getPixelSize()).isEqualTo(4);
+        assertThat(image.getRGB(1, 1)).isEqualTo(GREEN);
+        assertThat(image.getRGB(0, 0)).isEqualTo(BLUE);
+        assertThat(image.getRGB(5, 5)).isEqualTo(RED);
+        assertThat(image.getRGB(9, 9)).isEqualTo(BLUE);
+    }
+
+    @Test
+    void should_leave_the_source_untouched() {
+        final BufferedImage source = paletteImage(8, BLUE, GREEN);
+
+        PaletteCanvas.draw(source, new Rectangle(0, 0, 16, 16), PaletteCanvasTest::fillRed);
+
+        assertThat(source.getRGB(5, 5)).isEqualTo(BLUE);
+        assertThat(((IndexColorModel) source.getColorModel()).getMapSize()).isEqualTo(2);
+    }
+
+    @Test
+    void should_widen_packed_pixels_when_the_palette_grows() {
+        final BufferedImage source = paletteImage(1, BLUE, GREEN);
+        source.getRaster().setSample(1, 1, 0, 1);
+
+        final BufferedImage image = PaletteCanvas.draw(source, new Rectangle(4, 4, 4, 4), PaletteCanvasTest::fillRed);
+
+        assertThat(image.getType()).isEqualTo(BufferedImage.TYPE_BYTE_BINARY);
+        assertThat(image.getColorModel().getPixelSize()).isEqualTo(4);
+        assertThat(image.getRGB(5, 5)).isEqualTo(RED);
+        assertThat(image.getRGB(0, 0)).isEqualTo(BLUE);
+    }
+
+    @Test
+    void should_give_up_when_no_palette_color_is_close_enough() {
+        final int[] grays = new int[256];
+        for (int i = 0; i < grays.length; i++) {
+            grays[i] = new Color(i, i, i).getRGB();
+        }
+        final BufferedImage source = paletteImage(8, grays);
+        useAllColors(source);
+
+        assertThat(PaletteCanvas.draw(source, new Rectangle(4, 4, 4, 4), PaletteCanvasTest::fillRed)).isNull();
+    }
+
+    @Test
+    void should_map_to_the_closest_color_when_the_palette_is_full() {
+        final int[] grays = new int[256];
+        for (int i = 0; i < grays.length; i++) {
+            grays[i] = new Color(i, i, i).getRGB();
+        }
+        final BufferedImage source = paletteImage(8, grays);
+        useAllColors(source);
+
+        final BufferedImage image = PaletteCanvas.draw(source, new Rectangle(4, 4, 4, 4), (tile, x, y) -> {
+            final Graphics2D graphics = tile.createGraphics();
+            graphics.setColor(new Color(100, 103, 98));
+            graphics.fillRect(5 - x, 5 - y, 2, 2);
+            graphics.dispose();
+        });
+
+        assertThat(image.getRGB(5, 5)).isEqualTo(new Color(100, 100, 100).getRGB());
+        assertThat(((IndexColorModel) image.getColorModel()).getMapSize()).isEqualTo(256);
+    }
+
+    @Test
+    void should_only_accept_palette_images() {
+        assertThat(PaletteCanvas.isPaletteImage(paletteImage(8, BLUE, GREEN))).isTrue();
+        assertThat(PaletteCanvas.isPaletteImage(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB))).isFalse();
+        assertThat(PaletteCanvas.isPaletteImage(new BufferedImage(4, 4, BufferedImage.TYPE_BYTE_GRAY))).isFalse();
+    }
+
+    @Test
+    void should_reuse_palette_entries_no_pixel_uses() {
+        final BufferedImage source = paletteImage(8, BLUE, GREEN, GREEN, GREEN);
+
+        final BufferedImage image = PaletteCanvas.draw(source, new Rectangle(4, 4, 4, 4), PaletteCanvasTest::fillRed);
+
+        assertThat(((IndexColorModel) image.getColorModel()).getMapSize()).isEqualTo(4);
+        assertThat(image.getRaster().getSample(5, 5, 0)).isEqualTo(1);
+        assertThat(image.getRGB(5, 5)).isEqualTo(RED);
+    }
+
+    private static void useAllColors(final BufferedImage image) {
+        for (int i = 0; i < 256; i++) {
+            image.getRaster().setSample(i % 16, i / 16, 0, i);
+        }
+    }
+
+    private static void fillRed(final BufferedImage tile, final int x, final int y) {
+        final Graphics2D graphics = tile.createGraphics();
+        graphics.setColor(new Color(RED));
+        graphics.fillRect(5 - x, 5 - y, 2, 2);
+        graphics.dispose();
+    }
+
+    private static BufferedImage paletteImage(final int bits, final int... colors) {
+        final IndexColorModel model = new IndexColorModel(bits, colors.length, colors, 0, false, -1,
+                DataBuffer.TYPE_BYTE);
+        return new BufferedImage(16, 16,
+                bits < 8 ? BufferedImage.TYPE_BYTE_BINARY : BufferedImage.TYPE_BYTE_INDEXED, model);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ParallelPngEncoderTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void should_encode_rgb_images_in_several_blocks() throws Exception {
+        final BufferedImage image = gradient(BufferedImage.TYPE_INT_RGB);
+        final ParallelPngEncoder encoder = new ParallelPngEncoder(image, 6);
+
+        final byte[] png = encode(encoder);
+
+        assertThat(encoder.getBlockCount()).isGreaterThan(4);
+        SetImageVersionTest.assertSamePixels(decode(png), image);
+        assertValidZlibStream(png);
+    }
+
+    @Test
+    void should_encode_rgba_images() throws Exception {
+        final BufferedImage image = gradient(BufferedImage.TYPE_INT_ARGB);
+
+        final BufferedImage decoded = decode(encode(new ParallelPngEncoder(image, -1)));
+
+        assertThat(decoded.getColorModel().hasAlpha()).isTrue();
+        SetImageVersionTest.assertSamePixels(decoded, image);
+    }
+
+    @Test
+    void should_encode_byte_interleaved_images() throws Exception {
+        for (final int type : new int[] { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR }) {
+            final BufferedImage image = gradient(type);
+
+            SetImageVersionTest.assertSamePixels(decode(encode(new ParallelPngEncoder(image, 2))), image);
+        }
+    }
+
+    @Test
+    void should_encode_gray_and_palette_images() throws Exception {
+        final BufferedImage gray = gradient(BufferedImage.TYPE_BYTE_GRAY);
+        assertThat(decode(encode(new ParallelPngEncoder(gray, 1))).getRaster().getSample(500, 200, 0))
+                .isEqualTo(gray.getRaster().getSample(500, 200, 0));
+
+        final int[] colors = { 0xFF000000, 0x80FF0000, 0xFF00FF00 };
+        final BufferedImage palette = new BufferedImage(700, 300, BufferedImage.TYPE_BYTE_INDEXED,
+                new IndexColorModel(8, colors.length, colors, 0, true, -1, DataBuffer.TYPE_BYTE));
+        for (int y = 0; y < 300; y++) {
+            for (int x = 0; x < 700; x++) {
+                palette.getRaster().setSample(x, y, 0, (x + y) % 3);
+            }
+        }
+        final BufferedImage decoded = decode(encode(new ParallelPngEncoder(palette, 9)));
+        assertThat(decoded.getColorModel()).isInstanceOf(IndexColorModel.class);
+        SetImageVersionTest.assertSamePixels(decoded, palette);
+    }
+
+    @Test
+    void should_encode_images_smaller_than_a_block() throws Exception {
+        final BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(1, 1, Color.RED.getRGB());
+        final ParallelPngEncoder encoder = new ParallelPngEncoder(image, 4);
+
+        final byte[] png = encode(encoder);
+
+        assertThat(encoder.getBlockCount()).isEqualTo(1);
+        SetImageVersionTest.assertSamePixels(decode(png), image);
+    }
+
+    @Test
+    void should_only_encode_8_bit_images() {
+        assertThat(ParallelPngEncoder.canEncode(new BufferedImage(4, 4, BufferedImage.TYPE_3BYTE_BGR))).isTrue();
+        assertThat(ParallelPngEncoder.canEncode(new BufferedImage(4, 4, BufferedImage.TYPE_BYTE_BINARY))).isFalse();
+        assertThat(ParallelPngEncoder.canEncode(new BufferedImage(4, 4, BufferedImage.TYPE_USHORT_GRAY))).isFalse();
+        assertThat(ParallelPngEncoder.canEncode(new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB_PRE)))
+                .isFalse();
+    }
+
+    @Test
+    void should_combine_adler32_checksums() {
+        final byte[] first = "image overlay ".getBytes(StandardCharsets.US_ASCII);
+        final byte[] second = new byte[100_000];
+        Arrays.fill(second, (byte) 0xFE);
+        final Adler32 whole = new Adler32();
+        whole.update(first);
+        whole.update(second);
+
+        assertThat(ParallelPngEncoder.combineAdler32(adler32(first), adler32(second), second.length))
+                .isEqualTo(whole.getValue());
+    }
+
+    @Test
+    void should_write_png_outputs_with_the_parallel_encoder(@TempDir Path tmpFolder) throws Exception {
+        final SetImageVersion setImageVersion = new SetImageVersion();
+        setImageVersion.setBaseImgPath(
+                new File(ParallelPngEncoderTest.class.getResource("/Logo-Welcome-Community-Without-Version.png")
+                        .getFile()).getAbsolutePath());
+        setImageVersion.setxLocation(192);
+        setImageVersion.setyLocation(78);
+        setImageVersion.setVersionLabel("7.6.0");
+        setImageVersion.setOutputImageFormat("png");
+        final File jdk = tmpFolder.resolve("jdk.png").toFile();
+        setImageVersion.setOutputImagePath(jdk.getAbsolutePath());
+        setImageVersion.createImage();
+        setImageVersion.setEncoderSettings(new EncoderSettings(-1, -1f, false, null, true));
+        final File parallel = tmpFolder.resolve("parallel.png").toFile();
+        setImageVersion.setOutputImagePath(parallel.getAbsolutePath());
+        setImageVersion.createImage();
+
+        SetImageVersionTest.assertSamePixels(ImageIO.read(parallel), ImageIO.read(jdk));
+    }
+
+    private byte[] encode(final ParallelPngEncoder encoder) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.write(out, pool);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(final byte[] png) throws Exception {
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+
+    private static long adler32(final byte[] bytes) {
+        final Adler32 adler = new Adler32();
+        adler.update(bytes);
+        return adler.getValue();
+    }
+
+    /**
+     * Inflates the concatenated IDAT chunks as a single zlib stream, which checks the combined Adler-32.
+     */
+    private static void assertValidZlibStream(final byte[] png) throws Exception {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(png, 8, png.length - 8));
+        final ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        while (in.available() > 0) {
+            final byte[] data = new byte[in.readInt()];
+            final byte[] type = new byte[4];
+            in.readFully(type);
+            in.readFully(data);
+            in.readInt();
+            if ("IDAT".equals(new String(type, StandardCharsets.US_ASCII))) {
+                idat.write(data);
+            }
+        }
+        final Inflater inflater = new Inflater();
+        inflater.setInput(idat.toByteArray());
+        final byte[] buffer = new byte[64 * 1024];
+        while (!inflater.finished()) {
+            assertThat(inflater.inflate(buffer)).isPositive();
+        }
+        assertThat(inflater.getRemaining()).isZero();
+        inflater.end();
+    }
+
+    private static BufferedImage gradient(final int type) {
+        final BufferedImage image = new BufferedImage(1000, 400, type);
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(255, 0, 0, 40), 1000, 400, Color.BLUE));
+        graphics.fillRect(0, 0, 1000, 400);
+        graphics.setColor(Color.WHITE);
+        graphics.drawString("7.6.0", 20, 60);
+        graphics.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PngOptimizerTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void should_drop_the_alpha_channel_of_opaque_images() throws Exception {
+        final BufferedImage image = gradient(BufferedImage.TYPE_INT_ARGB, Color.BLUE);
+
+        final BufferedImage optimized = decode(new PngOptimizer(1, pool).optimize(image));
+
+        assertThat(optimized.getColorModel().hasAlpha()).isFalse();
+        SetImageVersionTest.assertSamePixels(optimized, image);
+    }
+
+    @Test
+    void should_reduce_images_with_few_colors_to_a_palette() throws Exception {
+        final BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(255, 0, 0, 128));
+        graphics.fillRect(0, 0, 150, 200);
+        graphics.setColor(Color.GREEN);
+        graphics.fillRect(150, 0, 150, 100);
+        graphics.dispose();
+
+        final BufferedImage optimized = decode(new PngOptimizer(1, pool).optimize(image));
+
+        assertThat(optimized.getColorModel()).isInstanceOf(IndexColorModel.class);
+        SetImageVersionTest.assertSamePixels(optimized, image);
+    }
+
+    @Test
+    void should_list_reductions_most_compact_first() {
+        final BufferedImage grays = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        grays.setRGB(3, 3, Color.GRAY.getRGB());
+        final List<BufferedImage> reductions = PngOptimizer.reductions(grays);
+
+        assertThat(reductions).extracting(BufferedImage::getType).containsExactly(BufferedImage.TYPE_BYTE_INDEXED,
+                BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_RGB);
+        assertThat(reductions.get(1).getRaster().getSample(3, 3, 0)).isEqualTo(Color.GRAY.getRed());
+        final BufferedImage translucent = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                translucent.setRGB(x, y, 0x80000000 | x << 16 | y << 8);
+            }
+        }
+        assertThat(PngOptimizer.reductions(translucent)).extracting(BufferedImage::getType)
+                .containsExactly(BufferedImage.TYPE_INT_ARGB);
+    }
+
+    @Test
+    void should_never_grow_with_the_effort() throws Exception {
+        final BufferedImage image = gradient(BufferedImage.TYPE_INT_RGB, Color.BLUE);
+
+        final int effort1 = new PngOptimizer(1, pool).optimize(image).length;
+        final int effort2 = new PngOptimizer(2, pool).optimize(image).length;
+        final int effort3 = new PngOptimizer(3, pool).optimize(image).length;
+
+        assertThat(effort2).isLessThanOrEqualTo(effort1);
+        assertThat(effort3).isLessThanOrEqualTo(effort2);
+    }
+
+    @Test
+    void should_reject_invalid_efforts() {
+        assertThrows(IllegalArgumentException.class, () -> new PngOptimizer(0, pool));
+        assertThrows(IllegalArgumentException.class, () -> new PngOptimizer(4, pool));
+        assertThrows(IllegalArgumentException.class, () -> EncoderSettings.DEFAULT.withPngOptimization(4));
+    }
+
+    @Test
+    void should_write_smaller_png_outputs(@TempDir Path tmpFolder) throws Exception {
+        final SetImageVersion setImageVersion = new SetImageVersion();
+        setImageVersion.setBaseImgPath(
+                new File(PngOptimizerTest.class.getResource("/Logo-Welcome-Community-Without-Version.png").getFile())
+                        .getAbsolutePath());
+        setImageVersion.setxLocation(192);
+        setImageVersion.setyLocation(78);
+        setImageVersion.setVersionLabel("7.6.0");
+        setImageVersion.setOutputImageFormat("png");
+        final File plain = tmpFolder.resolve("plain.png").toFile();
+        setImageVersion.setOutputImagePath(plain.getAbsolutePath());
+        setImageVersion.createImage();
+        setImageVersion.setEncoderSettings(EncoderSettings.DEFAULT.withPngOptimization(2));
+        final File optimized = tmpFolder.resolve("optimized.png").toFile();
+        setImageVersion.setOutputImagePath(optimized.getAbsolutePath());
+        setImageVersion.createImage();
+
+        assertThat(optimized.length()).isLessThan(plain.length());
+        SetImageVersionTest.assertSamePixels(ImageIO.read(optimized), ImageIO.read(plain));
+    }
+
+    private static BufferedImage decode(final byte[] png) throws Exception {
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+
+    private static BufferedImage gradient(final int type, final Color to) {
+        final BufferedImage image = new BufferedImage(400, 300, type);
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.RED, 400, 300, to));
+        graphics.fillRect(0, 0, 400, 300);
+        graphics.setColor(Color.WHITE);
+        graphics.drawString("7.6.0", 20, 60);
+        graphics.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RenderPipelineTest {
+
+    @TempDir
+    Path tmpFolder;
+
+    @Test
+    void should_write_the_same_images_as_sequential_rendering() throws Exception {
+        final List<String> formats = List.of("png", "bmp", "jpg", "png", "bmp", "jpg");
+        final List<CompletableFuture<RenderMetrics>> results = new ArrayList<>();
+        try (RenderPipeline pipeline = new RenderPipeline(2)) {
+            for (int i = 0; i < formats.size(); i++) {
+                results.add(pipeline.submit(setImageVersion(tmpFolder.resolve("pipelined" + i + "." + formats.get(i)),
+                        formats.get(i), "7.6." + i)));
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get();
+        }
+
+        for (int i = 0; i < formats.size(); i++) {
+            final Path sequential = tmpFolder.resolve("sequential" + i + "." + formats.get(i));
+            setImageVersion(sequential, formats.get(i), "7.6." + i).createImage();
+            assertThat(Files.readAllBytes(tmpFolder.resolve("pipelined" + i + "." + formats.get(i))))
+                    .isEqualTo(Files.readAllBytes(sequential));
+            assertThat(results.get(i).get().getBytesWritten()).isEqualTo(Files.size(sequential));
+        }
+    }
+
+    @Test
+    void should_bound_the_images_in_flight() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final List<CompletableFuture<RenderMetrics>> results = new ArrayList<>();
+        try (RenderPipeline pipeline = new RenderPipeline(1, 2)) {
+            for (int i = 0; i < 8; i++) {
+                final SetImageVersion setImageVersion = new SetImageVersion() {
+
+                    @Override
+                    BufferedImage decodeImage() throws CreateImageException {
+                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        return super.decodeImage();
+                    }
+
+                    @Override
+                    BufferedImage composeImage(final BufferedImage loadImg) {
+                        try {
+                            Thread.sleep(20);
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return super.composeImage(loadImg);
+                    }
+
+                    @Override
+                    void encodeImage(final BufferedImage img) throws CreateImageException {
+                        super.encodeImage(img);
+                        inFlight.decrementAndGet();
+                    }
+                };
+                configure(setImageVersion, tmpFolder.resolve("splash" + i + ".png"), "png", "7.6.0");
+                results.add(pipeline.submit(setImageVersion));
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get();
+        }
+
+        assertThat(maxInFlight.get()).isBetween(1, 2);
+        assertThat(tmpFolder.resolve("splash7.png")).exists();
+    }
+
+    @Test
+    void should_report_failures_per_image() throws Exception {
+        final SetImageVersion missing = setImageVersion(tmpFolder.resolve("missing.png"), "png", "7.6.0");
+        missing.setBaseImgPath(tmpFolder.resolve("not_existing.png").toString());
+        try (RenderPipeline pipeline = new RenderPipeline(1)) {
+            final CompletableFuture<RenderMetrics> failed = pipeline.submit(missing);
+            final CompletableFuture<RenderMetrics> rendered = pipeline
+                    .submit(setImageVersion(tmpFolder.resolve("splash.png"), "png", "7.6.0"));
+
+            final ExecutionException exception = assertThrows(ExecutionException.class, failed::get);
+            assertThat(exception.getCause()).isInstanceOf(CreateImageException.class);
+            assertThat(rendered.get().getBytesWritten()).isPositive();
+        }
+    }
+
+    private static SetImageVersion setImageVersion(final Path output, final String format,
+            final String versionLabel) {
+        final SetImageVersion setImageVersion = new SetImageVersion();
+        configure(setImageVersion, output, format, versionLabel);
+        return setImageVersion;
+    }
+
+    private static void configure(final SetImageVersion setImageVersion, final Path output, final String format,
+            final String versionLabel) {
+        setImageVersion.setBaseImgPath(new File(RenderPipelineTest.class.getResource("/splash_sp_without_version.bmp")
+                .getFile()).getAbsolutePath());
+        setImageVersion.setOutputImagePath(output.toString());
+        setImageVersion.setOutputImageFormat(format);
+        setImageVersion.setVersionLabel(versionLabel);
+        setImageVersion.setxLocation(200);
+        setImageVersion.setyLocation(200);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3DomBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SetImageVersionAggregateMojoTest {
+
+    private static final String GROUP_ID = "org.bonitasoft.maven";
+    private static final String ARTIFACT_ID = "image-overlay-plugin";
+
+    private static final long RENDERED_AT = 1_000_000_000_000L;
+
+    @TempDir
+    Path tmpFolder;
+
+    private MavenSession session;
+
+    @Test
+    void should_render_the_overlays_of_all_modules_in_their_own_directory() throws Exception {
+        final MavenProject splash = project("splash", execution("create-image",
+                "<configuration>" + overlay("/splash_sp_without_version.bmp", "target/splash.bmp", "bmp")
+                        + "<scales><scale>1</scale><scale>2</scale></scales></configuration>"));
+        final MavenProject welcome = project("welcome", execution("create-images",
+                "<configuration><overlays><overlay>"
+                        + overlay("/Logo-Welcome-Community-Without-Version.png", "target/welcome.png", "png")
+                        + "</overlay><overlay>"
+                        + overlay("/splash_sp_without_version.bmp", "target/about.png", "png")
+                        + "</overlay></overlays></configuration>"));
+        final MavenProject parent = project("parent");
+        final SetImageVersionAggregateMojo mojo = mojo(parent, splash, welcome);
+
+        mojo.execute();
+
+        assertThat(tmpFolder.resolve("splash/target/splash.bmp")).exists().isNotEmptyFile();
+        assertThat(tmpFolder.resolve("splash/target/splash@2x.bmp")).exists().isNotEmptyFile();
+        assertThat(tmpFolder.resolve("welcome/target/welcome.png")).exists().isNotEmptyFile();
+        assertThat(tmpFolder.resolve("welcome/target/about.png")).exists().isNotEmptyFile();
+        assertThat(tmpFolder.resolve("parent/target")).doesNotExist();
+    }
+
+    @Test
+    void should_keep_incremental_state_in_each_module() throws Exception {
+        final MavenProject splash = project("splash", execution("create-image",
+                "<configuration>" + overlay("/splash_sp_without_version.bmp", "target/splash.bmp", "bmp")
+                        + "</configuration>"));
+        final SetImageVersionAggregateMojo mojo = mojo(splash);
+        mojo.setIncremental(true);
+        mojo.execute();
+        final File output = tmpFolder.resolve("splash/target/splash.bmp").toFile();
+        final long renderedAt = output.lastModified();
+
+        mojo.execute();
+
+        assertThat(tmpFolder.resolve("splash/target").resolve(IncrementalState.STATE_DIRECTORY)).isDirectory();
+        assertThat(output.lastModified()).isEqualTo(renderedAt);
+    }
+
+    @Test
+    void should_report_failures_with_their_module() throws Exception {
+        final MavenProject broken = project("broken", execution("create-image",
+                "<configuration>" + overlay("/not_existing.bmp", "target/splash.bmp", "bmp") + "</configuration>"));
+        final SetImageVersionAggregateMojo mojo = mojo(broken);
+
+        final MojoExecutionException exception = assertThrows(MojoExecutionException.class, mojo::execute);
+
+        assertThat(exception.getMessage()).contains("1 of 1", "broken: ");
+    }
+
+    @Test
+    void should_evaluate_the_expressions_of_each_module() throws Exception {
+        final MavenProject splash = project("splash", execution("create-image",
+                "<configuration>" + overlay("/splash_sp_without_version.bmp",
+                        "${outputDirectory}/${project.artifactId}-${buildNumber}.bmp", "bmp") + "</configuration>"));
+        splash.getProperties().setProperty("buildNumber", "42");
+        final SetImageVersionAggregateMojo mojo = mojo(splash);
+        session.getUserProperties().setProperty("outputDirectory", "generated");
+
+        mojo.execute();
+
+        assertThat(tmpFolder.resolve("splash/generated/splash-42.bmp")).exists().isNotEmptyFile();
+    }
+
+    @Test
+    void should_keep_the_settings_of_each_execution() throws Exception {
+        final MavenProject splash = project("splash", execution("create-image",
+                "<configuration>" + overlay("/splash_sp_without_version.bmp", "target/splash.bmp", "bmp")
+                        + "<incremental>true</incremental></configuration>"));
+        final MavenProject about = project("about", execution("create-image",
+                "<configuration>" + overlay("/splash_sp_without_version.bmp", "target/about.bmp", "bmp")
+                        + "</configuration>"));
+        final SetImageVersionAggregateMojo mojo = mojo(splash, about);
+        mojo.execute();
+        final File splashOutput = tmpFolder.resolve("splash/target/splash.bmp").toFile();
+        final File aboutOutput = tmpFolder.resolve("about/target/about.bmp").toFile();
+        final long splashRenderedAt = splashOutput.lastModified();
+        assertThat(aboutOutput.setLastModified(RENDERED_AT)).isTrue();
+
+        mojo.execute();
+
+        assertThat(splashOutput.lastModified()).isEqualTo(splashRenderedAt);
+        assertThat(aboutOutput.lastModified()).isNotEqualTo(RENDERED_AT);
+    }
+
+    @Test
+    void should_encode_with_the_settings_of_each_execution() throws Exception {
+        final MavenProject splash = project("splash", execution("create-image",
+                "<configuration>" + overlay("/splash_sp_without_version.bmp", "target/splash.png", "png")
+                        + "<pngCompressionLevel>10</pngCompressionLevel></configuration>"));
+        final SetImageVersionAggregateMojo mojo = mojo(splash);
+
+        final MojoFailureException exception = assertThrows(MojoFailureException.class, mojo::execute);
+
+        assertThat(exception.getMessage()).contains("compression level 10");
+    }
+
+    @Test
+    void should_skip_the_executions_configured_to_be_skipped() throws Exception {
+        final MavenProject splash = project("splash", execution("create-image",
+                "<configuration>" + overlay("/splash_sp_without_version.bmp", "target/splash.bmp", "bmp")
+                        + "<skip>true</skip></configuration>"));
+        final SetImageVersionAggregateMojo mojo = mojo(splash);
+
+        mojo.execute();
+
+        assertThat(tmpFolder.resolve("splash/target/splash.bmp")).doesNotExist();
+    }
+
+    @SuppressWarnings("deprecation")
+    private SetImageVersionAggregateMojo mojo(final MavenProject... projects) {
+        final SetImageVersionAggregateMojo mojo = new SetImageVersionAggregateMojo();
+        mojo.setReactorProjects(List.of(projects));
+        mojo.setPluginKey(GROUP_ID + ":" + ARTIFACT_ID);
+        mojo.setThreads(2);
+        session = new MavenSession(null, null, new DefaultMavenExecutionRequest(), new DefaultMavenExecutionResult());
+        mojo.setSession(session);
+        mojo.setMojoExecution(new MojoExecution(new MojoDescriptor()));
+        return mojo;
+    }
+
+    private MavenProject project(final String artifactId, final PluginExecution... executions) {
+        final File basedir = tmpFolder.resolve(artifactId).toFile();
+        final Model model = new Model();
+        model.setGroupId("org.bonitasoft.test");
+        model.setArtifactId(artifactId);
+        model.setVersion("1.0.0");
+        final Build build = new Build();
+        build.setDirectory(new File(basedir, "target").getAbsolutePath());
+        if (executions.length > 0) {
+            final Plugin plugin = new Plugin();
+            plugin.setGroupId(GROUP_ID);
+            plugin.setArtifactId(ARTIFACT_ID);
+            plugin.setExecutions(List.of(executions));
+            build.addPlugin(plugin);
+        }
+        model.setBuild(build);
+        final MavenProject project = new MavenProject(model);
+        project.setFile(new File(basedir, "pom.xml"));
+        return project;
+    }
+
+    private static PluginExecution execution(final String goal, final String configuration) throws Exception {
+        final PluginExecution execution = new PluginExecution();
+        execution.setId(goal);
+        execution.addGoal(goal);
+        execution.setConfiguration(Xpp3DomBuilder.build(new StringReader(configuration)));
+        return execution;
+    }
+
+    private static String overlay(final String baseImage, final String output, final String format) {
+        return "<baseImgPath>" + resource(baseImage) + "</baseImgPath>"
+                + "<outputImagePath>" + output + "</outputImagePath>"
+                + "<outputImageFormat>" + format + "</outputImageFormat>"
+                + "<versionLabel>7.6.0</versionLabel>"
+                + "<xLocation>200</xLocation><yLocation>200</yLocation>";
+    }
+
+    private static String resource(final String name) {
+        final java.net.URL url = SetImageVersionAggregateMojoTest.class.getResource(name);
+        return url == null ? "/not/existing" + name : new File(url.getFile()).getAbsolutePath();
+    }
+}
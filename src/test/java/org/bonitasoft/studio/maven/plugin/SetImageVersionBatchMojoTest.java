@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SetImageVersionBatchMojoTest {
+
+    @Test
+    void should_create_all_images(@TempDir Path tmpFolder) throws Exception {
+        final SetImageVersionBatchMojo mojo = new SetImageVersionBatchMojo();
+        final File splash = tmpFolder.resolve("splash.bmp").toFile();
+        final File welcome = tmpFolder.resolve("welcome.png").toFile();
+        mojo.setOverlays(List.of(
+                overlay(resource("/splash_sp_without_version.bmp"), splash, "bmp"),
+                overlay(resource("/Logo-Welcome-Community-Without-Version.png"), welcome, "png")));
+
+        mojo.execute();
+
+        assertThat(splash).exists().isNotEmpty();
+        assertThat(welcome).exists().isNotEmpty();
+    }
+
+    @Test
+    void should_report_all_failures_after_rendering_other_images(@TempDir Path tmpFolder) throws Exception {
+        final SetImageVersionBatchMojo mojo = new SetImageVersionBatchMojo();
+        mojo.setThreads(2);
+        final File splash = tmpFolder.resolve("splash.bmp").toFile();
+        mojo.setOverlays(List.of(
+                overlay("/not_existing.bmp", tmpFolder.resolve("missing1.bmp").toFile(), "bmp"),
+                overlay(resource("/splash_sp_without_version.bmp"), splash, "bmp"),
+                overlay("/not_existing.png", tmpFolder.resolve("missing2.png").toFile(), "png")));
+
+        final MojoExecutionException exception = assertThrows(MojoExecutionException.class, mojo::execute);
+
+        assertThat(exception.getMessage()).contains("2 of 3", "missing1.bmp", "missing2.png");
+        assertThat(splash).exists().isNotEmpty();
+    }
+
+    @Test
+    void should_create_all_images_in_a_pipeline(@TempDir Path tmpFolder) throws Exception {
+        final SetImageVersionBatchMojo mojo = new SetImageVersionBatchMojo();
+        mojo.setPipelined(true);
+        mojo.setThreads(1);
+        final File splash = tmpFolder.resolve("splash.bmp").toFile();
+        final File welcome = tmpFolder.resolve("welcome.png").toFile();
+        mojo.setOverlays(List.of(
+                overlay(resource("/splash_sp_without_version.bmp"), splash, "bmp"),
+                overlay(resource("/Logo-Welcome-Community-Without-Version.png"), welcome, "png"),
+                overlay("/not_existing.png", tmpFolder.resolve("missing.png").toFile(), "png")));
+
+        final MojoExecutionException exception = assertThrows(MojoExecutionException.class, mojo::execute);
+
+        assertThat(exception.getMessage()).contains("1 of 3", "missing.png");
+        assertThat(splash).exists().isNotEmpty();
+        assertThat(welcome).exists().isNotEmpty();
+    }
+
+    @Test
+    void should_skip_up_to_date_images(@TempDir Path tmpFolder) throws Exception {
+        final SetImageVersionBatchMojo mojo = new SetImageVersionBatchMojo();
+        mojo.setIncremental(true);
+        mojo.setBuildDirectory(tmpFolder.resolve("target").toFile());
+        final File splash = tmpFolder.resolve("splash.bmp").toFile();
+        final Overlay overlay = overlay(resource("/splash_sp_without_version.bmp"), splash, "bmp");
+        mojo.setOverlays(List.of(overlay));
+        mojo.execute();
+        final long renderedAt = splash.lastModified();
+        final byte[] rendered = Files.readAllBytes(splash.toPath());
+
+        mojo.execute();
+        assertThat(splash.lastModified()).isEqualTo(renderedAt);
+
+        overlay.setVersionLabel("7.6.1");
+        mojo.execute();
+        assertThat(Files.readAllBytes(splash.toPath())).isNotEqualTo(rendered);
+    }
+
+    @Test
+    void should_render_again_when_the_color_model_setting_changes(@TempDir Path tmpFolder) throws Exception {
+        final File baseImage = tmpFolder.resolve("indexed.png").toFile();
+        ImageIO.write(new BufferedImage(600, 300, BufferedImage.TYPE_BYTE_INDEXED), "png", baseImage);
+        final SetImageVersionBatchMojo mojo = new SetImageVersionBatchMojo();
+        mojo.setIncremental(true);
+        mojo.setBuildDirectory(tmpFolder.resolve("target").toFile());
+        final File output = tmpFolder.resolve("splash.png").toFile();
+        mojo.setOverlays(List.of(overlay(baseImage.getAbsolutePath(), output, "png")));
+        mojo.execute();
+        assertThat(ImageIO.read(output).getColorModel()).isNotInstanceOf(IndexColorModel.class);
+
+        mojo.setPreserveColorModel(true);
+        mojo.execute();
+
+        assertThat(ImageIO.read(output).getColorModel()).isInstanceOf(IndexColorModel.class);
+    }
+
+    @Test
+    void should_render_again_when_an_additional_output_is_missing(@TempDir Path tmpFolder) throws Exception {
+        final SetImageVersionBatchMojo mojo = new SetImageVersionBatchMojo();
+        mojo.setIncremental(true);
+        mojo.setBuildDirectory(tmpFolder.resolve("target").toFile());
+        final File splash = tmpFolder.resolve("splash.bmp").toFile();
+        final File splashPng = tmpFolder.resolve("splash.png").toFile();
+        final Overlay overlay = overlay(resource("/splash_sp_without_version.bmp"), splash, "bmp");
+        overlay.setAdditionalOutputs(List.of(new OutputImage(splashPng.getAbsolutePath(), "png")));
+        mojo.setOverlays(List.of(overlay));
+        mojo.execute();
+        assertThat(splashPng).exists().isNotEmpty();
+
+        splashPng.delete();
+        mojo.execute();
+
+        assertThat(splashPng).exists().isNotEmpty();
+    }
+
+    @Test
+    void should_write_metrics_report(@TempDir Path tmpFolder) throws Exception {
+        final SetImageVersionBatchMojo mojo = new SetImageVersionBatchMojo();
+        mojo.setMetricsReport(true);
+        final Path buildDirectory = tmpFolder.resolve("target");
+        mojo.setBuildDirectory(buildDirectory.toFile());
+        final File splash = tmpFolder.resolve("splash.bmp").toFile();
+        mojo.setOverlays(List.of(overlay(resource("/splash_sp_without_version.bmp"), splash, "bmp")));
+
+        mojo.execute();
+
+        final Path report = buildDirectory.resolve(IncrementalState.STATE_DIRECTORY)
+                .resolve(OverlayExecution.METRICS_DIRECTORY)
+                .resolve(Fingerprint.pathKey(splash.getAbsolutePath()) + ".json");
+        assertThat(report).exists();
+        assertThat(Files.readString(report)).contains("\"width\":600", "\"height\":300", "\"stages\":{\"font\":");
+    }
+
+    private static Overlay overlay(String baseImgPath, File output, String format) {
+        final Overlay overlay = new Overlay();
+        overlay.setBaseImgPath(baseImgPath);
+        overlay.setOutputImagePath(output.getAbsolutePath());
+        overlay.setOutputImageFormat(format);
+        overlay.setVersionLabel("7.6.0");
+        overlay.setxLocation(200);
+        overlay.setyLocation(200);
+        return overlay;
+    }
+
+    private static String resource(String name) {
+        return new File(SetImageVersionBatchMojoTest.class.getResource(name).getFile()).getAbsolutePath();
+    }
+
+}
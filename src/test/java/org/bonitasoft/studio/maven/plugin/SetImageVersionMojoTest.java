@@ -17,16 +17,28 @@
  */
 package org.bonitasoft.studio.maven.plugin;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
 import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -42,7 +54,7 @@ class SetImageVersionMojoTest {
 
     @BeforeEach
     public void setUp() throws Exception {
-        doReturn(setImageVersion).when(setImageVersionMojo).createSetImageVersion();
+        lenient().doReturn(setImageVersion).when(setImageVersionMojo).createSetImageVersion();
     }
 
     @Test
@@ -57,4 +69,51 @@ class SetImageVersionMojoTest {
         assertThrows(MojoExecutionException.class, () -> setImageVersionMojo.execute());
     }
 
+    @Test
+    void should_not_call_createImage_when_image_is_up_to_date(@TempDir Path tmpFolder) throws Exception {
+        final File buildDirectory = tmpFolder.resolve("target").toFile();
+        final String outputImagePath = tmpFolder.resolve("splash.bmp").toString();
+        Files.write(Path.of(outputImagePath), new byte[] { 1 });
+        new IncrementalState(buildDirectory).save(outputImagePath, "abc");
+        doReturn("abc").when(setImageVersion).fingerprint(any());
+        setImageVersionMojo.setIncremental(true);
+        setImageVersionMojo.setBuildDirectory(buildDirectory);
+        setImageVersionMojo.setOutputImagePath(outputImagePath);
+
+        setImageVersionMojo.execute();
+
+        verify(setImageVersion, never()).createImage();
+    }
+
+    @Test
+    void should_create_one_image_per_scale(@TempDir Path tmpFolder) throws Exception {
+        final String outputImagePath = tmpFolder.resolve("splash.png").toString();
+        setImageVersionMojo.setOutputImagePath(outputImagePath);
+        setImageVersionMojo.setScales(List.of(1f, 2f));
+
+        setImageVersionMojo.execute();
+
+        verify(setImageVersion, times(2)).createImage();
+        verify(setImageVersion).setScale(1f);
+        verify(setImageVersion).setScale(2f);
+        verify(setImageVersion).setOutputImagePath(tmpFolder.resolve("splash@2x.png").toString());
+    }
+
+    @Test
+    void should_reject_invalid_scales() throws Exception {
+        setImageVersionMojo.setScales(List.of(0f));
+
+        assertThrows(MojoFailureException.class, () -> setImageVersionMojo.execute());
+    }
+
+    @Test
+    void should_name_scaled_outputs_with_hidpi_suffix() throws Exception {
+        assertThat(SetImageVersionMojo.scaledOutputPath("img/splash.bmp", 1f)).isEqualTo("img/splash.bmp");
+        assertThat(SetImageVersionMojo.scaledOutputPath("img/splash.bmp", 2f))
+                .isEqualTo(new File("img", "splash@2x.bmp").getPath());
+        assertThat(SetImageVersionMojo.scaledOutputPath("img/splash.bmp", 1.5f))
+                .isEqualTo(new File("img", "splash@1.5x.bmp").getPath());
+        assertThat(SetImageVersionMojo.scaledOutputPath("splash", 3f)).isEqualTo("splash@3x");
+    }
+
 }
@@ -21,11 +21,25 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
 
 import org.assertj.core.api.Condition;
 import org.bonitasoft.studio.maven.plugin.exception.CreateImageException;
@@ -160,6 +174,296 @@ class SetImageVersionTest {
         assertThat(imageFile).exists().canRead();
     }
 
+    @Test
+    void render_in_place_produces_same_pixels(@TempDir Path tmpFolder) throws Exception {
+        setImageVersion.setBaseImgPath(
+                new File(SetImageVersionTest.class.getResource("/splash_sp_without_version.bmp").getFile())
+                        .getAbsolutePath());
+        setImageVersion.setxLocation(200);
+        setImageVersion.setyLocation(200);
+        setImageVersion.setVersionLabel("6.4.0");
+        setImageVersion.setBuildId("20240101");
+        setImageVersion.setBuildIdX(200);
+        setImageVersion.setBuildIdY(230);
+        setImageVersion.setOutputImageFormat("bmp");
+        setImageVersion.setBmpRegionRendering(false);
+        final File inPlace = tmpFolder.resolve("in-place.bmp").toFile();
+        setImageVersion.setOutputImagePath(inPlace.getAbsolutePath());
+        setImageVersion.createImage();
+        setImageVersion.setRenderInPlace(false);
+        final File copy = tmpFolder.resolve("copy.bmp").toFile();
+        setImageVersion.setOutputImagePath(copy.getAbsolutePath());
+        setImageVersion.createImage();
+
+        assertSamePixels(ImageIO.read(inPlace), ImageIO.read(copy));
+    }
+
+    @Test
+    void render_in_place_allocates_less(@TempDir Path tmpFolder) throws Exception {
+        final File baseImage = tmpFolder.resolve("large.png").toFile();
+        final BufferedImage large = new BufferedImage(2000, 2000, BufferedImage.TYPE_INT_RGB);
+        ImageIO.write(large, "png", baseImage);
+        setImageVersion.setBaseImgPath(baseImage.getAbsolutePath());
+        setImageVersion.setxLocation(200);
+        setImageVersion.setyLocation(200);
+        setImageVersion.setVersionLabel("6.4.0");
+        setImageVersion.setOutputImageFormat("png");
+        setImageVersion.setOutputImagePath(tmpFolder.resolve("out.png").toString());
+        setImageVersion.createImage();
+
+        final long inPlace = allocatedBytes(setImageVersion::createImage);
+        setImageVersion.setRenderInPlace(false);
+        final long copy = allocatedBytes(setImageVersion::createImage);
+
+        // The copy holds a full TYPE_INT_ARGB frame: 4 bytes per pixel
+        assertThat(copy - inPlace).isGreaterThan(2000L * 2000L * 3L);
+    }
+
+    @Test
+    void preserve_color_model_keeps_palette_images_indexed(@TempDir Path tmpFolder) throws Exception {
+        final File baseImage = tmpFolder.resolve("indexed.png").toFile();
+        final int[] colors = new int[16];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = new Color(0x33, 0x66, i * 16).getRGB();
+        }
+        final BufferedImage indexed = new BufferedImage(600, 300, BufferedImage.TYPE_BYTE_INDEXED,
+                new IndexColorModel(8, colors.length, colors, 0, false, -1, DataBuffer.TYPE_BYTE));
+        for (int x = 0; x < 600; x++) {
+            for (int y = 0; y < 300; y++) {
+                indexed.getRaster().setSample(x, y, 0, x / 40);
+            }
+        }
+        ImageIO.write(indexed, "png", baseImage);
+        setImageVersion.setBaseImgPath(baseImage.getAbsolutePath());
+        setImageVersion.setxLocation(200);
+        setImageVersion.setyLocation(200);
+        setImageVersion.setVersionLabel("6.4.0");
+        setImageVersion.setOutputImageFormat("png");
+        final File trueColor = tmpFolder.resolve("true-color.png").toFile();
+        setImageVersion.setOutputImagePath(trueColor.getAbsolutePath());
+        setImageVersion.createImage();
+        setImageVersion.setPreserveColorModel(true);
+        final File palette = tmpFolder.resolve("palette.png").toFile();
+        setImageVersion.setOutputImagePath(palette.getAbsolutePath());
+        setImageVersion.createImage();
+
+        final BufferedImage paletteImage = ImageIO.read(palette);
+        assertThat(paletteImage.getColorModel()).isInstanceOf(IndexColorModel.class);
+        assertThat(palette.length()).isLessThan(trueColor.length());
+        final BufferedImage trueColorImage = ImageIO.read(trueColor);
+        final int tolerance = PaletteCanvas.MAX_CHANNEL_ERROR;
+        for (int x = 0; x < 600; x++) {
+            for (int y = 0; y < 300; y++) {
+                final Color expected = new Color(trueColorImage.getRGB(x, y));
+                final Color actual = new Color(paletteImage.getRGB(x, y));
+                assertThat(Math.abs(actual.getRed() - expected.getRed())).isLessThanOrEqualTo(tolerance);
+                assertThat(Math.abs(actual.getGreen() - expected.getGreen())).isLessThanOrEqualTo(tolerance);
+                assertThat(Math.abs(actual.getBlue() - expected.getBlue())).isLessThanOrEqualTo(tolerance);
+            }
+        }
+    }
+
+    @Test
+    void preserve_color_model_falls_back_to_true_color_for_jpg(@TempDir Path tmpFolder) throws Exception {
+        final File baseImage = tmpFolder.resolve("indexed.png").toFile();
+        ImageIO.write(new BufferedImage(600, 300, BufferedImage.TYPE_BYTE_INDEXED), "png", baseImage);
+        setImageVersion.setBaseImgPath(baseImage.getAbsolutePath());
+        setImageVersion.setxLocation(200);
+        setImageVersion.setyLocation(200);
+        setImageVersion.setVersionLabel("6.4.0");
+        setImageVersion.setOutputImageFormat("jpg");
+        setImageVersion.setPreserveColorModel(true);
+        final File jpg = tmpFolder.resolve("out.jpg").toFile();
+        setImageVersion.setOutputImagePath(jpg.getAbsolutePath());
+
+        setImageVersion.createImage();
+
+        assertThat(ImageIO.read(jpg).getColorModel()).isNotInstanceOf(IndexColorModel.class);
+    }
+
+    @Test
+    void create_image_writes_all_formats_from_one_render(@TempDir Path tmpFolder) throws Exception {
+        setImageVersion.setBaseImgPath(
+                new File(SetImageVersionTest.class.getResource("/splash_sp_without_version.bmp").getFile())
+                        .getAbsolutePath());
+        setImageVersion.setxLocation(200);
+        setImageVersion.setyLocation(200);
+        setImageVersion.setVersionLabel("6.4.0");
+        setImageVersion.setOutputImageFormat("bmp");
+        final File bmp = tmpFolder.resolve("splash.bmp").toFile();
+        final File png = tmpFolder.resolve("splash.png").toFile();
+        final File jpg = tmpFolder.resolve("splash.jpg").toFile();
+        setImageVersion.setOutputImagePath(bmp.getAbsolutePath());
+        setImageVersion.setAdditionalOutputs(List.of(new OutputImage(png.getAbsolutePath(), "png"),
+                new OutputImage(jpg.getAbsolutePath(), "jpg")));
+
+        setImageVersion.createImage();
+
+        assertSamePixels(ImageIO.read(png), ImageIO.read(bmp));
+        final BufferedImage jpgImage = ImageIO.read(jpg);
+        assertThat(jpgImage.getWidth()).isEqualTo(600);
+        assertThat(jpgImage.getHeight()).isEqualTo(300);
+        verify(setImageVersion).loadBaseImage();
+        assertThat(setImageVersion.getMetrics().getBytesWritten())
+                .isEqualTo(bmp.length() + png.length() + jpg.length());
+    }
+
+    @Test
+    void create_image_writes_additional_outputs_with_the_parallel_png_encoder(@TempDir Path tmpFolder)
+            throws Exception {
+        setImageVersion.setBaseImgPath(
+                new File(SetImageVersionTest.class.getResource("/splash_sp_without_version.bmp").getFile())
+                        .getAbsolutePath());
+        setImageVersion.setxLocation(200);
+        setImageVersion.setyLocation(200);
+        setImageVersion.setVersionLabel("6.4.0");
+        setImageVersion.setOutputImageFormat("png");
+        setImageVersion.setEncoderSettings(new EncoderSettings(-1, -1f, false, null, true));
+        final File png = tmpFolder.resolve("splash.png").toFile();
+        final File png2 = tmpFolder.resolve("splash2.png").toFile();
+        final File png3 = tmpFolder.resolve("splash3.png").toFile();
+        setImageVersion.setOutputImagePath(png.getAbsolutePath());
+        setImageVersion.setAdditionalOutputs(List.of(new OutputImage(png2.getAbsolutePath(), "png"),
+                new OutputImage(png3.getAbsolutePath(), "png")));
+
+        setImageVersion.createImage();
+
+        assertSamePixels(ImageIO.read(png2), ImageIO.read(png));
+        assertSamePixels(ImageIO.read(png3), ImageIO.read(png));
+    }
+
+    @Test
+    void write_only_if_changed_keeps_unchanged_outputs(@TempDir Path tmpFolder) throws Exception {
+        setImageVersion.setBaseImgPath(
+                new File(SetImageVersionTest.class.getResource("/splash_sp_without_version.bmp").getFile())
+                        .getAbsolutePath());
+        setImageVersion.setxLocation(200);
+        setImageVersion.setyLocation(200);
+        setImageVersion.setVersionLabel("6.4.0");
+        setImageVersion.setOutputImageFormat("bmp");
+        setImageVersion.setWriteOnlyIfChanged(true);
+        final File bmp = tmpFolder.resolve("splash.bmp").toFile();
+        final File png = tmpFolder.resolve("splash.png").toFile();
+        setImageVersion.setOutputImagePath(bmp.getAbsolutePath());
+        setImageVersion.setAdditionalOutputs(List.of(new OutputImage(png.getAbsolutePath(), "png")));
+        setImageVersion.createImage();
+        final FileTime past = FileTime.fromMillis(1_000_000_000_000L);
+        Files.setLastModifiedTime(bmp.toPath(), past);
+        Files.setLastModifiedTime(png.toPath(), past);
+        final byte[] rendered = Files.readAllBytes(bmp.toPath());
+
+        setImageVersion.createImage();
+        assertThat(Files.getLastModifiedTime(bmp.toPath())).isEqualTo(past);
+        assertThat(Files.getLastModifiedTime(png.toPath())).isEqualTo(past);
+
+        setImageVersion.setVersionLabel("6.4.1");
+        setImageVersion.createImage();
+        assertThat(Files.getLastModifiedTime(bmp.toPath())).isNotEqualTo(past);
+        assertThat(Files.readAllBytes(bmp.toPath())).isNotEqualTo(rendered);
+        try (Stream<Path> files = Files.list(tmpFolder)) {
+            assertThat(files).containsExactlyInAnyOrder(bmp.toPath(), png.toPath());
+        }
+    }
+
+    @Test
+    void scaled_variant_draws_text_at_scaled_size(@TempDir Path tmpFolder) throws Exception {
+        final File baseImage = tmpFolder.resolve("base.png").toFile();
+        final BufferedImage white = new BufferedImage(240, 80, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = white.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, white.getWidth(), white.getHeight());
+        graphics.dispose();
+        ImageIO.write(white, "png", baseImage);
+        setImageVersion.setBaseImgPath(baseImage.getAbsolutePath());
+        setImageVersion.setxLocation(20);
+        setImageVersion.setyLocation(50);
+        setImageVersion.setColor("#000000");
+        setImageVersion.setVersionLabel("7.6.0");
+        setImageVersion.setOutputImageFormat("png");
+        final File normal = tmpFolder.resolve("splash.png").toFile();
+        setImageVersion.setOutputImagePath(normal.getAbsolutePath());
+        setImageVersion.createImage();
+        setImageVersion.setScale(2f);
+        final File scaled = tmpFolder.resolve("splash@2x.png").toFile();
+        setImageVersion.setOutputImagePath(scaled.getAbsolutePath());
+        setImageVersion.createImage();
+
+        final BufferedImage normalImage = ImageIO.read(normal);
+        final BufferedImage scaledImage = ImageIO.read(scaled);
+        assertThat(scaledImage.getWidth()).isEqualTo(480);
+        assertThat(scaledImage.getHeight()).isEqualTo(160);
+        final Rectangle normalText = textBounds(normalImage);
+        final Rectangle scaledText = textBounds(scaledImage);
+        assertThat(scaledText.x).isBetween(normalText.x * 2 - 2, normalText.x * 2 + 2);
+        assertThat(scaledText.width).isBetween(normalText.width * 2 - 4, normalText.width * 2 + 4);
+        assertThat(scaledText.height).isBetween(normalText.height * 2 - 4, normalText.height * 2 + 4);
+    }
+
+    private static Rectangle textBounds(final BufferedImage image) {
+        Rectangle bounds = null;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if ((image.getRGB(x, y) & 0xFFFFFF) != 0xFFFFFF) {
+                    final Rectangle pixel = new Rectangle(x, y, 1, 1);
+                    bounds = bounds == null ? pixel : bounds.union(pixel);
+                }
+            }
+        }
+        assertThat(bounds).isNotNull();
+        return bounds;
+    }
+
+    private static long allocatedBytes(final ImageTask task) throws CreateImageException {
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        task.run();
+        return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private interface ImageTask {
+
+        void run() throws CreateImageException;
+    }
+
+    static void assertSamePixels(final BufferedImage actual, final BufferedImage expected) {
+        assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                if (actual.getRGB(x, y) != expected.getRGB(x, y)) {
+                    throw new AssertionError(String.format("Pixel (%s,%s) differs: %08x instead of %08x", x, y,
+                            actual.getRGB(x, y), expected.getRGB(x, y)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void create_image_records_metrics(@TempDir Path tmpFolder) throws Exception {
+        setImageVersion.setBaseImgPath(
+                new File(SetImageVersionTest.class.getResource("/Logo-Welcome-Community-Without-Version.png").getFile())
+                        .getAbsolutePath());
+        setImageVersion.setxLocation(192);
+        setImageVersion.setyLocation(78);
+        setImageVersion.setVersionLabel("7.6.0");
+        setImageVersion.setOutputImageFormat("png");
+        final File imageFile = tmpFolder.resolve("splash.png").toFile();
+        setImageVersion.setOutputImagePath(imageFile.getAbsolutePath());
+        setImageVersion.createImage();
+
+        final RenderMetrics metrics = setImageVersion.getMetrics();
+        assertThat(metrics.getOutputImagePath()).isEqualTo(imageFile.getAbsolutePath());
+        assertThat(metrics.getWidth()).isPositive();
+        assertThat(metrics.getHeight()).isPositive();
+        assertThat(metrics.getBytesWritten()).isEqualTo(imageFile.length());
+        assertThat(metrics.getBytesRead()).isPositive();
+        assertThat(metrics.getWallTimeNanos(RenderMetrics.Stage.DECODE)).isPositive();
+        assertThat(metrics.getWallTimeNanos(RenderMetrics.Stage.ENCODE)).isPositive();
+        assertThat(metrics.summary()).startsWith("Rendered " + imageFile.getAbsolutePath());
+    }
+
     @Test
     void configure_set_valid_output_img_format() throws Exception {
         setImageVersion.configure();
@@ -194,6 +498,39 @@ class SetImageVersionTest {
         assertThrows(CreateImageException.class, () -> setImageVersion.createImage());
     }
 
+    @Test
+    void fingerprint_changes_with_inputs() throws Exception {
+        setImageVersion.setBaseImgPath(
+                new File(SetImageVersionTest.class.getResource("/splash_sp_without_version.bmp").getFile())
+                        .getAbsolutePath());
+        setImageVersion.setVersionLabel("6.4.0");
+        setImageVersion.setOutputImageFormat("bmp");
+        setImageVersion.setOutputImagePath("splash.bmp");
+        final String fingerprint = setImageVersion.fingerprint("1.0.0");
+
+        assertThat(setImageVersion.fingerprint("1.0.0")).isEqualTo(fingerprint);
+        assertThat(setImageVersion.fingerprint("1.0.1")).isNotEqualTo(fingerprint);
+        setImageVersion.setVersionLabel("6.4.1");
+        assertThat(setImageVersion.fingerprint("1.0.0")).isNotEqualTo(fingerprint);
+    }
+
+    @Test
+    void fingerprint_changes_with_compositing_settings() throws Exception {
+        setImageVersion.setBaseImgPath(
+                new File(SetImageVersionTest.class.getResource("/splash_sp_without_version.bmp").getFile())
+                        .getAbsolutePath());
+        setImageVersion.setVersionLabel("6.4.0");
+        setImageVersion.setOutputImageFormat("bmp");
+        setImageVersion.setOutputImagePath("splash.bmp");
+        final String fingerprint = setImageVersion.fingerprint("1.0.0");
+
+        setImageVersion.setMaskCompositing(true);
+        final String maskFingerprint = setImageVersion.fingerprint("1.0.0");
+        assertThat(maskFingerprint).isNotEqualTo(fingerprint);
+        setImageVersion.setPreserveColorModel(true);
+        assertThat(setImageVersion.fingerprint("1.0.0")).isNotEqualTo(maskFingerprint).isNotEqualTo(fingerprint);
+    }
+
     @Test
     void should_strip_version_snapshot() throws Exception {
         assertThat(setImageVersion.stripSNAPSHOT("1.0.0-SNAPSHOT")).isEqualTo("1.0.0");
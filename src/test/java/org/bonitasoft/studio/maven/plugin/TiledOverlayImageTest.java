@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class TiledOverlayImageTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "/Logo-Welcome-Community-Without-Version.png, png",
+            "/splash_sp_without_version.bmp, png",
+            "/splash_sp_without_version.bmp, bmp" })
+    void should_render_same_pixels_as_full_decode(String baseImage, String format, @TempDir Path tmpFolder)
+            throws Exception {
+        final File tiled = tmpFolder.resolve("tiled." + format).toFile();
+        final File full = tmpFolder.resolve("full." + format).toFile();
+
+        render(baseImage, format, tiled, true);
+        render(baseImage, format, full, false);
+
+        SetImageVersionTest.assertSamePixels(ImageIO.read(tiled), ImageIO.read(full));
+    }
+
+    @Test
+    void should_only_paint_tiles_under_the_text() throws Exception {
+        final AtomicInteger paintedTiles = new AtomicInteger();
+        try (TiledOverlayImage image = new TiledOverlayImage(
+                new File(TiledOverlayImageTest.class.getResource("/splash_sp_without_version.bmp").getFile()), 10,
+                BufferedImage.TYPE_INT_RGB, new Rectangle(0, 95, 50, 10),
+                (tile, x, y) -> paintedTiles.incrementAndGet())) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                final Raster row = image.getData(new Rectangle(0, y, image.getWidth(), 1));
+                assertThat(row.getMinY()).isEqualTo(y);
+            }
+            assertThat(image.getNumYTiles()).isEqualTo(30);
+        }
+        assertThat(paintedTiles).hasValue(2);
+    }
+
+    private static void render(String baseImage, String format, File output, boolean tiledDecoding)
+            throws Exception {
+        final SetImageVersion setImageVersion = new SetImageVersion();
+        setImageVersion.setTiledDecoding(tiledDecoding);
+        setImageVersion.setTileHeight(7);
+        setImageVersion.setRenderInPlace(false);
+        setImageVersion.setBmpRegionRendering(false);
+        setImageVersion.setBaseImgPath(
+                new File(TiledOverlayImageTest.class.getResource(baseImage).getFile()).getAbsolutePath());
+        setImageVersion.setxLocation(192);
+        setImageVersion.setyLocation(78);
+        setImageVersion.setSize(35);
+        setImageVersion.setVersionLabel("7.6.0");
+        setImageVersion.setBuildId("20240101");
+        setImageVersion.setBuildIdX(192);
+        setImageVersion.setBuildIdY(100);
+        setImageVersion.setColor("#0b4361");
+        setImageVersion.setOutputImageFormat(format);
+        setImageVersion.setOutputImagePath(output.getAbsolutePath());
+        setImageVersion.createImage();
+    }
+
+}
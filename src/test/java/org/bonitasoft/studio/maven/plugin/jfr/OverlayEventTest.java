@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.studio.maven.plugin.jfr;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.bonitasoft.studio.maven.plugin.SetImageVersion;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class OverlayEventTest {
+
+    private static final String[] EVENT_NAMES = { "org.bonitasoft.imageoverlay.FontResolve",
+            "org.bonitasoft.imageoverlay.ImageDecode", "org.bonitasoft.imageoverlay.TextComposition",
+            "org.bonitasoft.imageoverlay.ImageEncode" };
+
+    @Test
+    void should_record_an_event_per_stage(@TempDir Path tmpFolder) throws Exception {
+        final String baseImgPath = new File(
+                OverlayEventTest.class.getResource("/Logo-Welcome-Community-Without-Version.png").getFile())
+                        .getAbsolutePath();
+        final String outputImagePath = tmpFolder.resolve("welcome.png").toString();
+        final SetImageVersion setImageVersion = new SetImageVersion();
+        setImageVersion.setBaseImgPath(baseImgPath);
+        setImageVersion.setxLocation(192);
+        setImageVersion.setyLocation(78);
+        setImageVersion.setVersionLabel("7.6.0");
+        setImageVersion.setOutputImageFormat("png");
+        setImageVersion.setOutputImagePath(outputImagePath);
+
+        final Path recordingFile = tmpFolder.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            for (final String eventName : EVENT_NAMES) {
+                recording.enable(eventName).withoutThreshold();
+            }
+            recording.start();
+            setImageVersion.createImage();
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile).stream()
+                .filter(event -> event.getEventType().getName().startsWith("org.bonitasoft.imageoverlay."))
+                .collect(Collectors.toList());
+        assertThat(events).extracting(event -> event.getEventType().getName()).containsExactly(EVENT_NAMES);
+        final RecordedEvent encode = events.get(3);
+        assertThat(encode.getString("imagePath")).isEqualTo(outputImagePath);
+        assertThat(encode.getString("baseImagePath")).isEqualTo(baseImgPath);
+        assertThat(encode.getString("format")).isEqualTo("png");
+        assertThat(encode.getString("fontName")).isEqualTo("HelveticaNeueLTStd-Cn");
+        for (final RecordedEvent event : events) {
+            assertThat(event.getInt("width")).as(event.getEventType().getName()).isEqualTo(288);
+            assertThat(event.getInt("height")).as(event.getEventType().getName()).isEqualTo(144);
+        }
+    }
+
+}